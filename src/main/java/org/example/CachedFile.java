@@ -0,0 +1,515 @@
+package org.example;
+
+import org.example.buffer.BufferPool;
+import org.example.cache.MappedFile;
+import org.example.protocol.AcceptEncoding;
+import org.example.protocol.ByteRanges;
+import org.example.protocol.HttpDate;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+/**
+ * A static file as it is served: its bytes plus the response headers that only depend on the file,
+ * already formatted and encoded once, so a hit does no formatting or string building.
+ * Depending on its size the content is a heap copy, a read-only {@link MappedFile}, or nothing at all: files
+ * too big for either keep only the metadata and are streamed with a {@link FileBody}.
+ *
+ * Compressed variants hang off the file: precompressed siblings (name.br, name.gz) when they exist, otherwise
+ * for text types a gzip copy made once when the file is loaded. {@link #select} picks one per request by
+ * Accept-Encoding; all of them go out with Vary: Accept-Encoding.
+ *
+ * Each variant has a strong ETag made from its length and modification time, so a new version of the file is
+ * a new tag without hashing the content, and a conditional GET that still matches gets a 304 whose headers
+ * are pre-encoded as well.
+ *
+ * Range requests get 206 with slices of the heap copy or the mapping, or positioned reads of just those bytes
+ * for streamed files; several ranges go out as multipart/byteranges.
+ */
+public final class CachedFile {
+    // files above this are streamed when there is no cache to say otherwise
+    public static final int DEFAULT_MAX_CONTENT = 1024 * 1024;
+    // larger text files are sent as they are rather than compressed at load
+    static final int MAX_COMPRESS_SIZE = 8 * 1024 * 1024;
+
+    public final Path path;
+    // null for mapped and streamed files
+    public final byte[] content;
+    // null unless mapped, the CachedFile owns one reference
+    public final MappedFile mapping;
+    public final long length;
+    public final String contentType;
+    // null for the file as it is, "br" or "gzip" for a variant
+    public final String contentEncoding;
+    public final String contentLength;
+    public final long lastModified;
+    // Last-Modified value
+    public final String lastModifiedHeader;
+    // quoted, different for every variant
+    public final String etag;
+    // variants of this file, null when there are none
+    public final CachedFile brotli;
+    public final CachedFile gzip;
+    // Server, Content-Type, Content-Length, Accept-Ranges, Last-Modified, ETag plus Content-Encoding and Vary
+    // lines, see HttpResponse.setEncodedHeaders
+    public final byte[] encodedHeaders;
+    // the same without the content lines, for 304
+    public final byte[] notModifiedHeaders;
+
+    private CachedFile(Path path, byte[] content, MappedFile mapping, long length, String contentType,
+                       String contentEncoding, long lastModified, String etag, CachedFile brotli, CachedFile gzip) {
+        this.path = path;
+        this.content = content;
+        this.mapping = mapping;
+        this.length = length;
+        this.contentType = contentType;
+        this.contentEncoding = contentEncoding;
+        this.contentLength = String.valueOf(length);
+        this.lastModified = lastModified;
+        this.lastModifiedHeader = HttpDate.format(lastModified);
+        this.etag = etag;
+        this.brotli = brotli;
+        this.gzip = gzip;
+        String validators = "Last-Modified: " + lastModifiedHeader + "\r\n"
+                + "ETag: " + etag + "\r\n"
+                + (isNegotiated() ? "Vary: Accept-Encoding\r\n" : "");
+        StringBuilder headers = new StringBuilder()
+                .append("Server: ").append(HttpResponse.SERVER).append("\r\n")
+                .append("Content-Type: ").append(contentType).append("\r\n")
+                .append("Content-Length: ").append(contentLength).append("\r\n")
+                .append("Accept-Ranges: bytes\r\n");
+        if (contentEncoding != null) {
+            headers.append("Content-Encoding: ").append(contentEncoding).append("\r\n");
+        }
+        this.encodedHeaders = headers.append(validators).toString().getBytes(ISO_8859_1);
+        this.notModifiedHeaders = ("Server: " + HttpResponse.SERVER + "\r\n" + validators).getBytes(ISO_8859_1);
+    }
+
+    /**
+     * read a regular file, null if there is none at path. content above maxContent is not read
+     */
+    public static CachedFile load(Path path, int maxContent) throws IOException {
+        return load(path, maxContent, Long.MAX_VALUE, 0, false);
+    }
+
+    /**
+     * read a regular file, null if there is none at path. files of mapFrom to mapTo bytes are mapped,
+     * smaller ones up to maxContent are read, the rest are not read at all. compress: make a gzip copy of
+     * text files read or mapped here that have no name.gz next to them
+     */
+    public static CachedFile load(Path path, int maxContent, long mapFrom, long mapTo, boolean compress) throws IOException {
+        BasicFileAttributes attrs = attributes(path);
+        if (attrs == null) {
+            return null;
+        }
+        String contentType = HarmarHttpServer.determineContentType(path);
+        long lastModified = attrs.lastModifiedTime().toMillis();
+        String etag = etag(attrs.size(), attrs.lastModifiedTime(), null);
+        CachedFile brotli = loadSibling(path, ".br", "br", contentType, maxContent);
+        CachedFile gzip = loadSibling(path, ".gz", "gzip", contentType, maxContent);
+
+        long size = attrs.size();
+        byte[] content = null;
+        MappedFile mapping = null;
+        if (size >= mapFrom && size <= mapTo) {
+            // null while the file may still be written to, it is streamed until it settles
+            mapping = MappedFile.mapSettled(path, attrs);
+        } else if (size <= maxContent) {
+            content = Files.readAllBytes(path);
+            size = content.length;
+        }
+
+        if (gzip == null && compress && isCompressible(contentType) && size <= MAX_COMPRESS_SIZE
+                && (content != null || mapping != null)) {
+            byte[] compressed = gzip(content != null ? ByteBuffer.wrap(content) : mapping.slice());
+            // not worth a variant if it hardly shrinks
+            if (compressed.length < size - size / 10) {
+                gzip = new CachedFile(path, compressed, null, compressed.length, contentType, "gzip",
+                        lastModified, etag(attrs.size(), attrs.lastModifiedTime(), "gz"), null, null);
+            }
+        }
+        return new CachedFile(path, content, mapping, size, contentType, null, lastModified, etag, brotli, gzip);
+    }
+
+    /**
+     * a file known from its metadata alone, see {@link StaticManifest.Entry#describe}: its headers, no content
+     */
+    static CachedFile describe(Path path, String contentType, long length, long lastModified, String etag) {
+        return new CachedFile(path, null, null, length, contentType, null, lastModified, etag, null, null);
+    }
+
+    // a precompressed sibling, sent as the original's type; on the heap or streamed, never mapped
+    private static CachedFile loadSibling(Path path, String suffix, String encoding, String contentType,
+                                          int maxContent) throws IOException {
+        Path sibling = path.resolveSibling(path.getFileName() + suffix);
+        BasicFileAttributes attrs = attributes(sibling);
+        if (attrs == null) {
+            return null;
+        }
+        byte[] content = attrs.size() <= maxContent ? Files.readAllBytes(sibling) : null;
+        return new CachedFile(sibling, content, null, content != null ? content.length : attrs.size(),
+                contentType, encoding, attrs.lastModifiedTime().toMillis(),
+                etag(attrs.size(), attrs.lastModifiedTime(), suffix.substring(1)), null, null);
+    }
+
+    // "length-mtime" in hex, mtime in microseconds so two writes within a second still differ
+    static String etag(long length, FileTime modified, String variant) {
+        String tag = Long.toHexString(length) + "-" + Long.toHexString(modified.to(TimeUnit.MICROSECONDS));
+        return "\"" + (variant != null ? tag + "-" + variant : tag) + "\"";
+    }
+
+    // null unless path is a regular file
+    private static BasicFileAttributes attributes(Path path) throws IOException {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            return attrs.isRegularFile() ? attrs : null;
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * the types of determineContentType that are text and shrink well
+     */
+    static boolean isCompressible(String contentType) {
+        return contentType.startsWith("text/")
+                || contentType.equals("application/javascript")
+                || contentType.equals("application/json")
+                || contentType.equals("image/svg+xml");
+    }
+
+    // paid once per file version, so the best ratio is worth it
+    private static byte[] gzip(ByteBuffer source) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(source.remaining() / 4);
+        try (GZIPOutputStream gz = new GZIPOutputStream(out, 64 * 1024) {{ def.setLevel(Deflater.BEST_COMPRESSION); }}) {
+            byte[] chunk = new byte[(int) Math.min(64 * 1024, source.remaining())];
+            while (source.hasRemaining()) {
+                int n = Math.min(chunk.length, source.remaining());
+                source.get(chunk, 0, n);
+                gz.write(chunk, 0, n);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * the identity file a precompressed sibling (name.gz, name.br) belongs to, null for other paths
+     */
+    static Path originalOf(Path sibling) {
+        String name = sibling.getFileName().toString();
+        if (name.length() > 3 && (name.endsWith(".gz") || name.endsWith(".br"))) {
+            return sibling.resolveSibling(name.substring(0, name.length() - 3));
+        }
+        return null;
+    }
+
+    /**
+     * the same file without its mapping, streamed from now on. drops the mapping's reference
+     */
+    CachedFile unmapped() {
+        if (mapping == null) {
+            return this;
+        }
+        mapping.release();
+        return new CachedFile(path, null, null, length, contentType, contentEncoding, lastModified, etag, brotli, gzip);
+    }
+
+    /**
+     * the variant the request asks for: a 304 if the client's copy of it is current, the ranges it asks for
+     * unless If-Range says its copy is outdated, else all of it
+     */
+    public void respond(HttpRequest request, HttpResponse response) throws IOException {
+        // lower case names, all request parsers look them up that way
+        CachedFile variant = select(request.headers.get("accept-encoding"));
+        if (variant.isNotModified(request.headers.get("if-none-match"), request.headers.get("if-modified-since"))) {
+            variant.applyNotModifiedTo(response);
+            return;
+        }
+        String range = request.headers.get("range");
+        String ifRange = request.headers.get("if-range");
+        if (range != null && (ifRange == null || variant.matchesIfRange(ifRange))) {
+            long[] ranges = ByteRanges.parse(range, variant.length);
+            if (ranges != null) {
+                if (ranges.length == 0) {
+                    variant.applyUnsatisfiableTo(response);
+                } else {
+                    variant.applyRangesTo(response, ranges);
+                }
+                return;
+            }
+        }
+        variant.applyTo(response);
+    }
+
+    /**
+     * If-Range holds the ETag or the Last-Modified date of the copy the client has part of;
+     * strong comparison, a weak tag never matches
+     */
+    public boolean matchesIfRange(String ifRange) {
+        String value = ifRange.trim();
+        if (value.startsWith("\"") || value.startsWith("W/")) {
+            return value.equals(etag);
+        }
+        return value.equals(lastModifiedHeader);
+    }
+
+    /**
+     * whether a GET with these conditional headers (null if absent) gets a 304: If-None-Match against the
+     * ETag, only without it If-Modified-Since against Last-Modified (RFC 9110 13.2.2)
+     */
+    public boolean isNotModified(String ifNoneMatch, String ifModifiedSince) {
+        if (ifNoneMatch != null) {
+            return matchesEtag(ifNoneMatch);
+        }
+        if (ifModifiedSince == null) {
+            return false;
+        }
+        if (ifModifiedSince.equals(lastModifiedHeader)) {
+            return true; // our own value sent back, the usual case
+        }
+        long since = HttpDate.parse(ifModifiedSince);
+        return since >= 0 && lastModified / 1000 <= since / 1000;
+    }
+
+    // weak comparison over the list, as If-None-Match asks for
+    private boolean matchesEtag(String ifNoneMatch) {
+        int length = ifNoneMatch.length();
+        int start = 0;
+        while (start < length) {
+            int end = ifNoneMatch.indexOf(',', start);
+            if (end < 0) {
+                end = length;
+            }
+            int tagStart = start;
+            int tagEnd = end;
+            while (tagStart < tagEnd && ifNoneMatch.charAt(tagStart) == ' ') {
+                tagStart++;
+            }
+            while (tagEnd > tagStart && ifNoneMatch.charAt(tagEnd - 1) == ' ') {
+                tagEnd--;
+            }
+            if (tagEnd - tagStart == 1 && ifNoneMatch.charAt(tagStart) == '*') {
+                return true;
+            }
+            if (ifNoneMatch.startsWith("W/", tagStart)) {
+                tagStart += 2;
+            }
+            if (tagEnd - tagStart == etag.length() && ifNoneMatch.startsWith(etag, tagStart)) {
+                return true;
+            }
+            start = end + 1;
+        }
+        return false;
+    }
+
+    /**
+     * the variant to send for this Accept-Encoding (null: header absent), this file if none is acceptable.
+     * brotli wins a tie
+     */
+    public CachedFile select(String acceptEncoding) {
+        if (acceptEncoding == null || brotli == null && gzip == null) {
+            return this;
+        }
+        float br = brotli != null ? AcceptEncoding.quality(acceptEncoding, "br") : 0;
+        float gz = gzip != null ? AcceptEncoding.quality(acceptEncoding, "gzip") : 0;
+        if (br == 0 && gz == 0) {
+            return this;
+        }
+        return br >= gz ? brotli : gzip;
+    }
+
+    /**
+     * the response depends on Accept-Encoding
+     */
+    public boolean isNegotiated() {
+        return contentEncoding != null || brotli != null || gzip != null;
+    }
+
+    public boolean isStreamed() {
+        return content == null && mapping == null;
+    }
+
+    public boolean isMapped() {
+        return mapping != null;
+    }
+
+    /**
+     * bytes held on the heap, variants included
+     */
+    public int size() {
+        int size = content != null ? content.length : 0;
+        if (brotli != null) {
+            size += brotli.size();
+        }
+        if (gzip != null) {
+            size += gzip.size();
+        }
+        return size;
+    }
+
+    /**
+     * bytes mapped
+     */
+    public int mappedSize() {
+        return mapping != null ? mapping.size() : 0;
+    }
+
+    /**
+     * 200 with this file as the body
+     */
+    public void applyTo(HttpResponse response) throws IOException {
+        applyHeadersTo(response);
+        applyBodyTo(response);
+    }
+
+    /**
+     * this file as the body of a 200 whose headers are already set
+     */
+    public void applyBodyTo(HttpResponse response) throws IOException {
+        if (mapping != null && mapping.retain()) {
+            // straight from the page cache, the body gives the reference back when the response is done
+            response.setBody(new MappedFileBody(mapping));
+            return;
+        }
+        if (content == null) {
+            // disk reads off the network threads, one chunk in memory per download.
+            // also for a mapping that was dropped between lookup and here
+            response.setBody(new FileBody(path, length));
+            return;
+        }
+        ResponseBody body = new ResponseBody();
+        body.addChunk(content);
+        body.end();
+        response.setBody(body);
+    }
+
+    /**
+     * status and headers of the 200, no body (HEAD)
+     */
+    public void applyHeadersTo(HttpResponse response) {
+        response.setStatus(HttpStatus.OK);
+        response.setDefaultHeaders();
+        response.setHeader("Content-Type", contentType);
+        response.setHeader("Content-Length", contentLength);
+        response.setHeader("Accept-Ranges", "bytes");
+        if (contentEncoding != null) {
+            response.setHeader("Content-Encoding", contentEncoding);
+        }
+        response.setHeader("Last-Modified", lastModifiedHeader);
+        response.setHeader("ETag", etag);
+        if (isNegotiated()) {
+            response.setHeader("Vary", "Accept-Encoding");
+        }
+        response.setEncodedHeaders(encodedHeaders);
+    }
+
+    /**
+     * 304: the validators the 200 would carry, no content headers and no body
+     */
+    public void applyNotModifiedTo(HttpResponse response) {
+        response.setStatus(HttpStatus.NOT_MODIFIED);
+        response.setDefaultHeaders();
+        response.setHeader("Last-Modified", lastModifiedHeader);
+        response.setHeader("ETag", etag);
+        if (isNegotiated()) {
+            response.setHeader("Vary", "Accept-Encoding");
+        }
+        response.setEncodedHeaders(notModifiedHeaders);
+    }
+
+    /**
+     * 206 with the given ranges (first and last byte pairs from ByteRanges), one range as it is,
+     * more as multipart/byteranges. nothing outside them is read
+     */
+    public void applyRangesTo(HttpResponse response, long[] ranges) throws IOException {
+        response.setStatus(HttpStatus.PARTIAL_CONTENT);
+        response.setDefaultHeaders();
+        int count = ranges.length / 2;
+        ByteBuffer[] heads = null;
+        ByteBuffer trailer = null;
+        long bodyLength = 0;
+        if (count == 1) {
+            response.setHeader("Content-Type", contentType);
+            response.setHeader("Content-Range", contentRange(ranges[0], ranges[1]));
+            bodyLength = ranges[1] - ranges[0] + 1;
+        } else {
+            String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong() | Long.MIN_VALUE);
+            response.setHeader("Content-Type", "multipart/byteranges; boundary=" + boundary);
+            heads = new ByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                // the first delimiter opens the body, the others end the previous part's data
+                heads[i] = ByteBuffer.wrap(((i == 0 ? "--" : "\r\n--") + boundary + "\r\n"
+                        + "Content-Type: " + contentType + "\r\n"
+                        + "Content-Range: " + contentRange(ranges[2 * i], ranges[2 * i + 1]) + "\r\n\r\n")
+                        .getBytes(ISO_8859_1));
+                bodyLength += heads[i].remaining() + ranges[2 * i + 1] - ranges[2 * i] + 1;
+            }
+            trailer = ByteBuffer.wrap(("\r\n--" + boundary + "--\r\n").getBytes(ISO_8859_1));
+            bodyLength += trailer.remaining();
+        }
+        response.setHeader("Content-Length", String.valueOf(bodyLength));
+        if (contentEncoding != null) {
+            response.setHeader("Content-Encoding", contentEncoding);
+        }
+        response.setHeader("Last-Modified", lastModifiedHeader);
+        response.setHeader("ETag", etag);
+        if (isNegotiated()) {
+            response.setHeader("Vary", "Accept-Encoding");
+        }
+
+        if (content == null && (mapping == null || !mapping.retain())) {
+            // positioned reads of the ranges only
+            response.setBody(count == 1
+                    ? new FileBody(path, ranges[0], ranges[1] - ranges[0] + 1, BufferPool.DEFAULT, FileBody.DEFAULT_CHUNK_SIZE)
+                    : new FileBody(path, ranges, heads, trailer));
+            return;
+        }
+        ByteBuffer whole = content != null ? ByteBuffer.wrap(content) : mapping.slice();
+        ByteBuffer[] parts = new ByteBuffer[count == 1 ? 1 : 2 * count + 1];
+        for (int i = 0, p = 0; i < count; i++) {
+            if (heads != null) {
+                parts[p++] = heads[i];
+            }
+            parts[p++] = whole.slice((int) ranges[2 * i], (int) (ranges[2 * i + 1] - ranges[2 * i] + 1));
+        }
+        if (trailer != null) {
+            parts[parts.length - 1] = trailer;
+        }
+        if (mapping != null) {
+            response.setBody(new MappedFileBody(mapping, parts));
+            return;
+        }
+        ResponseBody body = new ResponseBody();
+        for (ByteBuffer part : parts) {
+            body.addChunk(part);
+        }
+        body.end();
+        response.setBody(body);
+    }
+
+    /**
+     * 416: none of the ranges is inside the file, Content-Range says how long it is
+     */
+    public void applyUnsatisfiableTo(HttpResponse response) {
+        response.setStatus(HttpStatus.RANGE_NOT_SATISFIABLE);
+        response.setDefaultHeaders();
+        response.setHeader("Content-Range", "bytes */" + length);
+        response.setHeader("Content-Length", "0");
+    }
+
+    private String contentRange(long first, long last) {
+        return "bytes " + first + "-" + last + "/" + length;
+    }
+}
@@ -0,0 +1,131 @@
+package org.example;
+
+import org.example.protocol.HttpDate;
+import org.example.protocol.ResponseHeaderEncoder;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Fixed error responses whose bytes are built once and shared.
+ * Each variant (HTTP version x keep-alive) is a read-only buffer, rebuilt only when the
+ * Date ticker moves on; connections write a duplicate of it.
+ */
+public final class CannedResponse {
+    public static final CannedResponse FORBIDDEN =
+            new CannedResponse(HttpStatus.FORBIDDEN, "text/html; charset=utf8", "403 FORBIDDEN".getBytes(UTF_8));
+    public static final CannedResponse NOT_FOUND =
+            new CannedResponse(HttpStatus.NOT_FOUND, "text/html; charset=utf-8", errorHtml(HttpStatus.NOT_FOUND));
+    public static final CannedResponse TOO_MANY_REQUESTS =
+            new CannedResponse(HttpStatus.TOO_MANY_REQUESTS, "text/plain", "Too Many Requests".getBytes(UTF_8));
+    public static final CannedResponse NOT_IMPLEMENTED =
+            new CannedResponse(HttpStatus.NOT_IMPLEMENTED, "text/html", "Not Implemented".getBytes(UTF_8));
+    public static final CannedResponse INTERNAL_SERVER_ERROR =
+            new CannedResponse(HttpStatus.INTERNAL_SERVER_ERROR, "text/plain", "Internal Server Error".getBytes(UTF_8));
+    public static final CannedResponse SERVICE_UNAVAILABLE =
+            new CannedResponse(HttpStatus.SERVICE_UNAVAILABLE, "text/plain", "Service Unavailable".getBytes(UTF_8), "1");
+
+    private final HttpStatus status;
+    private final String contentType;
+    private final byte[] body;
+    // Retry-After seconds, null for none
+    private final String retryAfter;
+    // [version.ordinal() * 2 + (keepAlive ? 1 : 0)]
+    private final Variant[] variants = new Variant[HttpVersion.values().length * 2];
+
+    private record Variant(byte[] date, ByteBuffer bytes) {
+    }
+
+    private CannedResponse(HttpStatus status, String contentType, byte[] body) {
+        this(status, contentType, body, null);
+    }
+
+    private CannedResponse(HttpStatus status, String contentType, byte[] body, String retryAfter) {
+        this.status = status;
+        this.contentType = contentType;
+        this.body = body;
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * shed responses of the admission controller
+     */
+    public static CannedResponse forRejection(HttpStatus status) {
+        return status == HttpStatus.TOO_MANY_REQUESTS ? TOO_MANY_REQUESTS : SERVICE_UNAVAILABLE;
+    }
+
+    public HttpStatus getStatus() {
+        return status;
+    }
+
+    /**
+     * fill a response object with this canned response, transports that can't use the
+     * pre-encoded bytes (HTTPS, h2) still see ordinary headers and body
+     */
+    public void applyTo(HttpResponse response) {
+        response.setStatus(status);
+        response.setDefaultHeaders();
+        response.setHeader("Content-Type", contentType);
+        response.setHeader("Content-Length", String.valueOf(body.length));
+        if (retryAfter != null) {
+            response.setHeader("Retry-After", retryAfter);
+        }
+
+        ResponseBody responseBody = new ResponseBody();
+        responseBody.addChunk(body);
+        responseBody.end();
+        response.setBody(responseBody);
+        response.setCanned(this);
+    }
+
+    /**
+     * status line, headers and body in one read-only buffer, positioned at 0
+     */
+    public ByteBuffer encoded(HttpVersion version, boolean keepAlive) {
+        int idx = version.ordinal() * 2 + (keepAlive ? 1 : 0);
+        byte[] date = HttpDate.nowBytes();
+        Variant variant = variants[idx];
+        if (variant == null || variant.date != date) {
+            // racing threads may build it twice, both results are equal
+            variant = new Variant(date, build(version, keepAlive, date));
+            variants[idx] = variant;
+        }
+        return variant.bytes.duplicate();
+    }
+
+    private ByteBuffer build(HttpVersion version, boolean keepAlive, byte[] date) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256 + body.length);
+        out.writeBytes(ResponseHeaderEncoder.statusLine(version, status));
+        out.writeBytes(("Server: HarmarHttpServer\r\nDate: ").getBytes(ISO_8859_1));
+        out.writeBytes(date);
+        out.writeBytes(("\r\nContent-Type: " + contentType
+                + "\r\nContent-Length: " + body.length
+                + (retryAfter != null ? "\r\nRetry-After: " + retryAfter : "")
+                + "\r\nConnection: " + (keepAlive ? "keep-alive" : "close")
+                + "\r\n\r\n").getBytes(ISO_8859_1));
+        out.writeBytes(body);
+        return ByteBuffer.wrap(out.toByteArray()).asReadOnlyBuffer();
+    }
+
+    private static byte[] errorHtml(HttpStatus status) {
+        return ("<!DOCTYPE html>\n" +
+                "<html lang=\"en\">\n" +
+                "<head>\n" +
+                "    <meta charset=\"UTF-8\">\n" +
+                "    <title>" + status.code + " " + status.message + "</title>\n" +
+                "    <style>\n" +
+                "        body { font-family: Arial, sans-serif; background-color: #f8f8f8; text-align: center; padding: 50px; }\n" +
+                "        h1 { font-size: 48px; color: #cc0000; }\n" +
+                "        p { font-size: 20px; color: #333; }\n" +
+                "    </style>\n" +
+                "</head>\n" +
+                "<body>\n" +
+                "    <h1>" + status.code + " " + status.message + "</h1>\n" +
+                "    <p>The server returned an error while processing your request.</p>\n" +
+                "</body>\n" +
+                "</html>").getBytes(UTF_8);
+    }
+}
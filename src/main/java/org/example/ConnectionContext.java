@@ -1,20 +1,49 @@
 package org.example;
 
-import org.example.monitor.RequestMonitorContext;
+import org.example.buffer.BufferPool;
+import org.example.buffer.RecvSizePredictor;
+import org.example.connection.TransportChannel;
+import org.example.protocol.Http1RequestParser;
+import org.example.timer.HashedTimingWheel;
 
 import java.nio.ByteBuffer;
-import java.nio.channels.AsynchronousSocketChannel;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.ArrayDeque;
 
 // 新增：客户端上下文
+// all fields below the channel are guarded by synchronized (ctx)
 class ConnectionContext {
-    final AsynchronousSocketChannel client;
-    final ByteBuffer buffer = ByteBuffer.allocate(8192);
-    final RequestMonitorContext monitor = new RequestMonitorContext();
+    final TransportChannel client;
+    // leased from the pool while a read is in flight or unparsed bytes are pending, null otherwise.
+    // kept in read mode (flipped) between operations
+    ByteBuffer buffer;
+    final RecvSizePredictor recvSize = new RecvSizePredictor();
+    final Http1RequestParser parser = new Http1RequestParser();
     Protocol protocol = null;
-    AtomicBoolean writting = new AtomicBoolean(false);
+    // resolved on first use
+    String clientIp;
 
-    ConnectionContext(AsynchronousSocketChannel client) {
+    // pipelined requests in arrival order, responses are written in the same order
+    final ArrayDeque<Exchange> exchanges = new ArrayDeque<>();
+    // a read owns the buffer until it completes
+    boolean reading;
+    boolean writing;
+    // owned by the writer while writing is set
+    final WriteBatch writeBatch;
+    // request body still coming in, next request can't be parsed yet
+    boolean bodyInProgress;
+    // Connection: close seen (or protocol error), nothing after it is parsed
+    boolean closing;
+    boolean closed;
+
+    // which timeout the deadline currently stands for
+    enum Phase { HEADER, REQUEST, WRITE, IDLE }
+    HashedTimingWheel.Deadline deadline;
+    Phase phase;
+    // exchange the REQUEST deadline was computed for
+    Exchange timedExchange;
+
+    ConnectionContext(TransportChannel client, BufferPool pool, int maxWriteBytes, int maxWriteBuffers) {
         this.client = client;
+        this.writeBatch = new WriteBatch(pool, maxWriteBytes, maxWriteBuffers);
     }
 }
@@ -1,353 +1,1001 @@
 package org.example;
 
-import org.example.connection.AioConnection;
-import org.example.connection.Connection;
+import org.example.buffer.BufferPool;
+import org.example.connection.Transport;
+import org.example.connection.TransportChannel;
+import org.example.connection.TransportConnection;
+import org.example.connection.TransportType;
+import org.example.connection.VirtualThreadTransport;
 import org.example.http2.Http2ConnectionManager;
+import org.example.log.AccessLog;
+import org.example.log.Logger;
 import org.example.monitor.PerformanceMonitor;
-import org.example.monitor.RequestMonitorContext;
+import org.example.protocol.Http1BodyDecoder;
+import org.example.protocol.HttpParseException;
+import org.example.protocol.ResponseHeaderEncoder;
+import org.example.security.AdmissionController;
 import org.example.security.DosDefender;
+import org.example.timer.HashedTimingWheel;
 
-import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.net.InetSocketAddress;
-import java.net.SocketAddress;
 import java.nio.ByteBuffer;
-import java.nio.channels.AsynchronousServerSocketChannel;
-import java.nio.channels.AsynchronousSocketChannel;
 import java.nio.channels.CompletionHandler;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
-import static org.example.protocol.HttpRequestParser.findHttpRequestEnd;
-import static org.example.protocol.HttpRequestParser.justifyHttpVersion;
 
 
 public class ConnectionManager {
-    private final AsynchronousServerSocketChannel serverChannel;
+    private static final Logger log = Logger.get(ConnectionManager.class);
+
     private final HarmarHttpServer server;
+    private final int port;
+    // I/O engine under the connections, created on start()
+    private TransportType transportType = TransportType.fromSystemProperty();
+    private Transport transport;
+    // I/O threads over all listeners
+    private int workerThreads;
+    // listener sockets bound with SO_REUSEPORT
+    private int listenerCount = 1;
+    private int backlog = 1024;
+
     private PerformanceMonitor performanceMonitor = null;
     private DosDefender dosDefender = null;
     private Router router;
 
-    private Map<String, Integer> ipLimitMap = new ConcurrentHashMap<>();
+    private AdmissionController admissionController;
+    private AccessLog accessLog;
+    // doc root for h2c requests no route takes, HTTP/1 ones get it through the server
+    private StaticFileService staticFiles;
+    int bodySpillThreshold = RequestBody.DEFAULT_SPILL_THRESHOLD;
+    // pipelined requests per connection that may wait for their response
+    private int maxInFlightRequests = 16;
+    // flush policy of the gathering writer
+    private int maxWriteBytes = WriteBatch.DEFAULT_MAX_BYTES;
+    private int maxWriteBuffers = WriteBatch.DEFAULT_MAX_BUFFERS;
+    // streamed files at least this big go out with sendfile where the engine can do it
+    long sendfileThreshold = 1024 * 1024;
+    final BufferPool bufferPool = BufferPool.DEFAULT;
+
+    // timeouts in ms, 0 disables. header: first byte of a request (or accept) until its header block is in,
+    // request: request start until its response starts, write: a response write making no progress,
+    // keep-alive: idle between requests
+    long headerReadTimeout = 10_000;
+    long requestTimeout = 300_000;
+    long writeTimeout = 60_000;
+    long keepAliveTimeout = 30_000;
+    final HashedTimingWheel timingWheel = new HashedTimingWheel("harmar-timeouts", 100, 512);
+    // above this, the longest idle keep-alive connection makes room for a new one (0: no cap)
+    private int maxConnections = 10_000;
+    private final AtomicInteger openConnections = new AtomicInteger();
+    // idle keep-alive connections, least recently used first. guarded by itself, taken inside a ctx lock
+    private final LinkedHashSet<ConnectionContext> idleConnections = new LinkedHashSet<>();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
 
     public ConnectionManager(HarmarHttpServer server, int port, int workerThreads,
                              PerformanceMonitor performanceMonitor, DosDefender dosDefender, Router router) throws IOException {
         this.server = server;
-        this.serverChannel = AsynchronousServerSocketChannel.open().bind(
-                new InetSocketAddress(port)
-        );
+        this.port = port;
+        this.workerThreads = workerThreads;
         this.performanceMonitor = performanceMonitor;
         this.dosDefender = dosDefender;
         this.router = router;
+        if (performanceMonitor != null) {
+            performanceMonitor.registerGauges("bufferPool", bufferPool::stats);
+            performanceMonitor.registerGauges("connections", this::connectionStats);
+        }
     }
 
-    public void start() {
-        System.out.println("⚡ [ConnectionManager] Listening on port " + getPort());
+    /**
+     * shed requests over the adaptive concurrency limit (503) or the per-IP cap (429)
+     */
+    public void setAdmissionController(AdmissionController admissionController) {
+        this.admissionController = admissionController;
+        if (performanceMonitor != null && admissionController != null) {
+            performanceMonitor.registerGauges("admission", admissionController::stats);
+        }
+    }
 
-        acceptNext();
+    public void setAccessLog(AccessLog accessLog) {
+        this.accessLog = accessLog;
     }
 
-    private void acceptNext() {
-        serverChannel.accept(null, new CompletionHandler<AsynchronousSocketChannel, Void>() {
-            @Override
-            public void completed(AsynchronousSocketChannel client, Void att) {
-                // re listening next connection
-                acceptNext();
+    public void setStaticFiles(StaticFileService staticFiles) {
+        this.staticFiles = staticFiles;
+    }
 
-                handleClient(client);
+    public void start() throws IOException {
+        transport = transportType.create(workerThreads, listenerCount, backlog);
+        if (transport instanceof VirtualThreadTransport virtual) {
+            // straight-line HTTP/1 on the connection's own thread instead of the completion handlers
+            virtual.setBlockingAcceptor(channel -> new VirtualThreadConnection(this, virtual, channel).run());
+        }
+        timingWheel.start();
+        try {
+            transport.start(port, this::handleClient);
+        } catch (IOException e) {
+            transport = null;
+            timingWheel.stop();
+            throw e;
+        }
+        log.info("Listening on port {} ({} transport)", getPort(), transportType);
+    }
+
+    private void handleClient(TransportChannel client) {
+        if (log.isDebugEnabled()) {
+            log.debug("New connection from {}", getRemoteAddress(client));
+        }
+        if (!openConnection()) {
+            close(client);
+            return;
+        }
+
+        ConnectionContext ctx = new ConnectionContext(client, bufferPool, maxWriteBytes, maxWriteBuffers);
+        ctx.deadline = timingWheel.newDeadline(() -> onTimeout(ctx));
+        synchronized (ctx) {
+            // the first header block has to arrive within headerReadTimeout of the accept
+            setPhase(ctx, ConnectionContext.Phase.HEADER, headerReadTimeout);
+            startRead(ctx);
+        }
+    }
+
+    /**
+     * count a new connection, false if it is over maxConnections and no idle one could make room
+     */
+    boolean openConnection() {
+        int open = openConnections.incrementAndGet();
+        if (maxConnections > 0 && open > maxConnections && !evictIdle()) {
+            // every connection is busy, refuse instead of growing without bound
+            openConnections.decrementAndGet();
+            rejected.increment();
+            return false;
+        }
+        return true;
+    }
+
+    // closed or handed off outside the ConnectionContext bookkeeping
+    void connectionClosed(boolean timedOut) {
+        openConnections.decrementAndGet();
+        if (timedOut) {
+            this.timedOut.increment();
+        }
+    }
+
+    // ticker thread
+    private void onTimeout(ConnectionContext ctx) {
+        synchronized (ctx) {
+            if (ctx.closed || ctx.deadline.isArmed()) {
+                return; // moved after it fired
+            }
+            timedOut.increment();
+            if (log.isDebugEnabled()) {
+                log.debug("{} timeout, closing {}", ctx.phase, getRemoteAddress(ctx.client));
             }
+            close(ctx);
+        }
+    }
 
-            @Override
-            public void failed(Throwable exc, Void att) {
-                System.err.println("❌ Accept failed: " + exc.getMessage());
+    /**
+     * pick the deadline for what the connection is doing now. the header deadline is not pushed back
+     * by partial reads (slowloris), the request deadline follows the oldest open exchange until its
+     * response starts. a download of any length then only has to keep moving, see {@link #writeStarted}.
+     * caller holds the ctx lock.
+     */
+    private void updateTimeout(ConnectionContext ctx) {
+        if (ctx.closed) {
+            return;
+        }
+        Exchange head = ctx.exchanges.peek();
+        if (head != null && head.response != null) {
+            if (ctx.phase != ConnectionContext.Phase.WRITE) {
+                setPhase(ctx, ConnectionContext.Phase.WRITE, ctx.writing ? writeTimeout : 0);
             }
-        });
+        } else if (head != null) {
+            if (ctx.phase != ConnectionContext.Phase.REQUEST || ctx.timedExchange != head) {
+                ctx.timedExchange = head;
+                long left = requestTimeout > 0
+                        ? Math.max(1, head.startTime + requestTimeout - System.currentTimeMillis()) : 0;
+                setPhase(ctx, ConnectionContext.Phase.REQUEST, left);
+            }
+        } else if (hasPendingBytes(ctx)) {
+            if (ctx.phase != ConnectionContext.Phase.HEADER) {
+                setPhase(ctx, ConnectionContext.Phase.HEADER, headerReadTimeout);
+            }
+        } else if (ctx.phase != ConnectionContext.Phase.IDLE) {
+            setPhase(ctx, ConnectionContext.Phase.IDLE, keepAliveTimeout);
+        }
+    }
+
+    // a write or transfer is issued: the client has writeTimeout to take some of it
+    private void writeStarted(ConnectionContext ctx) {
+        if (writeTimeout > 0 && ctx.phase == ConnectionContext.Phase.WRITE) {
+            ctx.deadline.arm(writeTimeout);
+        }
+    }
+
+    // the write is done and nothing else went out, waiting for body data is not the client's fault
+    private void writeIdle(ConnectionContext ctx) {
+        if (!ctx.writing && ctx.phase == ConnectionContext.Phase.WRITE) {
+            ctx.deadline.disarm();
+        }
+    }
+
+    // unparsed bytes of a next request, the buffer is in write mode while a read is in flight
+    private static boolean hasPendingBytes(ConnectionContext ctx) {
+        ByteBuffer buf = ctx.buffer;
+        return buf != null && (ctx.reading ? buf.position() > 0 : buf.hasRemaining());
+    }
+
+    private void setPhase(ConnectionContext ctx, ConnectionContext.Phase phase, long timeoutMillis) {
+        if (ctx.phase == ConnectionContext.Phase.IDLE && phase != ConnectionContext.Phase.IDLE) {
+            synchronized (idleConnections) {
+                idleConnections.remove(ctx);
+            }
+        } else if (phase == ConnectionContext.Phase.IDLE && ctx.phase != ConnectionContext.Phase.IDLE) {
+            synchronized (idleConnections) {
+                idleConnections.add(ctx);
+            }
+        }
+        if (phase != ConnectionContext.Phase.REQUEST) {
+            ctx.timedExchange = null;
+        }
+        ctx.phase = phase;
+        if (timeoutMillis > 0) {
+            ctx.deadline.arm(timeoutMillis);
+        } else {
+            ctx.deadline.disarm();
+        }
     }
 
-    private void handleClient(AsynchronousSocketChannel client) {
-        System.out.println("⚡ [ConnectionManager] New connection from " + getRemoteAddress(client));
-        ConnectionContext ctx = new ConnectionContext(client);
-        startRead(ctx);
+    // connection leaves this manager (closed or handed to HTTP/2), caller holds the ctx lock
+    private void untrack(ConnectionContext ctx) {
+        ctx.deadline.disarm();
+        if (ctx.phase == ConnectionContext.Phase.IDLE) {
+            synchronized (idleConnections) {
+                idleConnections.remove(ctx);
+            }
+        }
+        ctx.phase = null;
+        openConnections.decrementAndGet();
     }
 
+    /**
+     * close the least recently used idle keep-alive connection, false if there is none
+     */
+    private boolean evictIdle() {
+        for (int attempt = 0; attempt < 8; attempt++) {
+            ConnectionContext victim;
+            synchronized (idleConnections) {
+                Iterator<ConnectionContext> it = idleConnections.iterator();
+                if (!it.hasNext()) {
+                    return false;
+                }
+                victim = it.next();
+                it.remove();
+            }
+            synchronized (victim) {
+                // it may have received a request since we looked
+                if (!victim.closed && victim.phase == ConnectionContext.Phase.IDLE) {
+                    evicted.increment();
+                    close(victim);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private Map<String, Long> connectionStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("open", (long) openConnections.get());
+        synchronized (idleConnections) {
+            stats.put("idle", (long) idleConnections.size());
+        }
+        stats.put("maxConnections", (long) maxConnections);
+        stats.put("timedOut", timedOut.sum());
+        stats.put("evictedIdle", evicted.sum());
+        stats.put("rejected", rejected.sum());
+        return stats;
+    }
+
+    // caller holds the ctx lock, buffer is in read mode
     private void startRead(ConnectionContext ctx) {
+        ctx.reading = true;
+        int space = prepareReadBuffer(ctx);
         ctx.client.read(ctx.buffer, ctx, new CompletionHandler<Integer, ConnectionContext>() {
             @Override
             public void completed(Integer bytesRead, ConnectionContext ctx) {
-                if (bytesRead == -1) {
-                    close(ctx.client);
-                    return;
-                }
-
-                ctx.buffer.flip();
+                synchronized (ctx) {
+                    ctx.reading = false;
+                    ctx.buffer.flip();
 
-                // 协议探测阶段
-                if (ctx.protocol == null) {
-                    ctx.protocol = ProtocolDetector.detect(ctx.buffer);
-
-                    if (ctx.protocol == null) {
-                        ctx.buffer.compact();
-                        ctx.client.read(ctx.buffer, ctx, this);
+                    if (bytesRead == -1 || ctx.closed) {
+                        close(ctx);
                         return;
                     }
+                    ctx.recvSize.record(bytesRead, space);
 
-                    if (ctx.protocol == Protocol.HTTP2_PLAINTEXT) {
-                        System.out.println("⚡ Detected HTTP/2 connection");
-                        AioConnection connection = new AioConnection(ctx.client);
-                        Http2ConnectionManager http2 = new Http2ConnectionManager(connection, router);
-                        http2.start();
-                        return; // HTTP/2 接管
+                    // 协议探测阶段
+                    if (ctx.protocol == null) {
+                        ctx.protocol = ProtocolDetector.detect(ctx.buffer);
+
+                        if (ctx.protocol == null) {
+                            startRead(ctx);
+                            return;
+                        }
+
+                        if (ctx.protocol == Protocol.HTTP2_PLAINTEXT) {
+                            log.debug("Detected HTTP/2 connection");
+                            untrack(ctx);
+                            startHttp2(ctx.client, clientIp(ctx), ctx.buffer);
+                            releaseBuffer(ctx);
+                            return; // HTTP/2 接管
+                        }
+
+                        log.debug("Detected HTTP/1.x connection");
                     }
 
-                    System.out.println("⚡ Detected HTTP/1.x connection");
+                    // HTTP/1.x 请求解析循环
+                    processBuffer(ctx);
                 }
-
-                // HTTP/1.x 请求解析循环
-                parseHttp1Requests(ctx, this);
             }
 
             @Override
             public void failed(Throwable exc, ConnectionContext ctx) {
-                exc.printStackTrace();
-                close(ctx.client);
+                synchronized (ctx) {
+                    if (!ctx.closed) {
+                        log.warn("Read failed", exc); // not our own close (timeout, eviction)
+                    }
+                    ctx.reading = false;
+                    close(ctx);
+                }
             }
         });
     }
 
+    /**
+     * prior-knowledge h2c, the connection leaves HTTP/1. frames that came in with the preface
+     * (client SETTINGS) are in initial and decoded first
+     */
+    void startHttp2(TransportChannel client, String clientIp, ByteBuffer initial) {
+        TransportConnection connection = new TransportConnection(client);
+        connection.setIdleTimeout(timingWheel, keepAliveTimeout);
+        Http2ConnectionManager http2 = new Http2ConnectionManager(connection, router);
+        http2.setAdmissionController(admissionController, clientIp);
+        http2.setAccessLog(accessLog);
+        http2.setStaticFiles(staticFiles);
+        http2.start(initial);
+    }
 
-    private void parseHttp1Requests(ConnectionContext ctx, CompletionHandler<Integer, ConnectionContext> handler) {
-        int requestEnd = findHttpRequestEnd(ctx.buffer);
-        if (requestEnd == -1) {
-            ctx.buffer.compact();
-            ctx.client.read(ctx.buffer, ctx, handler);
-            return;
+    /**
+     * make ctx.buffer ready for a read (write mode) and return the free space.
+     * a drained buffer goes back to the pool and a fresh one of the predicted size is leased,
+     * pending bytes are kept; a buffer full of one unfinished request is swapped for one twice
+     * as big (parser offsets are relative to the request start, moving the bytes is fine).
+     */
+    private int prepareReadBuffer(ConnectionContext ctx) {
+        ByteBuffer buf = ctx.buffer;
+        if (buf == null || !buf.hasRemaining()) {
+            bufferPool.release(buf);
+            buf = bufferPool.acquire(ctx.recvSize.nextSize());
+        } else if (buf.position() == 0 && buf.limit() == buf.capacity()) {
+            ByteBuffer bigger = bufferPool.acquire(buf.capacity() * 2);
+            bigger.put(buf);
+            bufferPool.release(buf);
+            buf = bigger;
+        } else {
+            buf.compact();
+        }
+        ctx.buffer = buf;
+        return buf.remaining();
+    }
+
+    /**
+     * nothing pending and no read in flight: the buffer goes back to the pool, so idle
+     * connections and ones waiting on a handler don't hold memory. caller holds the ctx lock.
+     */
+    private void releaseIfDrained(ConnectionContext ctx) {
+        if (!ctx.reading && ctx.buffer != null && !ctx.buffer.hasRemaining()) {
+            releaseBuffer(ctx);
         }
+    }
+
+    private void releaseBuffer(ConnectionContext ctx) {
+        bufferPool.release(ctx.buffer);
+        ctx.buffer = null;
+    }
+
+    /**
+     * parse and dispatch every request already in the buffer (pipelining), only go back
+     * to the socket when the buffer holds no complete request. caller holds the ctx lock.
+     */
+    private void processBuffer(ConnectionContext ctx) {
+        while (!ctx.closed && !ctx.closing && !ctx.reading && !ctx.bodyInProgress) {
+            if (ctx.exchanges.size() >= maxInFlightRequests) {
+                // resumed from onBatchWritten once a response is out
+                break;
+            }
 
-        byte[] data = new byte[requestEnd];
-        ctx.buffer.get(data);
-        String requestText = new String(data);
+            HttpRequest request;
+            try {
+                request = ctx.buffer != null ? ctx.parser.parse(ctx.buffer) : null;
+            } catch (HttpParseException e) {
+                ctx.closing = true;
+                Exchange exchange = new Exchange(null, false);
+                ctx.exchanges.add(exchange);
+                exchange.response = errorResponse(HttpVersion.HTTP_1_1, e.getStatus(), e.getMessage());
+                flush(ctx);
+                break;
+            }
 
-        boolean shouldKeepAlive = shouldKeepAlive(requestText);
+            if (request == null) {
+                // parser keeps its state, only new bytes are scanned on the next read
+                startRead(ctx);
+                break;
+            }
 
-        // DosDefender
-        if (dosDefender != null && !dosDefender.allowRequest(getClientIp(ctx.client))) {
-            HttpResponse response = new HttpResponse();
-            response.setHttpVersion(justifyHttpVersion(requestText));
-            response.setStatus(HttpStatus.TOO_MANY_REQUESTS);
+            acceptRequest(ctx, request);
+        }
+        releaseIfDrained(ctx);
+        updateTimeout(ctx);
+    }
 
-            ResponseBody body = new ResponseBody();
-            body.addChunk("Too Many Requests".getBytes());
-            body.end();
-            response.setBody(body);
-            response.setDefaultHeaders();
-            response.setHeader("Content-Type", "text/plain");
-            response.setHeader("Content-Length", String.valueOf("Too Many Requests".getBytes().length));
+    private void acceptRequest(ConnectionContext ctx, HttpRequest request) {
+        Exchange exchange = new Exchange(request, request.keepAlive);
+        ctx.exchanges.add(exchange);
+        if (!exchange.keepAlive) {
+            ctx.closing = true;
+        }
+        HttpResponse rejection = admit(clientIp(ctx), exchange);
+        if (rejection != null) {
+            // shed before any handler work, an unread body is not worth draining so the connection is closed
+            if (request.hasBody) {
+                ctx.closing = true;
+            }
+            exchange.response = rejection;
+            flush(ctx);
+            return;
+        }
 
-            writeResponse(ctx, response, shouldKeepAlive, handler);
+        exchange.route = router.findMatchHttp1(request.method, request.path);
+        if (!request.hasBody) {
+            // 正常处理
+            dispatch(ctx, exchange);
             return;
         }
 
-        // 正常处理
-        HttpResponse response = server.handleRawRequest(requestText);
-        writeResponse(ctx, response, shouldKeepAlive, handler);
+        RequestBody body = new RequestBody(bodySpillThreshold);
+        request.body = body;
+        ctx.bodyInProgress = true;
+        Http1BodyDecoder decoder = new Http1BodyDecoder(request.contentLength, request.chunked);
+
+        if (exchange.route != null && exchange.route.handler instanceof Router.StreamingHttp1RouteHandler) {
+            // handler consumes the body while it arrives, reads and the response write run side by side
+            dispatch(ctx, exchange);
+        }
+        pumpBody(ctx, exchange, decoder);
+    }
+
+    /**
+     * DosDefender, then the admission controller. the canned rejection, or null when the request
+     * may go on (exchange.permit is then held)
+     */
+    HttpResponse admit(String clientIp, Exchange exchange) {
+        if (performanceMonitor != null) {
+            performanceMonitor.recordRequestStart();
+        }
+        HttpRequest request = exchange.request;
+        if (dosDefender != null && !dosDefender.allowRequest(clientIp)) {
+            return cannedResponse(httpVersion(request), CannedResponse.TOO_MANY_REQUESTS);
+        }
+        if (admissionController != null) {
+            AdmissionController.Permit permit = admissionController.tryAcquire(clientIp);
+            if (!permit.isAdmitted()) {
+                return cannedResponse(httpVersion(request), CannedResponse.forRejection(permit.getRejection()));
+            }
+            exchange.permit = permit;
+        }
+        return null;
+    }
+
+    /**
+     * route and run the handler on the calling thread, releases the permit
+     */
+    HttpResponse handle(Exchange exchange) {
+        exchange.route = router.findMatchHttp1(exchange.request.method, exchange.request.path);
+        exchange.dispatched = true;
+        HttpResponse response = server.handleRequest(exchange.request, exchange.route);
+        releasePermit(exchange, true);
+        if (response == null) {
+            response = errorResponse(httpVersion(exchange.request), HttpStatus.INTERNAL_SERVER_ERROR, "Internal Server Error");
+        }
+        return response;
     }
 
-    private void writeResponse(ConnectionContext ctx, HttpResponse response,
-                               boolean shouldKeepAlive,
-                               CompletionHandler<Integer, ConnectionContext> handler) {
-        if (response.getBody().isBigFile()) {
-            SocketAddress clientAddress = null;
+    private void dispatch(ConnectionContext ctx, Exchange exchange) {
+        exchange.dispatched = true;
+        Router.RouteMatchHttp1 route = exchange.route;
+        if (route != null && route.blocking) {
+            // off the I/O thread; reads, later requests and earlier responses carry on meanwhile
             try {
-                clientAddress = ctx.client.getRemoteAddress();
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
-
-            if (clientAddress instanceof InetSocketAddress) {
-                InetSocketAddress inetAddress = (InetSocketAddress) clientAddress;
-                String ip = inetAddress.getAddress().getHostAddress();
-                int port = inetAddress.getPort();
-
-                System.out.println("客户端连接来自: " + ip + ":" + port);
-
-                if (ipLimitMap.containsKey(ip)) {
-                    Integer count = ipLimitMap.get(ip);
-                    if (count >= 3) {
-                        System.out.println("客户端IP被限制访问: " + ip);
-                        response.setStatus(HttpStatus.TOO_MANY_REQUESTS);
-
-                        ResponseBody body = new ResponseBody();
-                        body.addChunk("Too Many Requests".getBytes());
-                        body.end();
-                        response.setBody(body);
-                        response.setDefaultHeaders();
-                        response.setHeader("Content-Type", "text/plain");
-                        response.setHeader("Content-Length", String.valueOf("Too Many Requests".getBytes().length));
-                    } else {
-                        ipLimitMap.put(ip, count + 1);
+                router.getBlockingExecutor().execute(() -> {
+                    HttpResponse response = server.handleRequest(exchange.request, route);
+                    synchronized (ctx) {
+                        if (!ctx.closed) {
+                            respond(ctx, exchange, response);
+                        } else if (response != null && response.getBody() != null) {
+                            // closed while the handler ran, close(ctx) didn't see this body
+                            response.getBody().release();
+                        }
                     }
-                } else {
-                    ipLimitMap.put(ip, 1);
+                });
+            } catch (RejectedExecutionException e) {
+                // shutting down
+                ctx.closing = true;
+                respond(ctx, exchange, errorResponse(httpVersion(exchange.request), HttpStatus.SERVICE_UNAVAILABLE, "Service Unavailable"));
+            }
+            return;
+        }
+        respond(ctx, exchange, server.handleRequest(exchange.request, route));
+    }
+
+    // caller holds the ctx lock
+    private void respond(ConnectionContext ctx, Exchange exchange, HttpResponse response) {
+        if (response == null) {
+            response = errorResponse(httpVersion(exchange.request), HttpStatus.INTERNAL_SERVER_ERROR, "Internal Server Error");
+        }
+        // the handler is done with it, the write-out is bounded by timeouts, not by the limit
+        releasePermit(exchange, true);
+        exchange.response = response;
+        updateTimeout(ctx);
+        if (response.getBody() != null) {
+            response.getBody().setOnDataAvailable(() -> {
+                synchronized (ctx) {
+                    flush(ctx);
+                }
+            });
+        }
+        flush(ctx);
+    }
+
+    /**
+     * decode what is buffered, then keep reading until the body is complete.
+     * reads stop while a streaming reader is behind, it resumes them when it catches up.
+     * caller holds the ctx lock.
+     */
+    private void pumpBody(ConnectionContext ctx, Exchange exchange, Http1BodyDecoder decoder) {
+        RequestBody body = exchange.request.body;
+        try {
+            if (decoder.decode(ctx.buffer, body)) {
+                body.end();
+                ctx.bodyInProgress = false;
+                if (!exchange.dispatched) {
+                    dispatch(ctx, exchange);
                 }
+                processBuffer(ctx);
+                return;
             }
+        } catch (HttpParseException | IOException e) {
+            body.fail(new IOException(e.getMessage(), e));
+            close(ctx);
+            return;
         }
-        if (shouldKeepAlive) {
-            response.setHeader("Connection", "keep-alive");
+
+        boolean paused = body.pauseIfSlow(() -> {
+            synchronized (ctx) {
+                readBody(ctx, exchange, decoder);
+            }
+        });
+        if (paused) {
+            // the decoder took everything, nothing to keep while the reader catches up
+            releaseIfDrained(ctx);
         } else {
-            response.setHeader("Connection", "close");
+            readBody(ctx, exchange, decoder);
         }
-        String version = response.getHttpVersion().toString();
-        String statusLine = version + " " + response.getStatus().code + " " + response.getStatus().message + "\r\n";
-        String headersText = response.getHeaders().entrySet().stream()
-                .map(e -> e.getKey() + ": " + e.getValue())
-                .collect(java.util.stream.Collectors.joining("\r\n"));
-        ByteBuffer headerBuf = ByteBuffer.wrap((statusLine + headersText + "\r\n\r\n").getBytes());
+    }
 
-        ctx.client.write(headerBuf, ctx, new CompletionHandler<>() {
+    private void readBody(ConnectionContext ctx, Exchange exchange, Http1BodyDecoder decoder) {
+        if (ctx.closed) {
+            return;
+        }
+        ctx.reading = true;
+        int space = prepareReadBuffer(ctx);
+        ctx.client.read(ctx.buffer, ctx, new CompletionHandler<Integer, ConnectionContext>() {
             @Override
-            public void completed(Integer result, ConnectionContext ctx) {
-                if (headerBuf.hasRemaining()) {
-                    ctx.client.write(headerBuf, ctx, this);
-                } else {
-                    response.getBody().setOnDataAvailable(() -> {
-                        tryWriteNextChunk(ctx, response, shouldKeepAlive, handler);
-                    });
-
-                    tryWriteNextChunk(ctx, response, shouldKeepAlive, handler);
+            public void completed(Integer bytesRead, ConnectionContext ctx) {
+                synchronized (ctx) {
+                    ctx.reading = false;
+                    ctx.buffer.flip();
+                    if (bytesRead == -1 || ctx.closed) {
+                        exchange.request.body.fail(new EOFException("Connection closed before request body was complete"));
+                        close(ctx);
+                        return;
+                    }
+                    ctx.recvSize.record(bytesRead, space);
+                    pumpBody(ctx, exchange, decoder);
                 }
             }
 
             @Override
             public void failed(Throwable exc, ConnectionContext ctx) {
-                exc.printStackTrace();
-                close(ctx.client);
+                synchronized (ctx) {
+                    ctx.reading = false;
+                    exchange.request.body.fail(new IOException(exc));
+                    close(ctx);
+                }
             }
         });
     }
 
-    void tryWriteNextChunk(ConnectionContext ctx, HttpResponse response,
-                           boolean shouldKeepAlive,
-                           CompletionHandler<Integer, ConnectionContext> handler) {
-        ResponseBody body = response.getBody();
+    public static HttpResponse errorResponse(HttpVersion version, HttpStatus status, String message) {
+        byte[] content = message.getBytes();
+
+        HttpResponse response = new HttpResponse();
+        response.setHttpVersion(version);
+        response.setStatus(status);
+
+        ResponseBody body = new ResponseBody();
+        body.addChunk(content);
+        body.end();
+        response.setBody(body);
+        response.setDefaultHeaders();
+        response.setHeader("Content-Type", "text/plain");
+        response.setHeader("Content-Length", String.valueOf(content.length));
+        return response;
+    }
 
-        if (!body.trySetWriting()) {
-            return; // 已有 write 在飞
-        }
+    private static HttpResponse cannedResponse(HttpVersion version, CannedResponse canned) {
+        HttpResponse response = new HttpResponse();
+        response.setHttpVersion(version);
+        canned.applyTo(response);
+        return response;
+    }
 
-        ByteBuffer buf = body.poll();
+    /**
+     * write everything that is ready, in request order: all finished responses at the head of
+     * the queue plus whatever the first unfinished one has produced so far, as one gathering write
+     * bounded by the WriteBatch limits. caller holds the ctx lock.
+     */
+    private void flush(ConnectionContext ctx) {
+        if (ctx.writing || ctx.closed) {
+            return;
+        }
 
-        if (buf == null) {
-            body.clearWriting();
+        WriteBatch batch = ctx.writeBatch;
+        for (Exchange exchange : ctx.exchanges) {
+            if (exchange.response == null || batch.isFull()) {
+                break; // later responses have to wait for this one
+            }
+            if (exchange.fullyQueued) {
+                continue;
+            }
+            CannedResponse canned = exchange.response.getCanned();
+            if (canned != null) {
+                // head and body pre-encoded, the ResponseBody copy is only for other transports
+                if (!batch.offer(canned.encoded(exchange.response.getHttpVersion(), exchange.keepAlive))) {
+                    break;
+                }
+                exchange.headerQueued = true;
+                exchange.fullyQueued = true;
+                continue;
+            }
+            if (!exchange.headerQueued) {
+                if (!batch.offerLeased(ResponseHeaderEncoder.encode(exchange.response, exchange.keepAlive, bufferPool))) {
+                    break;
+                }
+                exchange.headerQueued = true;
+            }
 
-            if (body.isEnd()) {
-                if (response.getBody().isBigFile()) {
-                    Integer count = ipLimitMap.get(getClientIp(ctx.client));
-                    ipLimitMap.put(getClientIp(ctx.client), count - 1);
+            ResponseBody body = exchange.response.getBody();
+            if (body == null) {
+                exchange.fullyQueued = true;
+                continue;
+            }
+            if (exchange.transferring || body instanceof FileBody file && startTransfer(ctx, exchange, file)) {
+                if (batch.isEmpty()) {
+                    transfer(ctx, exchange, (FileBody) body);
                 }
-                finishOrKeepAlive(ctx, shouldKeepAlive, handler);
+                break; // the header and earlier responses first
+            }
+            if (body.getFailure() != null) {
+                log.warn("Response body failed, closing: {}", body.getFailure().toString());
+                batch.clear();
+                close(ctx);
+                return;
+            }
+            // end has to be read before draining, chunks added before end() are then all visible
+            boolean ended = body.isEnd();
+            ByteBuffer chunk;
+            while ((chunk = body.peek()) != null && batch.offer(chunk)) {
+                body.poll();
+            }
+            if (!ended || chunk != null) {
+                break;
+            }
+            exchange.fullyQueued = true;
+        }
+
+        if (batch.isEmpty()) {
+            Exchange head = ctx.exchanges.peek();
+            if (head != null && head.fullyQueued) {
+                // its body ended after the last bytes were already out, nothing left to write for it
+                onBatchWritten(ctx);
             }
             return;
         }
-        writeNextChunk(ctx, response, shouldKeepAlive, handler, buf);
+        ctx.writing = true;
+        writeBatch(ctx);
     }
 
-    private void writeNextChunk(ConnectionContext ctx, HttpResponse response,
-                                boolean shouldKeepAlive,
-                                CompletionHandler<Integer, ConnectionContext> handler,
-                                ByteBuffer chunk) {
-        ctx.client.write(chunk, ctx, new CompletionHandler<>() {
+    private boolean startTransfer(ConnectionContext ctx, Exchange exchange, FileBody file) {
+        if (file.getRemaining() < sendfileThreshold || !ctx.client.supportsTransfer()) {
+            return false;
+        }
+        try {
+            exchange.transferring = file.startTransfer();
+        } catch (IOException e) {
+            return false; // buffered reads report it
+        }
+        return exchange.transferring;
+    }
 
-            @Override
-            public void completed(Integer result, ConnectionContext attachment) {
-                if (result < 0) {
-                    close(ctx.client);
-                    return;
-                }
+    // sendfile the rest of the body, caller holds the ctx lock
+    private void transfer(ConnectionContext ctx, Exchange exchange, FileBody file) {
+        ctx.writing = true;
+        writeStarted(ctx);
+        ctx.client.transferFrom(file.getTransferChannel(), file.getPosition(), file.getRemaining(), ctx,
+                new CompletionHandler<Long, ConnectionContext>() {
+                    @Override
+                    public void completed(Long transferred, ConnectionContext ctx) {
+                        synchronized (ctx) {
+                            ctx.writing = false;
+                            file.transferred(transferred);
+                            if (ctx.closed) {
+                                return;
+                            }
+                            if (file.getRemaining() > 0) {
+                                transfer(ctx, exchange, file);
+                                return;
+                            }
+                            exchange.fullyQueued = true;
+                            onBatchWritten(ctx);
+                            writeIdle(ctx);
+                        }
+                    }
 
-                if (chunk.hasRemaining()) {
-                    ctx.client.write(chunk, ctx, this);
-                    return;
-                }
+                    @Override
+                    public void failed(Throwable exc, ConnectionContext ctx) {
+                        synchronized (ctx) {
+                            ctx.writing = false;
+                            close(ctx);
+                        }
+                    }
+                });
+    }
+
+    private void writeBatch(ConnectionContext ctx) {
+        writeStarted(ctx);
+        WriteBatch batch = ctx.writeBatch;
+        ctx.client.write(batch.buffers(), batch.offset(), batch.length(), ctx, writeCompletion);
+    }
 
-                response.getBody().clearWriting();
-                tryWriteNextChunk(ctx, response, shouldKeepAlive, handler);
+    private final CompletionHandler<Long, ConnectionContext> writeCompletion = new CompletionHandler<>() {
+        @Override
+        public void completed(Long written, ConnectionContext ctx) {
+            if (ctx.writeBatch.advance()) {
+                writeBatch(ctx); // partial write, continue with what is left
+                return;
             }
+            synchronized (ctx) {
+                ctx.writeBatch.clear();
+                ctx.writing = false;
+                onBatchWritten(ctx);
+                writeIdle(ctx);
+            }
+        }
 
-            @Override
-            public void failed(Throwable exc, ConnectionContext attachment) {
-                close(ctx.client);
+        @Override
+        public void failed(Throwable exc, ConnectionContext ctx) {
+            synchronized (ctx) {
+                ctx.writeBatch.clear();
+                ctx.writing = false;
+                close(ctx);
+            }
+        }
+    };
+
+    private void onBatchWritten(ConnectionContext ctx) {
+        Exchange exchange;
+        while ((exchange = ctx.exchanges.peek()) != null && exchange.fullyQueued) {
+            ctx.exchanges.poll();
+            completeExchange(clientIp(ctx), exchange);
+
+            if (!exchange.keepAlive) {
+                try { ctx.client.shutdownOutput(); } catch (IOException ignored) {}
+                close(ctx);
+                return;
             }
-        });
-    }
-    private void finishOrKeepAlive(ConnectionContext ctx, boolean shouldKeepAlive,
-                                   CompletionHandler<Integer, ConnectionContext> handler) {
-        long responseTime = System.currentTimeMillis() - ctx.monitor.getStartTime();
-        if (performanceMonitor != null) {
-            performanceMonitor.recordRequestComplete(responseTime, 200);
         }
 
-        if (shouldKeepAlive) {
-            // 使用 compact 保留 buffer 中未读数据
-            ctx.buffer.compact();
-            // 只在响应完全写完后再触发 read
-            startRead(ctx);
-        } else {
-            try { ctx.client.shutdownOutput(); } catch (IOException ignored) {}
-            close(ctx.client);
+        flush(ctx);
+        // a slot in the pipeline is free again
+        processBuffer(ctx);
+    }
+
+    void releasePermit(Exchange exchange, boolean sample) {
+        if (exchange.permit != null) {
+            admissionController.release(exchange.permit, sample);
+            exchange.permit = null;
         }
     }
 
+    void completeExchange(String clientIp, Exchange exchange) {
+        releasePermit(exchange, false);
+        releaseResponse(exchange);
 
-    private void close(AsynchronousSocketChannel client) {
-        try {
-            System.out.println("⚡ [ConnectionManager] Closing connection from " + getRemoteAddress(client));
-            client.close();
-        } catch (IOException ignore) {
+        RequestBody body = exchange.requestBody();
+        if (body != null) {
+            if (!body.isComplete()) {
+                // response is out but the body is still arriving, read the rest and drop it
+                body.discard();
+            }
+            body.release();
+        }
+
+        long responseTime = System.currentTimeMillis() - exchange.startTime;
+        if (performanceMonitor != null && exchange.request != null) {
+            performanceMonitor.recordRequestComplete(responseTime, exchange.response.getStatus().code);
+        }
+        if (accessLog != null && exchange.request != null) {
+            HttpResponse response = exchange.response;
+            accessLog.log(clientIp, exchange.request.method, exchange.request.path,
+                    httpVersion(exchange.request).toString(), response.getStatus().code,
+                    response.getContentLength(), (System.nanoTime() - exchange.startNanos) / 1000);
         }
     }
 
-    private int getPort() {
-        try {
-            return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
-        } catch (IOException e) {
-            return -1;
+    private static void releaseResponse(Exchange exchange) {
+        if (exchange.response != null && exchange.response.getBody() != null) {
+            exchange.response.getBody().release();
         }
     }
 
-    public void shutdown() {
-        try {
-            if (serverChannel != null && serverChannel.isOpen()) {
-                serverChannel.close();
-                System.out.println("⚡ [ConnectionManager] Server stopped");
+    /**
+     * I/O engine for the plaintext listener, takes effect on start()
+     */
+    public void setTransportType(TransportType transportType) {
+        this.transportType = transportType;
+    }
+
+    /**
+     * I/O threads shared by all listeners (AIO completion threads, NIO selector loops), takes effect on start()
+     */
+    public void setWorkerThreads(int workerThreads) {
+        this.workerThreads = workerThreads;
+    }
+
+    /**
+     * number of SO_REUSEPORT listener sockets, each with its own accept chain.
+     * falls back to one where the platform lacks SO_REUSEPORT. takes effect on start()
+     */
+    public void setListenerCount(int listenerCount) {
+        this.listenerCount = Math.max(1, listenerCount);
+    }
+
+    public void setBacklog(int backlog) {
+        this.backlog = backlog;
+    }
+
+    /**
+     * header-read, request (until the response starts) and keep-alive idle timeouts in ms, 0 disables one
+     */
+    public void setTimeouts(long headerReadTimeout, long requestTimeout, long keepAliveTimeout) {
+        this.headerReadTimeout = headerReadTimeout;
+        this.requestTimeout = requestTimeout;
+        this.keepAliveTimeout = keepAliveTimeout;
+    }
+
+    /**
+     * how long a response write may make no progress before the connection is closed (slow readers),
+     * in ms, 0 disables. a response of any size is fine as long as the client keeps reading
+     */
+    public void setWriteTimeout(long writeTimeout) {
+        this.writeTimeout = writeTimeout;
+    }
+
+    /**
+     * open connection cap, reaching it evicts the least recently used idle keep-alive connection
+     * (or refuses the new one if none is idle). 0 disables. the virtual thread transport only refuses,
+     * its idle connections sit in a blocking read and are not tracked for eviction
+     */
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    public void setBodySpillThreshold(int bodySpillThreshold) {
+        this.bodySpillThreshold = bodySpillThreshold;
+    }
+
+    public void setMaxInFlightRequests(int maxInFlightRequests) {
+        this.maxInFlightRequests = maxInFlightRequests;
+    }
+
+    /**
+     * upper bounds for one gathering write, applies to connections accepted afterwards
+     */
+    public void setWriteBatchLimits(int maxBytes, int maxBuffers) {
+        this.maxWriteBytes = maxBytes;
+        this.maxWriteBuffers = maxBuffers;
+    }
+
+    /**
+     * streamed static files of at least this many bytes are sent with sendfile (FileChannel.transferTo)
+     * on engines that support it (NIO, virtual threads, Netty), AIO keeps the buffered path. Long.MAX_VALUE disables
+     */
+    public void setSendfileThreshold(long sendfileThreshold) {
+        this.sendfileThreshold = sendfileThreshold;
+    }
+
+    static HttpVersion httpVersion(HttpRequest request) {
+        return request.protocol == Protocol.HTTP1_0 ? HttpVersion.HTTP_1_0 : HttpVersion.HTTP_1_1;
+    }
+
+    // caller holds the ctx lock
+    private void close(ConnectionContext ctx) {
+        if (!ctx.reading) {
+            // an outstanding read still owns it, its completion comes back here
+            releaseBuffer(ctx);
+        }
+        if (ctx.closed) {
+            return;
+        }
+        ctx.closed = true;
+        untrack(ctx);
+        for (Exchange exchange : ctx.exchanges) {
+            releasePermit(exchange, false);
+            releaseResponse(exchange);
+            RequestBody body = exchange.requestBody();
+            if (body != null) {
+                body.fail(new EOFException("Connection closed"));
+                body.release();
             }
-        } catch (IOException e) {
-            System.err.println("❌ Error while closing server channel: " + e.getMessage());
         }
+        ctx.exchanges.clear();
+        close(ctx.client);
     }
 
-    private boolean shouldKeepAlive(String requestText) {
-       if (requestText == null) {
-           return true;
-       }
+    private void close(TransportChannel client) {
+        try {
+            if (log.isDebugEnabled()) {
+                log.debug("Closing connection from {}", getRemoteAddress(client));
+            }
+            client.close();
+        } catch (IOException ignore) {
+        }
+    }
 
-       String[] lines = requestText.split("\\r?\\n");
-       for (String line : lines) {
-           if (line.toLowerCase().startsWith("connection:")) {
-               if (line.toLowerCase().contains("close")) {
-                   return false;
-               } else {
-                   return true;
-               }
-           }
-       }
+    private int getPort() {
+        return transport != null ? transport.getLocalPort() : -1;
+    }
 
-       return true;
+    public void shutdown() {
+        if (transport == null) {
+            return;
+        }
+        // closes the connections as well
+        transport.shutdown();
+        transport = null;
+        timingWheel.stop();
+        log.info("Server stopped");
     }
 
-    private String getRemoteAddress(AsynchronousSocketChannel client) {
+    private String getRemoteAddress(TransportChannel client) {
         try {
             return client.getRemoteAddress().toString();
         } catch (IOException e) {
@@ -355,7 +1003,14 @@ public class ConnectionManager {
         }
     }
 
-    private String getClientIp(AsynchronousSocketChannel client) {
+    private String clientIp(ConnectionContext ctx) {
+        if (ctx.clientIp == null) {
+            ctx.clientIp = getClientIp(ctx.client);
+        }
+        return ctx.clientIp;
+    }
+
+    private String getClientIp(TransportChannel client) {
         try {
             InetSocketAddress addr = (InetSocketAddress) client.getRemoteAddress();
             return addr.getAddress().getHostAddress();
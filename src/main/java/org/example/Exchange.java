@@ -0,0 +1,35 @@
+package org.example;
+
+import org.example.security.AdmissionController;
+
+// one request/response pair in the per-connection pipeline queue
+class Exchange {
+    final HttpRequest request;
+    final boolean keepAlive;
+    final long startTime = System.currentTimeMillis();
+    final long startNanos = System.nanoTime();
+
+    // route matched when the headers came in, null for static files / defaults
+    Router.RouteMatchHttp1 route;
+    // handed to a handler (maybe still running on a virtual thread)
+    boolean dispatched;
+    // null until the handler has produced it
+    HttpResponse response;
+    // status line + headers handed to the writer
+    boolean headerQueued;
+    // every byte of the response handed to the writer
+    boolean fullyQueued;
+    // the body goes out with sendfile once everything before it is written
+    boolean transferring;
+    // admission permit while the handler works on it, null once released (or if not admitted)
+    AdmissionController.Permit permit;
+
+    Exchange(HttpRequest request, boolean keepAlive) {
+        this.request = request;
+        this.keepAlive = keepAlive;
+    }
+
+    RequestBody requestBody() {
+        return request != null ? request.body : null;
+    }
+}
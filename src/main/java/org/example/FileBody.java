@@ -0,0 +1,305 @@
+package org.example;
+
+import org.example.buffer.BufferPool;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Response body streamed from a file through AsynchronousFileChannel, one pooled chunk at a time.
+ *
+ * The next read is only started when the writer comes back for more and the chunk it was given is fully
+ * written, so a download holds a single chunk whatever the file size, and a slow client slows the disk reads
+ * down instead of piling up memory. Reads run on the file channel's threads, never on a network thread.
+ *
+ * A writer on a socket that can sendfile may instead take the whole body with {@link #startTransfer()} before the
+ * first chunk is asked for; then no buffer is used at all and the kernel moves the bytes.
+ *
+ * For multipart/byteranges the body is several ranges of the file, each after its part header, then the closing
+ * delimiter. Only the requested bytes are read, with positioned reads.
+ */
+public class FileBody extends ResponseBody {
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    private final Path path;
+    private final BufferPool pool;
+    private final int chunkSize;
+    // the byte ranges to send one after the other, [starts[i], ends[i]); one range unless multipart
+    private final long[] starts;
+    private final long[] ends;
+    // multipart: heads[i] goes out before range i and trailer after the last one. null for a plain body
+    private final ByteBuffer[] heads;
+    private final ByteBuffer trailer;
+
+    // guarded by this
+    private int part;
+    private AsynchronousFileChannel channel;
+    // sendfile mode
+    private FileChannel transferChannel;
+    private long position;
+    private ByteBuffer chunk;
+    // chunk was filled and belongs to the writer until it has no bytes left
+    private boolean handedOut;
+    private boolean reading;
+    private boolean released;
+
+    /**
+     * length bytes of path starting at offset
+     */
+    public FileBody(Path path, long offset, long length, BufferPool pool, int chunkSize) {
+        this(path, new long[]{offset}, new long[]{offset + length}, null, null, pool, chunkSize);
+    }
+
+    public FileBody(Path path, long length) {
+        this(path, 0, length, BufferPool.DEFAULT, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * multipart/byteranges: ranges are first and last byte pairs (see ByteRanges), heads the part headers,
+     * one per range, trailer the closing delimiter
+     */
+    public FileBody(Path path, long[] ranges, ByteBuffer[] heads, ByteBuffer trailer) {
+        this(path, firsts(ranges), afterLasts(ranges), heads, trailer, BufferPool.DEFAULT, DEFAULT_CHUNK_SIZE);
+    }
+
+    private FileBody(Path path, long[] starts, long[] ends, ByteBuffer[] heads, ByteBuffer trailer,
+                     BufferPool pool, int chunkSize) {
+        this.path = path;
+        this.pool = pool;
+        this.starts = starts;
+        this.ends = ends;
+        this.heads = heads;
+        this.trailer = trailer;
+        long total = 0;
+        for (int i = 0; i < starts.length; i++) {
+            total += ends[i] - starts[i];
+        }
+        // no bigger than all there is to read
+        this.chunkSize = (int) Math.min(chunkSize, Math.max(1, total));
+        this.position = starts[0];
+        if (heads != null) {
+            addChunk(heads[0]);
+        }
+        if (total == 0) {
+            end();
+        }
+    }
+
+    private static long[] firsts(long[] ranges) {
+        long[] firsts = new long[ranges.length / 2];
+        for (int i = 0; i < firsts.length; i++) {
+            firsts[i] = ranges[2 * i];
+        }
+        return firsts;
+    }
+
+    private static long[] afterLasts(long[] ranges) {
+        long[] ends = new long[ranges.length / 2];
+        for (int i = 0; i < ends.length; i++) {
+            ends[i] = ranges[2 * i + 1] + 1;
+        }
+        return ends;
+    }
+
+    @Override
+    public ByteBuffer peek() {
+        ByteBuffer next = super.peek();
+        if (next == null) {
+            readNext();
+        }
+        return next;
+    }
+
+    /**
+     * switch to sendfile: the writer moves the bytes with transferTo and reports them with {@link #transferred}.
+     * false if chunks were already asked for, or for multipart bodies
+     */
+    public synchronized boolean startTransfer() throws IOException {
+        if (released || channel != null || transferChannel != null || heads != null) {
+            return transferChannel != null && !released;
+        }
+        transferChannel = FileChannel.open(path, StandardOpenOption.READ);
+        return true;
+    }
+
+    public synchronized FileChannel getTransferChannel() {
+        return transferChannel;
+    }
+
+    public synchronized long getPosition() {
+        return position;
+    }
+
+    /**
+     * of the current range, the whole body unless multipart
+     */
+    public synchronized long getRemaining() {
+        return ends[part] - position;
+    }
+
+    public synchronized void transferred(long bytes) {
+        position += bytes;
+    }
+
+    /**
+     * the whole body in one array, read right here, for writers that need it at once (HTTP/2).
+     * instead of the chunks, not on top of them
+     */
+    @Override
+    public byte[] toBytes() {
+        long length = trailer != null ? trailer.remaining() : 0;
+        for (int i = 0; i < starts.length; i++) {
+            length += ends[i] - starts[i] + (heads != null ? heads[i].remaining() : 0);
+        }
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("File too large for one array: " + length + " bytes");
+        }
+        ByteBuffer bytes = ByteBuffer.allocate((int) length);
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            for (int i = 0; i < starts.length; i++) {
+                if (heads != null) {
+                    bytes.put(heads[i].duplicate());
+                }
+                long offset = starts[i] - bytes.position();
+                bytes.limit((int) (bytes.position() + ends[i] - starts[i]));
+                while (bytes.hasRemaining()) {
+                    if (file.read(bytes, offset + bytes.position()) < 0) {
+                        throw new EOFException("File shrank while it was read");
+                    }
+                }
+                bytes.limit(bytes.capacity());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (trailer != null) {
+            bytes.put(trailer.duplicate());
+        }
+        return bytes.array();
+    }
+
+    private void readNext() {
+        synchronized (this) {
+            if (released || reading || transferChannel != null || position >= ends[part] || handedOut && chunk.hasRemaining()) {
+                return; // nothing to do, or the writer still owns the buffer
+            }
+            if (channel == null) {
+                // first chunk asked for, the writer is past the header
+                try {
+                    channel = AsynchronousFileChannel.open(path, StandardOpenOption.READ);
+                } catch (IOException e) {
+                    failLater(e);
+                    return;
+                }
+                chunk = pool.acquire(chunkSize);
+            }
+            reading = true;
+            handedOut = false;
+            chunk.clear();
+            // a read never crosses into the next range
+            chunk.limit((int) Math.min(chunk.capacity(), ends[part] - position));
+        }
+        channel.read(chunk, position, null, readCompletion);
+    }
+
+    private final CompletionHandler<Integer, Void> readCompletion = new CompletionHandler<>() {
+        @Override
+        public void completed(Integer bytesRead, Void attachment) {
+            boolean last = false;
+            boolean shrank = false;
+            // part header of the next range, or the trailer after the last
+            ByteBuffer next = null;
+            synchronized (FileBody.this) {
+                reading = false;
+                if (released) {
+                    pool.release(chunk);
+                    chunk = null;
+                    return;
+                }
+                if (bytesRead < 0) {
+                    shrank = true;
+                } else {
+                    position += bytesRead;
+                    if (position >= ends[part]) {
+                        if (part + 1 < starts.length) {
+                            part++;
+                            position = starts[part];
+                            next = heads[part];
+                        } else {
+                            last = true;
+                            next = trailer;
+                        }
+                    }
+                    chunk.flip();
+                    handedOut = true;
+                }
+            }
+            // outside our lock, the writer takes the connection's lock from here
+            if (shrank) {
+                fail(new EOFException("File shrank while it was sent"));
+                return;
+            }
+            if (next != null) {
+                // together: the writer can finish the chunk before a second addChunk and start the next read
+                addChunks(chunk, next);
+            } else {
+                addChunk(chunk);
+            }
+            if (last) {
+                end();
+            }
+        }
+
+        @Override
+        public void failed(Throwable exc, Void attachment) {
+            synchronized (FileBody.this) {
+                reading = false;
+                if (released) {
+                    pool.release(chunk);
+                    chunk = null;
+                    return;
+                }
+            }
+            fail(exc);
+        }
+    };
+
+    @Override
+    public void release() {
+        synchronized (this) {
+            if (released) {
+                return;
+            }
+            released = true;
+            if (!reading && chunk != null) {
+                if (handedOut && chunk.hasRemaining()) {
+                    pool.abandon(chunk); // a write may still be reading it
+                } else {
+                    pool.release(chunk);
+                }
+                chunk = null;
+            }
+        }
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+            if (transferChannel != null) {
+                transferChannel.close();
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    // not from inside peek(), the writer holds its connection lock there and fail() calls back into it
+    private void failLater(IOException e) {
+        Thread.startVirtualThread(() -> fail(e));
+    }
+}
@@ -1,45 +1,391 @@
 package org.example;
 
+import org.example.cache.FrequencySketch;
+import org.example.log.Logger;
+
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Static files kept in memory, bounded by bytes, keyed by the normalized absolute path.
+ *
+ * Segmented LRU: new files go to probation, a second hit promotes them to the protected segment (80% of the
+ * budget), whose least recently used entries fall back to probation. A new file is only admitted if TinyLFU
+ * (a frequency sketch over hits and misses) says it is asked for more often than what it would evict, so a
+ * one-off scan does not flush the hot set. Concurrent misses on one file share a single read, and the
+ * WatchService drops entries whose file or directory changed; the next request reads them again.
+ *
+ * Files in the mapped size band skip the heap: they are kept as {@link org.example.cache.MappedFile}s in an
+ * LRU of their own with its own byte budget (same TinyLFU admission), so a large hot set of assets costs page
+ * cache instead of heap and GC time. Dropping such an entry only gives up the cache's reference, the mapping
+ * goes away once the last response sending it is done.
+ *
+ * Files too big for both tiers are only remembered by their metadata, so serving one again costs no stat.
+ * The walk that registers the directory watches also builds the {@link StaticManifest} of the doc root; each
+ * batch of watch events swaps in an updated copy.
+ */
 public class FileCacheManager {
+    private static final Logger log = Logger.get(FileCacheManager.class);
+
+    private final long maxBytes;
+    private final long maxProtectedBytes;
+    private final int maxFileSize;
+    // access-ordered, eldest first. guarded by this
+    private final LinkedHashMap<Path, CachedFile> probation = new LinkedHashMap<>(64, 0.75f, true);
+    private final LinkedHashMap<Path, CachedFile> protectedSegment = new LinkedHashMap<>(64, 0.75f, true);
+    private long probationBytes;
+    private long protectedBytes;
+    // mapped tier, access-ordered. guarded by this
+    private final LinkedHashMap<Path, CachedFile> mapped = new LinkedHashMap<>(64, 0.75f, true);
+    private long mappedBytes;
+    private long minMappedSize = 64 * 1024;
+    private long maxMappedSize = 64 * 1024 * 1024;
+    private long maxMappedBytes = 1024L * 1024 * 1024;
+    private final FrequencySketch sketch;
+    // metadata of files sent from disk every time, nothing of their content is held
+    private final ConcurrentHashMap<Path, CachedFile> streamed = new ConcurrentHashMap<>();
+    // single flight, removed by invalidate so a load that raced with a change is not kept
+    private final ConcurrentHashMap<Path, CompletableFuture<CachedFile>> loading = new ConcurrentHashMap<>();
+
+    // stats
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
 
     // hot reload
     private final WatchService watchService;
     private final Thread watchThread;
     private final Path watchRoot;
+    // replaced, never changed, by the watch thread
+    private volatile StaticManifest manifest;
+
+    public FileCacheManager(Path watchRoot) throws IOException {
+        this(watchRoot, 100 * 1024 * 1024, 8 * 1024 * 1024);
+    }
 
-    public FileCacheManager(Path watchRoot) throws IOException{
-        this.watchRoot = watchRoot;
+    /**
+     * @param maxBytes    bytes of file content the cache may hold
+     * @param maxFileSize larger files are streamed from disk for every request and never cached
+     */
+    public FileCacheManager(Path watchRoot, long maxBytes, int maxFileSize) throws IOException {
+        this.watchRoot = watchRoot.toAbsolutePath().normalize();
+        this.maxBytes = maxBytes;
+        this.maxProtectedBytes = maxBytes * 8 / 10;
+        this.maxFileSize = (int) Math.min(maxFileSize, maxBytes);
+        // sized for files of ~16 KB on average
+        this.sketch = new FrequencySketch((int) Math.min(1 << 20, Math.max(1024, maxBytes / 16384)));
 
-        // init file listener
+        // init file listener, the manifest walk registers every directory
         this.watchService = FileSystems.getDefault().newWatchService();
-        registerAllDirs(watchRoot);
+        long start = System.nanoTime();
+        this.manifest = StaticManifest.build(this.watchRoot, this::watch);
+        log.info("Static manifest: {} files under {} in {} ms", manifest.size(), this.watchRoot,
+                (System.nanoTime() - start) / 1_000_000);
 
         this.watchThread = new Thread(this::watchLoop, "FileCacheWatcher");
         watchThread.setDaemon(true);
         watchThread.start();
     }
 
+    /**
+     * files of minSize to maxSize bytes are mapped instead of read onto the heap, up to maxBytes of them in total.
+     * maxBytes 0 turns the mapped tier off. only affects files loaded from now on
+     */
+    public synchronized void setMappedTier(long minSize, long maxSize, long maxBytes) {
+        this.minMappedSize = Math.max(1, minSize);
+        this.maxMappedSize = Math.min(Math.min(maxSize, maxBytes), Integer.MAX_VALUE);
+        this.maxMappedBytes = maxBytes;
+    }
+
+    /**
+     * the doc root as of the last batch of watch events
+     */
+    public StaticManifest manifest() {
+        return manifest;
+    }
+
+    /**
+     * the regular file at path (absolute, normalized), null if there is none. read or mapped on a miss,
+     * files outside both tiers come back without content (streamed)
+     */
+    public CachedFile get(Path path) throws IOException {
+        CachedFile file = lookup(path);
+        if (file == null) {
+            file = streamed.get(path);
+        }
+        if (file != null) {
+            hits.increment();
+            return file;
+        }
+        misses.increment();
+
+        CompletableFuture<CachedFile> load = new CompletableFuture<>();
+        CompletableFuture<CachedFile> inFlight = loading.putIfAbsent(path, load);
+        if (inFlight != null) {
+            return await(inFlight);
+        }
+        try {
+            long mapFrom, mapTo;
+            synchronized (this) {
+                mapFrom = minMappedSize;
+                mapTo = maxMappedSize;
+            }
+            file = CachedFile.load(path, maxFileSize, mapFrom, mapTo, true);
+            loads.increment();
+            // still ours: not invalidated while we were reading
+            boolean current = loading.remove(path, load);
+            boolean admitted = current && file != null && !file.isStreamed() && admit(path, file);
+            // a file in the mapped band is only streamed until it settles, load it again next time
+            if (current && file != null && file.isStreamed() && file.size() == 0
+                    && (file.length < mapFrom || file.length > mapTo)) {
+                streamed.put(path, file);
+            }
+            if (!admitted && file != null && file.isMapped()) {
+                // nobody would ever release the mapping, stream this one instead
+                file = file.unmapped();
+            }
+            load.complete(file);
+            return file;
+        } catch (IOException | RuntimeException e) {
+            loading.remove(path, load);
+            load.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private static CachedFile await(CompletableFuture<CachedFile> load) throws IOException {
+        try {
+            return load.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a file load");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    private synchronized CachedFile lookup(Path path) {
+        sketch.increment(path);
+        CachedFile file = protectedSegment.get(path);
+        if (file == null) {
+            file = mapped.get(path);
+        }
+        if (file != null) {
+            return file;
+        }
+        file = probation.remove(path);
+        if (file == null) {
+            return null;
+        }
+        // second hit: promote, the protected segment's eldest drop back to probation
+        probationBytes -= file.size();
+        protectedSegment.put(path, file);
+        protectedBytes += file.size();
+        Iterator<Map.Entry<Path, CachedFile>> it = protectedSegment.entrySet().iterator();
+        while (protectedBytes > maxProtectedBytes && it.hasNext()) {
+            Map.Entry<Path, CachedFile> eldest = it.next();
+            it.remove();
+            protectedBytes -= eldest.getValue().size();
+            probation.put(eldest.getKey(), eldest.getValue());
+            probationBytes += eldest.getValue().size();
+        }
+        return file;
+    }
+
+    /**
+     * false if the file is not kept, then the caller still owns its mapping
+     */
+    private synchronized boolean admit(Path path, CachedFile file) {
+        if (probation.containsKey(path) || protectedSegment.containsKey(path) || mapped.containsKey(path)) {
+            return false;
+        }
+        boolean isMapped = file.isMapped();
+        long size = weight(file);
+
+        // victims from the cold end of probation first, then protected; mapped files only displace mapped ones
+        long needed = isMapped ? mappedBytes + size - maxMappedBytes : probationBytes + protectedBytes + size - maxBytes;
+        List<Map.Entry<Path, CachedFile>> victims = new ArrayList<>();
+        if (needed > 0) {
+            int frequency = sketch.frequency(path);
+            for (Map<Path, CachedFile> segment : isMapped ? List.of(mapped) : List.of(probation, protectedSegment)) {
+                for (Map.Entry<Path, CachedFile> entry : segment.entrySet()) {
+                    if (needed <= 0) {
+                        break;
+                    }
+                    if (sketch.frequency(entry.getKey()) >= frequency) {
+                        rejected.increment(); // the cached ones are asked for at least as often
+                        return false;
+                    }
+                    victims.add(entry);
+                    needed -= weight(entry.getValue());
+                }
+            }
+            if (needed > 0) {
+                rejected.increment(); // bigger than the whole tier
+                return false;
+            }
+        }
+
+        for (Map.Entry<Path, CachedFile> victim : victims) {
+            remove(victim.getKey());
+            evictions.increment();
+        }
+        if (isMapped) {
+            mapped.put(path, file);
+            mappedBytes += size;
+        } else {
+            probation.put(path, file);
+            probationBytes += size;
+        }
+        return true;
+    }
+
+    // caller holds the lock
+    private void remove(Path path) {
+        CachedFile file = probation.remove(path);
+        if (file != null) {
+            probationBytes -= file.size();
+            return;
+        }
+        file = protectedSegment.remove(path);
+        if (file != null) {
+            protectedBytes -= file.size();
+            return;
+        }
+        file = mapped.remove(path);
+        if (file != null) {
+            mappedBytes -= weight(file);
+            // responses still sending it hold their own references
+            file.mapping.release();
+        }
+    }
+
+    // what an entry costs its tier; a mapped file's compressed copy is on the heap but goes with the entry
+    private static long weight(CachedFile file) {
+        return file.isMapped() ? (long) file.mappedSize() + file.size() : file.size();
+    }
+
+    /**
+     * drop path and, for a directory, everything below it. a precompressed sibling (name.gz, name.br)
+     * drops the file it belongs to
+     */
+    public void invalidate(Path path) {
+        Path original = CachedFile.originalOf(path);
+        if (original != null) {
+            invalidate(original);
+        }
+        loading.keySet().removeIf(p -> p.startsWith(path));
+        streamed.keySet().removeIf(p -> p.startsWith(path));
+        synchronized (this) {
+            List<Path> stale = new ArrayList<>();
+            for (Map<Path, CachedFile> segment : List.of(probation, protectedSegment, mapped)) {
+                for (Path cached : segment.keySet()) {
+                    if (cached.startsWith(path)) {
+                        stale.add(cached);
+                    }
+                }
+            }
+            for (Path cached : stale) {
+                remove(cached);
+                invalidations.increment();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        loading.clear();
+        streamed.clear();
+        invalidations.add(probation.size() + protectedSegment.size() + mapped.size());
+        probation.clear();
+        protectedSegment.clear();
+        probationBytes = 0;
+        protectedBytes = 0;
+        for (CachedFile file : mapped.values()) {
+            file.mapping.release();
+        }
+        mapped.clear();
+        mappedBytes = 0;
+    }
+
+    /**
+     * counters for the monitor endpoints
+     */
+    public Map<String, Long> stats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        synchronized (this) {
+            stats.put("entries", (long) (probation.size() + protectedSegment.size()));
+            stats.put("bytes", probationBytes + protectedBytes);
+            stats.put("protectedBytes", protectedBytes);
+            stats.put("mappedEntries", (long) mapped.size());
+            stats.put("mappedBytes", mappedBytes);
+            stats.put("maxMappedBytes", maxMappedBytes);
+        }
+        stats.put("streamedEntries", (long) streamed.size());
+        stats.put("manifestEntries", (long) manifest.size());
+        stats.put("manifestOpaqueDirectories", (long) manifest.opaqueDirectories());
+        stats.put("maxBytes", maxBytes);
+        stats.put("hits", hits.sum());
+        stats.put("misses", misses.sum());
+        stats.put("loads", loads.sum());
+        stats.put("evictions", evictions.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("invalidations", invalidations.sum());
+        return stats;
+    }
+
+    public void close() {
+        try {
+            watchService.close();
+        } catch (IOException ignored) {
+        }
+        clear();
+    }
+
     /* ================= hot reload ================ */
     private void watchLoop() {
         try {
             while(true) {
                 WatchKey key = watchService.take();
+                Set<Path> changes = new LinkedHashSet<>();
+                boolean overflow = false;
 
                 for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        // events were lost, nothing cached can be trusted
+                        log.info("[HOT-RELOAD] event overflow, cache cleared");
+                        clear();
+                        overflow = true;
+                        continue;
+                    }
 
                     Path changed = ((Path) event.context());
                     Path fullPath = ((Path) key.watchable()).resolve(changed);
-                    String urlPath = watchRoot.resolve(fullPath).toString().replace("\\", "/");
 
-                    System.out.println("[HOT-RELOAD] file update: " + urlPath);
+                    log.info("[HOT-RELOAD] file update: {}", fullPath);
+                    invalidate(fullPath);
+                    changes.add(fullPath);
                 }
                 key.reset();
+
+                // new directories get their watches from the scan
+                if (overflow) {
+                    manifest = StaticManifest.build(watchRoot, this::watch);
+                } else if (!changes.isEmpty()) {
+                    manifest = manifest.updated(changes, this::watch);
+                }
             }
         } catch (InterruptedException ignored) {
         }
@@ -47,16 +393,16 @@ public class FileCacheManager {
         }
     }
 
-    private void registerAllDirs(Path start) throws IOException {
-        Files.walk(start).filter(Files::isDirectory).forEach(path -> {
-            try {
-                path.register(watchService,
-                        StandardWatchEventKinds.ENTRY_CREATE,
-                        StandardWatchEventKinds.ENTRY_DELETE,
-                        StandardWatchEventKinds.ENTRY_MODIFY);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        });
+    // from the manifest scan threads, before the directory is listed
+    private void watch(Path dir) {
+        try {
+            dir.register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (ClosedWatchServiceException ignored) {
+        } catch (IOException e) {
+            log.warn("Watching {} failed", dir, e);
+        }
     }
 }
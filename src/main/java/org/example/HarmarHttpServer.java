@@ -16,15 +16,20 @@ import java.util.Map;
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslContextBuilder;
 import io.netty.handler.ssl.util.SelfSignedCertificate;
+import org.example.connection.TransportType;
 import org.example.http2.*;
 import org.example.https.NettyTlsServer;
+import org.example.log.AccessLog;
+import org.example.log.Logger;
 import org.example.monitor.MonitorEndpoints;
 import org.example.monitor.PerformanceMonitor;
+import org.example.security.AdmissionController;
 import org.example.security.DosDefender;
-
-import static org.example.protocol.HttpRequestParser.parseRequest;
+import org.example.security.GradientLimit;
 
 public class HarmarHttpServer {
+    private static final Logger log = Logger.get(HarmarHttpServer.class);
+
     // monitor fields
     private final PerformanceMonitor performanceMonitor;
     private final MonitorEndpoints monitorEndpoints;
@@ -34,10 +39,16 @@ public class HarmarHttpServer {
     private volatile boolean isRunning;
     public static String rootDir;
     private final FileCacheManager fileCache;
+    // the doc root on every transport, for requests no route takes
+    private final StaticFileService staticFiles;
     private final DosDefender dosDefender;
     private final Router router = new Router();
+    private final HeadRequestHandler headRequestHandler = new HeadRequestHandler();
     private final ConnectionManager connectionManager; // HTTP
     private final NettyTlsServer nettyTlsServer; // HTTPS
+    // shared by all transports
+    private final AdmissionController admissionController = new AdmissionController(new GradientLimit(), 64);
+    private AccessLog accessLog;
 
     public HarmarHttpServer(int port, String rootDir) throws IOException {
         this(port, rootDir,true, true, true);
@@ -46,8 +57,9 @@ public class HarmarHttpServer {
     public HarmarHttpServer(int port, String rootDir,boolean enableDosDefender, boolean enableMonitoring, boolean enableFileCache) throws IOException {
         this.port = port;
         this.rootDir = rootDir;
-        // config 100 file and 100M limit
+        // 100M of content, files up to 8M
         this.fileCache = enableFileCache ? new FileCacheManager(Paths.get(rootDir)) : null;
+        this.staticFiles = new StaticFileService(Paths.get(rootDir), fileCache);
 
         this.dosDefender = enableDosDefender ?
                 new DosDefender(60_000, 100, 300_000) : null;
@@ -57,17 +69,25 @@ public class HarmarHttpServer {
         if (enableMonitoring) {
             this.performanceMonitor = new PerformanceMonitor();
             this.monitorEndpoints = new MonitorEndpoints(performanceMonitor);
+            if (fileCache != null) {
+                performanceMonitor.registerGauges("fileCache", fileCache::stats);
+            }
         } else {
             this.performanceMonitor = null;
             this.monitorEndpoints = null;
         }
 
         // http default 80 port
-        this.connectionManager = new ConnectionManager(this, 80, 10,
-                enableDosDefender ? performanceMonitor : null,
+        this.connectionManager = new ConnectionManager(this, 80, Runtime.getRuntime().availableProcessors(),
+                performanceMonitor,
                 enableDosDefender ? dosDefender : null, router);
 
+        connectionManager.setAdmissionController(admissionController);
+        connectionManager.setStaticFiles(staticFiles);
+
         this.nettyTlsServer = new NettyTlsServer(port,router);
+        nettyTlsServer.setAdmissionController(admissionController);
+        nettyTlsServer.setStaticFiles(staticFiles);
 
         // register monitor endpoint
         if (enableMonitoring && monitorEndpoints != null) {
@@ -79,42 +99,97 @@ public class HarmarHttpServer {
         router.registerHttp1(method, path, handler);
     }
 
-    public void registerRouteHttp2(String method, String path, Router.Http2RouteHandler handler) {
-        router.registerHttp2(method, path, handler);
+    /**
+     * handler may block, it runs on a virtual thread instead of an I/O thread
+     */
+    public void registerBlockingRouteHttp1(String method, String path, Router.Http1RouteHandler handler) {
+        router.registerBlockingHttp1(method, path, handler);
     }
 
-    // default image/jpeg
-    public void registerHttp2StaticFile(String path) {
-        registerRouteHttp2("GET", path, (request, stream, pathParams, hpackDynamicTable, streamId) -> {
-            Map<String, String> responseHeaders = new LinkedHashMap<>();
-            responseHeaders.put(":status", "200");
-            responseHeaders.put("server", "mini-http2");
-            responseHeaders.put("content-type", "image/jpeg");
+    /**
+     * request bodies above this size are written to a temp file instead of kept on the heap
+     */
+    public void setRequestBodySpillThreshold(int bytes) {
+        connectionManager.setBodySpillThreshold(bytes);
+        nettyTlsServer.setBodySpillThreshold(bytes);
+    }
 
-            byte[] headersPayload = new HpackEncoder(hpackDynamicTable).encode(responseHeaders);
+    /**
+     * how many pipelined requests of one connection may wait for their responses
+     */
+    public void setMaxInFlightRequests(int maxInFlightRequests) {
+        connectionManager.setMaxInFlightRequests(maxInFlightRequests);
+    }
 
-            Frame headersFrame = new Frame(new FrameHeader(
-                    headersPayload.length, FrameType.HEADERS, EnumSet.of(FrameFlag.END_HEADERS), streamId
-            ), headersPayload);
+    /**
+     * byte and buffer-count caps for one gathering response write
+     */
+    public void setWriteBatchLimits(int maxBytes, int maxBuffers) {
+        connectionManager.setWriteBatchLimits(maxBytes, maxBuffers);
+    }
 
-            Path rootPath = Paths.get(this.rootDir).toAbsolutePath();
-            Path requestPath = normalizePath(rootPath,path);
+    /**
+     * streamed static files from this size on go out with sendfile on the plaintext listener
+     * (not with the AIO engine, which has no transferTo)
+     */
+    public void setSendfileThreshold(long bytes) {
+        connectionManager.setSendfileThreshold(bytes);
+    }
 
-            File file = new File(requestPath.toUri());
+    /**
+     * cached static files of minSize to maxSize bytes are served from read-only mappings instead of the heap,
+     * up to maxBytes of them. maxBytes 0 keeps everything on the heap
+     */
+    public void setMappedFileTier(long minSize, long maxSize, long maxBytes) {
+        if (fileCache != null) {
+            fileCache.setMappedTier(minSize, maxSize, maxBytes);
+        }
+    }
 
-            try {
-                byte[] fileBytes = java.nio.file.Files.readAllBytes(file.toPath());
+    /**
+     * I/O engine of the plaintext listener (AIO, NIO selector loops, Netty or a virtual thread per connection), call before start()
+     */
+    public void setTransport(TransportType transportType) {
+        connectionManager.setTransportType(transportType);
+    }
 
-                Frame dataFrame = new Frame(new FrameHeader(
-                        fileBytes.length, FrameType.DATA, EnumSet.of(FrameFlag.END_STREAM), streamId
-                ), fileBytes);
+    /**
+     * size of the HTTP/1 I/O thread pool and how many SO_REUSEPORT listeners share it, call before start()
+     */
+    public void setIoThreads(int threads, int listeners) {
+        connectionManager.setWorkerThreads(threads);
+        connectionManager.setListenerCount(listeners);
+    }
 
-                stream.queueResponse(headersFrame);
-                stream.queueResponse(dataFrame);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        });
+    /**
+     * requests one client IP may have in flight across all connections and transports, 0 disables
+     */
+    public void setMaxRequestsPerIp(int maxRequestsPerIp) {
+        admissionController.setMaxPerIp(maxRequestsPerIp);
+    }
+
+    /**
+     * write an access log line for about one request in sampleOneIn (5xx always), call before start()
+     */
+    public void setAccessLog(Path file, int sampleOneIn) throws IOException {
+        if (accessLog != null) {
+            accessLog.close();
+        }
+        accessLog = new AccessLog(file);
+        accessLog.setSampleRate(sampleOneIn);
+        connectionManager.setAccessLog(accessLog);
+        nettyTlsServer.setAccessLog(accessLog);
+        if (performanceMonitor != null) {
+            performanceMonitor.registerGauges("accessLog", accessLog::stats);
+        }
+    }
+
+    public void registerRouteHttp2(String method, String path, Router.Http2RouteHandler handler) {
+        router.registerHttp2(method, path, handler);
+    }
+
+    public void registerBlockingRouteHttp2(String method, String path, Router.Http2RouteHandler handler) {
+        router.registerBlockingHttp2(method, path, handler);
     }
 
     public void start() throws IOException {
@@ -147,113 +222,50 @@ public class HarmarHttpServer {
         if (!isRunning) return;
 
         connectionManager.shutdown();
+        router.shutdown();
 
         isRunning = false;
 
-        System.out.println("Server stopped");
+        log.info("Server stopped");
 
         if (dosDefender != null) {
             dosDefender.shutdown();
         }
+        if (fileCache != null) {
+            fileCache.close();
+        }
+        if (accessLog != null) {
+            try {
+                accessLog.close();
+            } catch (IOException e) {
+                log.warn("Closing access log failed", e);
+            }
+        }
     }
 
-    private HttpResponse respondToRequest(HttpRequest request) throws IOException {
+    private HttpResponse respondToRequest(HttpRequest request, Router.RouteMatchHttp1 match) throws IOException {
         // 1. check http version
         HttpVersion version = request.protocol.getName().startsWith("HTTP/1.0") ? HttpVersion.HTTP_1_0 : HttpVersion.HTTP_1_1;
-        // 2. try to match route
-        Router.RouteMatchHttp1 match = router.findMatchHttp1(request.method, request.path);
 
         HttpResponse response = new HttpResponse();
         response.setHttpVersion(version);
 
+        boolean head = "HEAD".equalsIgnoreCase(request.method);
         if (match != null) {
+            // a HEAD without a route of its own runs the GET route, see Router.findMatchHttp1
             match.handler.handle(request, response, match.pathParams);
-            return response;
         }
-
         // 3. if no route,execute default
-        if ("GET".equalsIgnoreCase(request.method)) {
-            handleGetRequest(response,request.path);
+        else if (!staticFiles.serve(request, response)) {
+            CannedResponse.NOT_IMPLEMENTED.applyTo(response);
         }
-        else  {
-            byte[] content = ("Not Implemented " + request.method)
-                    .getBytes(StandardCharsets.UTF_8);
-
-            ResponseBody body = new ResponseBody();
-            body.addChunk(content);
-            body.end();
 
-            response.setStatus(HttpStatus.NOT_IMPLEMENTED);
-            response.setBody(body);
-
-            response.setDefaultHeaders();
-            response.setHeader("Content-Type", "text/html");
-            response.setHeader("Content-Length", String.valueOf(content.length));
-
-            response.send();
+        if (head) {
+            headRequestHandler.stripBody(response);
         }
-
         return response;
     }
 
-    private void handleGetRequest(HttpResponse response, String path) throws IOException {
-        if ("/".equals(path)) {
-            path = "index.html";
-        }
-
-        // handle static file request
-        serverStaticFile(response,path);
-    }
-
-    private void serverStaticFile(HttpResponse response, String path) throws IOException {
-        Path rootPath = Paths.get(this.rootDir).toAbsolutePath();
-        Path requestPath = normalizePath(rootPath,path);
-
-        // security auth
-        if (!requestPath.startsWith(rootPath)) {
-            response.setStatus(HttpStatus.FORBIDDEN);
-
-            ResponseBody body = new ResponseBody();
-            byte[] content = "403 FORBIDDEN".getBytes();
-            body.addChunk(content);
-            body.end();
-            response.setBody(body);
-
-            response.setDefaultHeaders();
-            response.setHeader("Content-Type", "text/html; charset=utf8");
-            response.setHeader("Content-Length", String.valueOf(content.length));
-
-            response.send();
-            return;
-        }
-
-        if (Files.exists(requestPath) && !Files.isDirectory(requestPath)) {
-                byte[] content = Files.readAllBytes(normalizePath(rootPath, String.valueOf(requestPath)));
-                String contentType = determineContentType(requestPath);
-
-                ResponseBody body = new ResponseBody();
-                body.addChunk(content);
-                body.end();
-                response.setBody(body);
-                response.setStatus(HttpStatus.OK);
-                response.setDefaultHeaders();
-                response.setHeader("Content-Type", contentType);
-                response.setHeader("Content-Length", String.valueOf(content.length));
-                response.send();
-        } else {
-            byte[] errorContent = buildErrorHtml(HttpStatus.NOT_FOUND.code, HttpStatus.NOT_FOUND.message);
-            ResponseBody body = new ResponseBody();
-            body.addChunk(errorContent);
-            body.end();
-            response.setBody(body);
-            response.setStatus(HttpStatus.NOT_FOUND);
-            response.setDefaultHeaders();
-            response.setHeader("Content-Type", "text/html; charset=utf-8");
-            response.setHeader("Content-Length", String.valueOf(errorContent.length));
-            response.send();
-        }
-    }
-
     public static Path normalizePath(Path base, String path) {
         String sanitizedPath = path.replace('\\','/')
                 .replace("..","");
@@ -285,33 +297,18 @@ public class HarmarHttpServer {
         }
     }
 
-    private byte[] buildErrorHtml(int statusCode, String statusMsg) {
-        return ("<!DOCTYPE html>\n" +
-                        "<html lang=\"en\">\n" +
-                        "<head>\n" +
-                        "    <meta charset=\"UTF-8\">\n" +
-                        "    <title>" + statusCode + " " + statusMsg + "</title>\n" +
-                        "    <style>\n" +
-                        "        body { font-family: Arial, sans-serif; background-color: #f8f8f8; text-align: center; padding: 50px; }\n" +
-                        "        h1 { font-size: 48px; color: #cc0000; }\n" +
-                        "        p { font-size: 20px; color: #333; }\n" +
-                        "    </style>\n" +
-                        "</head>\n" +
-                        "<body>\n" +
-                        "    <h1>" + statusCode + " " + statusMsg + "</h1>\n" +
-                        "    <p>The server returned an error while processing your request.</p>\n" +
-                        "</body>\n" +
-                        "</html>").getBytes();
+    public HttpResponse handleRequest(HttpRequest request) {
+        return handleRequest(request, router.findMatchHttp1(request.method, request.path));
     }
 
-    public HttpResponse handleRawRequest(String rawRequest) {
+    /**
+     * route already matched by the transport (null: static files / defaults)
+     */
+    public HttpResponse handleRequest(HttpRequest request, Router.RouteMatchHttp1 match) {
         try {
-            BufferedReader reader = new BufferedReader(new StringReader(rawRequest));
-            HttpRequest request = parseRequest(reader);
-            HttpResponse response = respondToRequest(request);;
-            return response;
+            return respondToRequest(request, match);
         } catch (Exception e) {
-            e.printStackTrace();
+            log.error("Handler failed: {}", request.path, e);
             return null;
         }
     }
@@ -1,51 +1,32 @@
 package org.example;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.IOException;
-import java.io.OutputStream;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-
 // note : HEAD request no request body and response body
 public class HeadRequestHandler {
-    public void handle(OutputStream output, HttpRequest request) throws IOException {
-        Map<String, String> headers = request.headers;
-        String path = request.path;
-
-        // content type is empty mean no res
-        boolean exists = !validateResExist(path).isEmpty();
-        String contentType = validateResExist(path).get(0);
-        if (exists) {
-
-        }
-    }
-
-    // return content type and content length
-    private List<String> validateResExist(String path) {
-        if (path.endsWith("/")) {
-            path = "/index.html";
-        }
-        boolean exists = true;
-        ArrayList<String> result = new ArrayList<>();
-
-        Path rootPath = Paths.get(HarmarHttpServer.rootDir).toAbsolutePath();
-        File file = new File(HarmarHttpServer.normalizePath(rootPath, path).toUri());
-        if (file.exists()) {
-            exists = true;
+    /**
+     * static file: the status and headers a GET would get (304 and Vary included), all from the cached
+     * metadata. no content is read and no mapping retained
+     */
+    public void handle(CachedFile file, HttpRequest request, HttpResponse response) {
+        // lower case names, same lookups as CachedFile.respond
+        CachedFile variant = file.select(request.headers.get("accept-encoding"));
+        if (variant.isNotModified(request.headers.get("if-none-match"), request.headers.get("if-modified-since"))) {
+            variant.applyNotModifiedTo(response);
         } else {
-            exists = false;
+            variant.applyHeadersTo(response);
         }
+    }
 
-        if (exists) {
-            result.add(HarmarHttpServer.determineContentType(HarmarHttpServer.normalizePath(rootPath, path)));
-            result.add(String.valueOf(file.length()));
-            return result;
-        } else {
-            return result;
+    /**
+     * a GET response (route or canned) turned into the HEAD one: headers, Content-Length included, stay
+     * as they are, the body is given back before any of it is written
+     */
+    public void stripBody(HttpResponse response) {
+        ResponseBody body = response.getBody();
+        if (body != null) {
+            body.release();
+            response.setBody(null);
         }
+        // the pre-encoded bytes carry the body too
+        response.setCanned(null);
     }
 }
@@ -12,5 +12,10 @@ public class  HttpRequest {
     public Protocol protocol;
     public Map<String, String> headers = new LinkedHashMap<>();
     public boolean hasBody;
-    byte[] body;
+    public boolean keepAlive = true;
+    // -1 when unknown (chunked)
+    public long contentLength = -1;
+    public boolean chunked;
+    // null when the request has no body
+    public RequestBody body;
 }
\ No newline at end of file
@@ -1,21 +1,33 @@
 package org.example;
 
+import org.example.protocol.HttpDate;
+import org.example.protocol.ResponseHeaderEncoder;
+
+import java.nio.ByteBuffer;
 import java.util.*;
 
 public class HttpResponse {
+    static final String SERVER = "HarmarHttpServer";
 
     private HttpVersion httpVersion = HttpVersion.HTTP_1_1;
     private HttpStatus status;
-    private final Map<String, String> headers = new HashMap<>();
+    private final Map<String, String> headers = new LinkedHashMap<>();
     private ResponseBody body;
+    // set when the whole response is a pre-encoded CannedResponse
+    private CannedResponse canned;
+    // every header of the map but Date, already encoded; dropped as soon as another header is set
+    private byte[] encodedHeaders;
 
     public void setHeader(String key, String value) {
         headers.put(key, value);
+        if (encodedHeaders != null && !"Date".equals(key)) {
+            encodedHeaders = null;
+        }
     }
 
     public void setDefaultHeaders() {
-        setHeader("Server", "HarmarHttpServer");
-        setHeader("Date", new Date().toString());
+        setHeader("Server", SERVER);
+        setHeader("Date", HttpDate.now());
     }
 
     public void setBody(ResponseBody body) {
@@ -34,6 +46,26 @@ public class HttpResponse {
 
     }
 
+    public void setCanned(CannedResponse canned) {
+        this.canned = canned;
+    }
+
+    public CannedResponse getCanned() {
+        return canned;
+    }
+
+    /**
+     * header lines ("Name: value\r\n") equal to the map without Date, encoded ahead of time (cached
+     * static files). the HTTP/1 encoder copies them instead of the map entries; set after the map is complete
+     */
+    public void setEncodedHeaders(byte[] encodedHeaders) {
+        this.encodedHeaders = encodedHeaders;
+    }
+
+    public byte[] getEncodedHeaders() {
+        return encodedHeaders;
+    }
+
     public ResponseBody getBody() {
         return body;
     }
@@ -50,17 +82,29 @@ public class HttpResponse {
         return headers;
     }
 
-    public byte[] toBytes() {
-        StringBuilder sb = new StringBuilder();
-        sb.append(httpVersion.toString()).append(" ").append(status.toString()).append("\r\n");
-        for (Map.Entry<String, String> entry : headers.entrySet()) {
-            sb.append(entry.getKey()).append(": ").append(entry.getValue()).append("\r\n");
+    /**
+     * declared Content-Length, -1 if absent (chunked) or not a number
+     */
+    public long getContentLength() {
+        String value = headers.get("Content-Length");
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
         }
+    }
 
-        sb.append("\r\n");
+    public byte[] toBytes() {
+        ByteBuffer head = ResponseHeaderEncoder.encode(this);
         byte[] bodyBytes = body != null ? body.toBytes() : new byte[0];
-        sb.append(new String(bodyBytes));
-        return sb.toString().getBytes();
+
+        byte[] bytes = new byte[head.remaining() + bodyBytes.length];
+        head.get(bytes, 0, head.remaining());
+        System.arraycopy(bodyBytes, 0, bytes, bytes.length - bodyBytes.length, bodyBytes.length);
+        return bytes;
     }
 
 }
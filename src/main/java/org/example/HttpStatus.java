@@ -4,6 +4,7 @@ public enum HttpStatus {
     OK(200, "OK"),
     CREATED(201, "Created"),
     NO_CONTENT(204, "No Content"),
+    PARTIAL_CONTENT(206, "Partial Content"),
     MOVED_PERMANENTLY(301, "Moved Permanently"),
     FOUND(302, "Found"),
     NOT_MODIFIED(304, "Not Modified"),
@@ -14,7 +15,9 @@ public enum HttpStatus {
     METHOD_NOT_ALLOWED(405, "Method Not Allowed"),
     PAYLOAD_TOO_LARGE(413, "Payload Too Large"),
     MEDIA_TYPE_NOT_SUPPORTED(415, "Media Type Not Supported"),
+    RANGE_NOT_SATISFIABLE(416, "Range Not Satisfiable"),
     TOO_MANY_REQUESTS(429, "Too Many Requests"),
+    REQUEST_HEADER_FIELDS_TOO_LARGE(431, "Request Header Fields Too Large"),
     INTERNAL_SERVER_ERROR(500, "Internal Server Error"),
     NOT_IMPLEMENTED(501, "Not Implemented"),
     SERVICE_UNAVAILABLE(503, "Service Unavailable");
@@ -44,27 +44,14 @@ public class Main {
                 responseHeaders.put(":status", "200");
                 responseHeaders.put("server", "mini-http2");
 
-                byte[] headersPayload = new HpackEncoder(hpackDynamicTable).encode(responseHeaders);
-
-                Frame headersFrame = new Frame(new FrameHeader(
-                        headersPayload.length, FrameType.HEADERS, EnumSet.of(FrameFlag.END_HEADERS), streamId
-                ), headersPayload);
-
                 Frame dataFrame = new Frame(new FrameHeader(
                         "Hello, World!".getBytes(StandardCharsets.UTF_8).length, FrameType.DATA, EnumSet.of(FrameFlag.END_STREAM), streamId
                 ), "Hello, World!".getBytes(StandardCharsets.UTF_8));
 
-                stream.queueResponse(headersFrame);
+                stream.queueHeaders(responseHeaders, false);
                 stream.queueResponse(dataFrame);
             });
 
-            harmarHttpServer.registerHttp2StaticFile("/nijika.jpg");
-            harmarHttpServer.registerHttp2StaticFile("/test_pic1.jpg");
-            harmarHttpServer.registerHttp2StaticFile("/test_pic2.jpg");
-            harmarHttpServer.registerHttp2StaticFile("/test_pic3.jpg");
-            harmarHttpServer.registerHttp2StaticFile("/test_pic4.jpg");
-            harmarHttpServer.registerHttp2StaticFile("/big_file.zip");
-
             ResponseBody chunkedBody = new ResponseBody();
             // 创建定时任务
             TimerTask task = new TimerTask() {
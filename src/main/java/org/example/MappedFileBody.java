@@ -0,0 +1,52 @@
+package org.example;
+
+import org.example.cache.MappedFile;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Response body that is a read-only view of a {@link MappedFile}: written straight from the page cache, no copy on
+ * the heap. Holds a reference to the mapping until the response is done with.
+ */
+public class MappedFileBody extends ResponseBody {
+    private final MappedFile mapping;
+    private final ByteBuffer[] parts;
+    private boolean released;
+
+    /**
+     * the whole file. takes over a reference the caller already retained
+     */
+    public MappedFileBody(MappedFile mapping) {
+        this(mapping, mapping.slice());
+    }
+
+    /**
+     * slices of the mapping, for ranges, possibly with other buffers between them (multipart headers)
+     */
+    public MappedFileBody(MappedFile mapping, ByteBuffer... parts) {
+        this.mapping = mapping;
+        this.parts = parts;
+        for (ByteBuffer part : parts) {
+            addChunk(part);
+        }
+        end();
+    }
+
+    @Override
+    public void release() {
+        synchronized (this) {
+            if (released) {
+                return;
+            }
+            released = true;
+        }
+        for (ByteBuffer part : parts) {
+            if (part.hasRemaining()) {
+                // not fully written, a write may still be reading it when the connection was closed under it;
+                // keep the reference, the GC unmaps once nothing points at the buffer anymore
+                return;
+            }
+        }
+        mapping.release();
+    }
+}
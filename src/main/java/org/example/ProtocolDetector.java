@@ -11,20 +11,24 @@ public class ProtocolDetector {
             '\r','\n'
     };
 
+    /**
+     * @return null while what arrived is still a prefix of the preface; otherwise the protocol,
+     * the preface is consumed for HTTP/2 and nothing is consumed for HTTP/1
+     */
     public static Protocol detect(ByteBuffer buf) {
-        if (buf.remaining() < HTTP2_PREFACE.length) {
-            return null; // 数据不够，继续读
-        }
-
-        buf.mark();
-
-        for (byte b : HTTP2_PREFACE) {
-            if (buf.get() != b) {
-                buf.reset();
+        int n = Math.min(buf.remaining(), HTTP2_PREFACE.length);
+        int pos = buf.position();
+        for (int i = 0; i < n; i++) {
+            if (buf.get(pos + i) != HTTP2_PREFACE[i]) {
+                // a short HTTP/1 request ("GET / HTTP/1.0" + CRLF CRLF is 18 bytes) must not wait for more
                 return Protocol.HTTP1_1;
             }
         }
+        if (n < HTTP2_PREFACE.length) {
+            return null; // 数据不够，继续读
+        }
 
+        buf.position(pos + HTTP2_PREFACE.length);
         return Protocol.HTTP2_PLAINTEXT;
     }
 }
@@ -0,0 +1,304 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+
+/**
+ * Request body filled by the connection while it is being read.
+ *
+ * Two ways to consume it:
+ *  - aggregate: wait for {@link #onComplete(Runnable)}, then use {@link #getInputStream()},
+ *    {@link #toBytes()} or {@link #getFile()}. Bytes stay in memory up to the spill threshold,
+ *    above that everything goes to a temp file.
+ *  - stream: call {@link #getInputStream()} before the body is complete. Nothing is spilled,
+ *    instead the connection stops reading while too many bytes are waiting for the reader.
+ */
+public class RequestBody {
+    public static final int DEFAULT_SPILL_THRESHOLD = 1024 * 1024;
+
+    // streaming reader window
+    private static final int HIGH_WATERMARK = 256 * 1024;
+    private static final int LOW_WATERMARK = 64 * 1024;
+
+    private final int spillThreshold;
+    private final ArrayDeque<byte[]> chunks = new ArrayDeque<>();
+    private long buffered;
+    private long received;
+
+    private Path spillFile;
+    private FileChannel spillChannel;
+
+    private boolean streaming;
+    private boolean streamOpened;
+    private boolean end;
+    private boolean discard;
+    private IOException failure;
+
+    private Runnable onComplete;
+    private Runnable resumeReads;
+
+    public RequestBody() {
+        this(DEFAULT_SPILL_THRESHOLD);
+    }
+
+    public RequestBody(int spillThreshold) {
+        this.spillThreshold = spillThreshold;
+    }
+
+    /* ===================== connection side ===================== */
+
+    /**
+     * copy decoded body bytes out of the read buffer
+     */
+    public void append(ByteBuffer data) throws IOException {
+        synchronized (this) {
+            if (discard) {
+                data.position(data.limit());
+                return;
+            }
+            received += data.remaining();
+
+            if (spillChannel != null) {
+                while (data.hasRemaining()) {
+                    spillChannel.write(data);
+                }
+                notifyAll();
+                return;
+            }
+
+            byte[] chunk = new byte[data.remaining()];
+            data.get(chunk);
+            chunks.add(chunk);
+            buffered += chunk.length;
+
+            if (!streaming && buffered > spillThreshold) {
+                spill();
+            }
+            notifyAll();
+        }
+    }
+
+    public void end() {
+        Runnable callback;
+        synchronized (this) {
+            end = true;
+            callback = onComplete;
+            onComplete = null;
+            notifyAll();
+        }
+        if (callback != null) {
+            callback.run();
+        }
+    }
+
+    public synchronized void fail(IOException e) {
+        failure = e;
+        end = true;
+        notifyAll();
+    }
+
+    /**
+     * called before the next socket read, returns true if the reader is too slow.
+     * in that case resume runs once it has drained the window.
+     */
+    public synchronized boolean pauseIfSlow(Runnable resume) {
+        if (!streaming || discard || buffered < HIGH_WATERMARK) {
+            return false;
+        }
+        resumeReads = resume;
+        return true;
+    }
+
+    /**
+     * the response is done, remaining bytes are read off the socket and dropped
+     */
+    public void discard() {
+        Runnable resume;
+        synchronized (this) {
+            discard = true;
+            chunks.clear();
+            buffered = 0;
+            resume = resumeReads;
+            resumeReads = null;
+            notifyAll();
+        }
+        if (resume != null) {
+            resume.run();
+        }
+    }
+
+    /**
+     * drop the temp file, if any
+     */
+    public synchronized void release() {
+        chunks.clear();
+        buffered = 0;
+        if (spillChannel != null) {
+            try {
+                spillChannel.close();
+                Files.deleteIfExists(spillFile);
+            } catch (IOException ignored) {
+            }
+            spillChannel = null;
+        }
+    }
+
+    private void spill() throws IOException {
+        spillFile = Files.createTempFile("harmar-body-", ".tmp");
+        spillChannel = FileChannel.open(spillFile,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+        for (byte[] chunk : chunks) {
+            ByteBuffer buf = ByteBuffer.wrap(chunk);
+            while (buf.hasRemaining()) {
+                spillChannel.write(buf);
+            }
+        }
+        chunks.clear();
+        buffered = 0;
+    }
+
+    /* ===================== handler side ===================== */
+
+    /**
+     * runs when the last byte has arrived (immediately if it already has)
+     */
+    public void onComplete(Runnable callback) {
+        synchronized (this) {
+            if (!end) {
+                onComplete = callback;
+                return;
+            }
+        }
+        callback.run();
+    }
+
+    public synchronized boolean isComplete() {
+        return end;
+    }
+
+    public synchronized long size() {
+        return received;
+    }
+
+    public synchronized boolean isSpilled() {
+        return spillChannel != null;
+    }
+
+    /**
+     * temp file holding the body, null while it fits in memory
+     */
+    public synchronized Path getFile() {
+        return spillFile;
+    }
+
+    /**
+     * whole body in memory, only for a completed body that fits in an array
+     */
+    public synchronized byte[] toBytes() throws IOException {
+        if (!end) throw new IllegalStateException("Request body not complete");
+        if (failure != null) throw failure;
+        if (streamOpened) throw new IllegalStateException("Request body already consumed as stream");
+        if (received > Integer.MAX_VALUE - 8) throw new IOException("Request body too large for byte[]");
+
+        byte[] bytes = new byte[(int) received];
+        if (spillChannel != null) {
+            ByteBuffer dst = ByteBuffer.wrap(bytes);
+            long pos = 0;
+            while (dst.hasRemaining()) {
+                int n = spillChannel.read(dst, pos);
+                if (n < 0) break;
+                pos += n;
+            }
+        } else {
+            int offset = 0;
+            for (byte[] chunk : chunks) {
+                System.arraycopy(chunk, 0, bytes, offset, chunk.length);
+                offset += chunk.length;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * blocking stream over the body. opening it before completion switches to streaming mode,
+     * so only call read() off the I/O threads.
+     */
+    public synchronized InputStream getInputStream() {
+        if (streamOpened) throw new IllegalStateException("Request body stream already opened");
+        streamOpened = true;
+        if (!end && spillChannel == null) {
+            streaming = true;
+        }
+        return new BodyInputStream();
+    }
+
+    private class BodyInputStream extends InputStream {
+        private long filePos;
+        private byte[] current;
+        private int currentPos;
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int n = read(one, 0, 1);
+            return n < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+
+            Runnable resume = null;
+            int n;
+            synchronized (RequestBody.this) {
+                while (true) {
+                    if (failure != null) throw failure;
+
+                    if (current != null && currentPos < current.length) {
+                        n = Math.min(len, current.length - currentPos);
+                        System.arraycopy(current, currentPos, b, off, n);
+                        currentPos += n;
+                        break;
+                    }
+
+                    if (spillChannel != null) {
+                        if (filePos < received) {
+                            ByteBuffer dst = ByteBuffer.wrap(b, off, (int) Math.min(len, received - filePos));
+                            n = spillChannel.read(dst, filePos);
+                            filePos += n;
+                            break;
+                        }
+                    } else if (!chunks.isEmpty()) {
+                        current = chunks.poll();
+                        currentPos = 0;
+                        buffered -= current.length;
+                        if (resumeReads != null && buffered <= LOW_WATERMARK) {
+                            resume = resumeReads;
+                            resumeReads = null;
+                        }
+                        continue;
+                    }
+
+                    if (end || discard) return -1;
+
+                    try {
+                        RequestBody.this.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while waiting for request body", e);
+                    }
+                }
+            }
+            if (resume != null) {
+                resume.run();
+            }
+            return n;
+        }
+    }
+}
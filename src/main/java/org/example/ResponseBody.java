@@ -7,12 +7,15 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 public class ResponseBody {
+    private static final ByteBuffer CRLF = ByteBuffer.wrap("\r\n".getBytes(UTF_8)).asReadOnlyBuffer();
     private final ConcurrentLinkedQueue<ByteBuffer> chunks = new ConcurrentLinkedQueue<>();
     private boolean ChunkedTransfer = false;
     private volatile boolean end = false;
     private volatile AtomicBoolean writing = new AtomicBoolean(false);
 
     private Runnable onDataAvailable;
+    // set when the producer gave up (a file read failed), the response can't be completed
+    private volatile Throwable failure;
 
     // only in no chunk transfer
     private boolean isBigFile = false;
@@ -22,10 +25,11 @@ public class ResponseBody {
     }
 
     public void end() {
+        // terminator goes in before end is visible, the writer drains everything once it sees end
+        if (ChunkedTransfer) {
+            chunks.add(ByteBuffer.wrap("0\r\n\r\n".getBytes(UTF_8)));
+        }
         end = true;
-       if (ChunkedTransfer) {
-           chunks.add(ByteBuffer.wrap("0\r\n\r\n".getBytes(UTF_8)));
-       }
         if (onDataAvailable != null) {
             onDataAvailable.run();
         }
@@ -41,20 +45,12 @@ public class ResponseBody {
         }
 
         if (ChunkedTransfer) {
-            // 计算十六进制长度
-            String hexLength = Integer.toHexString(data.length);
-            String chunkHeader = hexLength + "\r\n";
-
-            // 构建完整的chunk: header + data + \r\n
-            byte[] headerBytes = chunkHeader.getBytes(UTF_8);
-            byte[] trailerBytes = "\r\n".getBytes(UTF_8); // 每个chunk末尾也要有\r\n
-
-            byte[] combined = new byte[headerBytes.length + data.length + trailerBytes.length];
-            System.arraycopy(headerBytes, 0, combined, 0, headerBytes.length);
-            System.arraycopy(data, 0, combined, headerBytes.length, data.length);
-            System.arraycopy(trailerBytes, 0, combined, headerBytes.length + data.length, trailerBytes.length);
-
-            chunks.add(ByteBuffer.wrap(combined));
+            // chunk: hex length + \r\n, data, \r\n as separate buffers, the writer gathers them
+            // into one write so the data is never copied
+            String chunkHeader = Integer.toHexString(data.length) + "\r\n";
+            chunks.add(ByteBuffer.wrap(chunkHeader.getBytes(UTF_8)));
+            chunks.add(ByteBuffer.wrap(data));
+            chunks.add(CRLF.duplicate());
         }
         else {
             chunks.add(ByteBuffer.wrap(data));
@@ -64,15 +60,115 @@ public class ResponseBody {
         }
     }
 
+    /**
+     * a chunk as is, no copy; the writer advances its position. only for bodies without chunked transfer
+     */
+    public void addChunk(ByteBuffer data) {
+        chunks.add(data);
+        if (onDataAvailable != null) {
+            onDataAvailable.run();
+        }
+    }
+
+    /**
+     * several chunks that have to stay in this order, queued before the writer is told about any of them
+     */
+    public void addChunks(ByteBuffer... data) {
+        for (ByteBuffer chunk : data) {
+            chunks.add(chunk);
+        }
+        if (onDataAvailable != null) {
+            onDataAvailable.run();
+        }
+    }
+
+    /**
+     * the rest of the body can't be produced, the writer closes the connection
+     */
+    public void fail(Throwable cause) {
+        failure = cause;
+        if (onDataAvailable != null) {
+            onDataAvailable.run();
+        }
+    }
+
+    public Throwable getFailure() {
+        return failure;
+    }
 
-    ByteBuffer poll() {
+    /**
+     * the response is done with (written or its connection closed), producers free what they hold
+     */
+    public void release() {
+    }
+
+    /**
+     * the chunk at the head once the writer is done with it (no bytes left)
+     */
+    public ByteBuffer poll() {
         return chunks.poll();
     }
 
-    boolean isEnd() {
+    /**
+     * the next chunk to write, null if none is ready. the writer moves its position as bytes go out and
+     * polls it when it is empty
+     */
+    public ByteBuffer peek() {
+        return chunks.peek();
+    }
+
+    public boolean isEnd() {
         return end;
     }
 
+    /**
+     * copy what is ready into dst, for writers that frame the bytes themselves (HTTP/2 DATA); the chunks are
+     * used up as by a socket write. the bytes copied, 0 if none are ready yet, -1 once the body is all read
+     */
+    public int read(ByteBuffer dst) {
+        // before the chunks: whatever was added ahead of end() is seen below
+        boolean ended = end;
+        int copied = 0;
+        ByteBuffer chunk;
+        while ((chunk = peek()) != null) {
+            // empty chunks go even when dst is full, an empty read still sees the end
+            if (chunk.hasRemaining()) {
+                if (!dst.hasRemaining()) {
+                    break;
+                }
+                int n = Math.min(dst.remaining(), chunk.remaining());
+                dst.put(dst.position(), chunk, chunk.position(), n);
+                dst.position(dst.position() + n);
+                chunk.position(chunk.position() + n);
+                copied += n;
+            }
+            if (!chunk.hasRemaining()) {
+                poll();
+            }
+        }
+        if (copied == 0 && ended && peek() == null) {
+            return -1;
+        }
+        return copied;
+    }
+
+    /**
+     * bytes ready for {@link #read}, counted up to max; asks for more as peek does when none are
+     */
+    public int available(int max) {
+        if (peek() == null) {
+            return 0;
+        }
+        int ready = 0;
+        for (ByteBuffer chunk : chunks) {
+            ready += Math.min(chunk.remaining(), max - ready);
+            if (ready == max) {
+                break;
+            }
+        }
+        return ready;
+    }
+
     public byte[] toBytes() {
         byte[] bytes = new byte[0];
         for (ByteBuffer chunk : chunks) {
@@ -7,6 +7,9 @@ import org.example.http2.Http2Stream;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -21,11 +24,29 @@ public class Router {
     private final Map<String, Map<String, Http2RouteHandler>> http2Routes = new HashMap<>();
     private final List<RouterEntry<Http2RouteHandler>> http2Entries = new ArrayList<>();
 
+    // handlers registered as blocking run on a virtual thread instead of the I/O thread
+    // "HTTP1 GET /path" / "HTTP2 GET /path"
+    private final Set<String> blockingRoutes = ConcurrentHashMap.newKeySet();
+    private final ExecutorService blockingExecutor =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("harmar-handler-", 0).factory());
+
     // -------------------- 接口 --------------------
     public interface Http1RouteHandler {
         void handle(HttpRequest request, HttpResponse response, Map<String,String> pathParams) throws IOException;
     }
 
+    /**
+     * called as soon as the request headers are in, the body keeps streaming into
+     * request.body while the handler runs (read it via getInputStream off the I/O thread).
+     * plain Http1RouteHandler only runs once the whole body has been received.
+     */
+    public interface StreamingHttp1RouteHandler extends Http1RouteHandler {
+    }
+
+    /**
+     * hpackDynamicTable is the connection's table for what we send; stream.queueHeaders encodes with it and
+     * queues the HEADERS frame in one step, which keeps the header blocks in table order
+     */
     public interface Http2RouteHandler {
         void handle(HttpRequest request, Http2Stream stream, Map<String,String> pathParams,
                     HpackDynamicTable hpackDynamicTable, int streamId) throws IOException;
@@ -67,6 +88,15 @@ public class Router {
         http1Entries.sort(Comparator.comparingInt(e -> e.priority));
     }
 
+    /**
+     * for handlers that block (JDBC, file I/O, remote calls...), they run on a virtual thread
+     * and the transport writes the response once they return
+     */
+    public void registerBlockingHttp1(String method, String pathPattern, Http1RouteHandler handler) {
+        blockingRoutes.add("HTTP1 " + method.toUpperCase() + " " + pathPattern);
+        registerHttp1(method, pathPattern, handler);
+    }
+
     public void get(String pathPattern, Http1RouteHandler handler) {
         registerHttp1("GET", pathPattern, handler);
     }
@@ -96,14 +126,39 @@ public class Router {
         http2Entries.sort(Comparator.comparingInt(e -> e.priority));
     }
 
+    public void registerBlockingHttp2(String method, String pathPattern, Http2RouteHandler handler) {
+        blockingRoutes.add("HTTP2 " + method.toUpperCase() + " " + pathPattern);
+        registerHttp2(method, pathPattern, handler);
+    }
+
+    public ExecutorService getBlockingExecutor() {
+        return blockingExecutor;
+    }
+
+    public void shutdown() {
+        blockingExecutor.shutdown();
+    }
+
     // -------------------- 匹配 HTTP/1 --------------------
+    /**
+     * HEAD falls back to the GET route of the path, the caller drops the body
+     */
     public RouteMatchHttp1 findMatchHttp1(String method, String path) {
         method = method.toUpperCase();
+        RouteMatchHttp1 match = findHttp1(method, path);
+        if (match == null && "HEAD".equals(method)) {
+            match = findHttp1("GET", path);
+        }
+        return match;
+    }
+
+    private RouteMatchHttp1 findHttp1(String method, String path) {
         Map<String, Http1RouteHandler> methodRoutes = http1Routes.get(method);
         if (methodRoutes == null) return null;
 
         if (methodRoutes.containsKey(path)) {
-            return new RouteMatchHttp1(methodRoutes.get(path), Collections.emptyMap());
+            return new RouteMatchHttp1(methodRoutes.get(path), Collections.emptyMap(),
+                    blockingRoutes.contains("HTTP1 " + method + " " + path));
         }
 
         for (RouterEntry<Http1RouteHandler> entry : http1Entries) {
@@ -119,7 +174,8 @@ public class Router {
                             params.put(name, matcher.group(name));
                         }
                     } catch (IllegalArgumentException ignored) {}
-                    return new RouteMatchHttp1(entry.handler, params);
+                    return new RouteMatchHttp1(entry.handler, params,
+                            blockingRoutes.contains("HTTP1 " + method + " " + entry.pathPattern));
                 }
             }
         }
@@ -133,7 +189,8 @@ public class Router {
         if (methodRoutes == null) return null;
 
         if (methodRoutes.containsKey(path)) {
-            return new RouteMatchHttp2(methodRoutes.get(path), Collections.emptyMap());
+            return new RouteMatchHttp2(methodRoutes.get(path), Collections.emptyMap(),
+                    blockingRoutes.contains("HTTP2 " + method + " " + path));
         }
 
         for (RouterEntry<Http2RouteHandler> entry : http2Entries) {
@@ -149,7 +206,8 @@ public class Router {
                             params.put(name, matcher.group(name));
                         }
                     } catch (IllegalArgumentException ignored) {}
-                    return new RouteMatchHttp2(entry.handler, params);
+                    return new RouteMatchHttp2(entry.handler, params,
+                            blockingRoutes.contains("HTTP2 " + method + " " + entry.pathPattern));
                 }
             }
         }
@@ -160,20 +218,32 @@ public class Router {
     public static class RouteMatchHttp1 {
         public final Http1RouteHandler handler;
         public final Map<String, String> pathParams;
+        public final boolean blocking;
 
         public RouteMatchHttp1(Http1RouteHandler handler, Map<String, String> pathParams) {
+            this(handler, pathParams, false);
+        }
+
+        public RouteMatchHttp1(Http1RouteHandler handler, Map<String, String> pathParams, boolean blocking) {
             this.handler = handler;
             this.pathParams = pathParams;
+            this.blocking = blocking;
         }
     }
 
     public static class RouteMatchHttp2 {
         public final Http2RouteHandler handler;
         public final Map<String, String> pathParams;
+        public final boolean blocking;
 
         public RouteMatchHttp2(Http2RouteHandler handler, Map<String, String> pathParams) {
+            this(handler, pathParams, false);
+        }
+
+        public RouteMatchHttp2(Http2RouteHandler handler, Map<String, String> pathParams, boolean blocking) {
             this.handler = handler;
             this.pathParams = pathParams;
+            this.blocking = blocking;
         }
     }
 }
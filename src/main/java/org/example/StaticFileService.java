@@ -0,0 +1,103 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * The doc root, whatever the protocol: GET and HEAD of a path answered from the shared {@link FileCacheManager}
+ * and its manifest, with compressed variants, conditional requests and ranges, 403 outside the root and 404.
+ *
+ * It only fills in an {@link HttpResponse}; each transport writes the body its own way (gathering writes on
+ * HTTP/1, ByteBuf slices on TLS, flow-controlled DATA frames on h2).
+ */
+public class StaticFileService {
+    private final Path root;
+    // null: every request reads the file
+    private final FileCacheManager fileCache;
+    private final HeadRequestHandler headRequestHandler = new HeadRequestHandler();
+
+    public StaticFileService(Path root, FileCacheManager fileCache) {
+        this.root = root.toAbsolutePath();
+        this.fileCache = fileCache;
+    }
+
+    /**
+     * GET or HEAD of request.path; false for other methods, the caller answers those. a HEAD response has
+     * no body
+     */
+    public boolean serve(HttpRequest request, HttpResponse response) throws IOException {
+        boolean head = "HEAD".equalsIgnoreCase(request.method);
+        if (!head && !"GET".equalsIgnoreCase(request.method)) {
+            return false;
+        }
+        String path = request.path;
+        if ("/".equals(path)) {
+            path = "/index.html";
+        }
+        serveFile(response, path, request, head);
+        if (head) {
+            headRequestHandler.stripBody(response);
+        }
+        return true;
+    }
+
+    /**
+     * the file at path, in the encoding the request accepts, 304 if its conditional headers still match.
+     * HEAD gets the same headers without touching the content, nor the cache when the manifest has them
+     */
+    private void serveFile(HttpResponse response, String path, HttpRequest request, boolean head) throws IOException {
+        StaticManifest manifest = fileCache != null ? fileCache.manifest() : null;
+        // one hash probe for a file the manifest knows, it is under the root by construction
+        StaticManifest.Entry entry = manifest != null ? manifest.get(path) : null;
+        Path requestPath;
+        if (entry != null) {
+            requestPath = entry.path();
+        } else if (manifest != null && manifest.isRecentMiss(path)) {
+            // asked for before and not there, pre-encoded 404 without any path work
+            CannedResponse.NOT_FOUND.applyTo(response);
+            return;
+        } else {
+            requestPath = HarmarHttpServer.normalizePath(root, path);
+
+            // security auth
+            if (!requestPath.startsWith(root)) {
+                CannedResponse.FORBIDDEN.applyTo(response);
+                return;
+            }
+            if (manifest != null && manifest.get(requestPath) == null && manifest.covers(requestPath)) {
+                // the doc root has no such file, no need to ask the filesystem
+                manifest.recordMiss(path);
+                CannedResponse.NOT_FOUND.applyTo(response);
+                return;
+            }
+        }
+
+        // a file that is only ever sent as it is: every header comes from the manifest
+        CachedFile described = entry != null && !entry.isNegotiable() ? entry.describe() : null;
+        if (described != null) {
+            if (head) {
+                headRequestHandler.handle(described, request, response);
+                return;
+            }
+            if (described.isNotModified(request.headers.get("if-none-match"), request.headers.get("if-modified-since"))) {
+                described.applyNotModifiedTo(response);
+                return;
+            }
+        }
+
+        // one stat and read on a miss, none on a hit
+        CachedFile file = fileCache != null ? fileCache.get(requestPath) : CachedFile.load(requestPath, CachedFile.DEFAULT_MAX_CONTENT);
+        if (file == null) {
+            CannedResponse.NOT_FOUND.applyTo(response);
+        } else if (head) {
+            headRequestHandler.handle(file, request, response);
+        } else if (described != null && request.headers.get("range") == null
+                && file.etag.equals(described.etag) && !file.isNegotiated()) {
+            // the cache only for the bytes, as long as it has the version the manifest describes
+            described.applyHeadersTo(response);
+            file.applyBodyTo(response);
+        } else {
+            file.respond(request, response);
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package org.example;
+
+import org.example.log.Logger;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+/**
+ * Every regular file under the doc root by URL path ("/css/site.css"), with what a response needs to know about
+ * it worked out once: the resolved path, content type, length, mtime and ETag. For a file that has no compressed
+ * variants that is every header, so its HEAD and 304 responses need neither the cache nor the filesystem.
+ *
+ * Built by a fork/join walk, one task per directory, and never changed afterwards: a change under the root makes
+ * a new manifest (see {@link #updated}) that the owner swaps in, so a lookup is one probe of an immutable hash
+ * map with no locking and no filesystem call.
+ *
+ * It is also the negative lookup: a path under the root that is not in it does not exist (as of the last watch
+ * event), unless it is below a directory the walk could not look into, a link to a directory or an unreadable
+ * one. Request paths found missing are remembered as sent, up to {@link #MAX_MISSES}, so a scanner repeating
+ * them costs not even the normalizing. A new manifest starts without them, any change forgets them all.
+ */
+public final class StaticManifest {
+    private static final Logger log = Logger.get(StaticManifest.class);
+    // when full the set starts over, a bot sending endless distinct paths can't grow it
+    static final int MAX_MISSES = 4096;
+
+    public static final class Entry {
+        private final Path path;
+        private final String contentType;
+        private final long length;
+        private final long lastModified;
+        private final String etag;
+        // a compressible type or a .br/.gz sibling: the response depends on Accept-Encoding
+        private final boolean negotiable;
+        // headers worked out on the first request for the file
+        private volatile CachedFile described;
+
+        Entry(Path path, String contentType, long length, long lastModified, String etag, boolean negotiable) {
+            this.path = path;
+            this.contentType = contentType;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.etag = etag;
+            this.negotiable = negotiable;
+        }
+
+        public Path path() {
+            return path;
+        }
+
+        public String contentType() {
+            return contentType;
+        }
+
+        public long length() {
+            return length;
+        }
+
+        public long lastModified() {
+            return lastModified;
+        }
+
+        public String etag() {
+            return etag;
+        }
+
+        /**
+         * false if only the file as it is can be sent, then {@link #describe} has every header of its responses
+         */
+        public boolean isNegotiable() {
+            return negotiable;
+        }
+
+        /**
+         * the file's 200, 304 and HEAD headers, pre-encoded, without its content
+         */
+        public CachedFile describe() {
+            CachedFile file = described;
+            if (file == null) {
+                // a race builds it twice, the same either way
+                file = CachedFile.describe(path, contentType, length, lastModified, etag);
+                described = file;
+            }
+            return file;
+        }
+
+        Entry withNegotiable(boolean negotiable) {
+            return new Entry(path, contentType, length, lastModified, etag, negotiable);
+        }
+    }
+
+    private final Path root;
+    private final Map<String, Entry> entries;
+    // directories whose contents the manifest doesn't know, requests below them go to the filesystem
+    private final Set<Path> opaque;
+    // request paths as sent that are known not to exist
+    private final Set<String> misses = ConcurrentHashMap.newKeySet();
+
+    private StaticManifest(Path root, Map<String, Entry> entries, Set<Path> opaque) {
+        this.root = root;
+        // a sibling added or removed changes whether the file is negotiated
+        Map<String, Entry> resolved = new HashMap<>(entries.size() * 4 / 3 + 1);
+        entries.forEach((url, entry) -> {
+            boolean negotiable = CachedFile.isCompressible(entry.contentType)
+                    || entries.containsKey(url + ".br") || entries.containsKey(url + ".gz");
+            resolved.put(url, entry.negotiable == negotiable ? entry : entry.withNegotiable(negotiable));
+        });
+        this.entries = Map.copyOf(resolved);
+        this.opaque = Set.copyOf(opaque);
+    }
+
+    /**
+     * walk root (absolute, normalized) in parallel. onDirectory sees every directory before its contents are
+     * listed, so a watch registered there misses nothing the manifest doesn't have
+     */
+    public static StaticManifest build(Path root, Consumer<Path> onDirectory) {
+        Map<String, Entry> entries = new ConcurrentHashMap<>();
+        Set<Path> opaque = ConcurrentHashMap.newKeySet();
+        ForkJoinPool.commonPool().invoke(new Scan(root, root, onDirectory, entries, opaque));
+        return new StaticManifest(root, entries, opaque);
+    }
+
+    /**
+     * the file for a request path as the client sent it, null if the manifest doesn't know it
+     */
+    public Entry get(String urlPath) {
+        return entries.get(urlPath);
+    }
+
+    /**
+     * the file at an absolute, normalized path, for request paths that are not keys as they were sent
+     */
+    public Entry get(Path path) {
+        return path.startsWith(root) ? entries.get(urlPath(root, path)) : null;
+    }
+
+    /**
+     * true if a request path, as it was sent, was found missing since this manifest was made
+     */
+    public boolean isRecentMiss(String urlPath) {
+        return misses.contains(urlPath);
+    }
+
+    /**
+     * true if path (absolute, normalized) can't exist for the manifest not to have it: it is under the root and
+     * not below an opaque directory. no filesystem call
+     */
+    public boolean covers(Path path) {
+        if (!path.startsWith(root)) {
+            return false;
+        }
+        if (!opaque.isEmpty()) {
+            for (Path p = path; p != null && p.startsWith(root); p = p.getParent()) {
+                if (opaque.contains(p)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * urlPath as sent is not a file, see {@link #isRecentMiss}
+     */
+    public void recordMiss(String urlPath) {
+        if (misses.size() >= MAX_MISSES) {
+            misses.clear();
+        }
+        misses.add(urlPath);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public int opaqueDirectories() {
+        return opaque.size();
+    }
+
+    /**
+     * a copy with the given files or directories looked at again: whatever was at or below them is dropped,
+     * what is there now is added. one copy for the whole batch of changes
+     */
+    public StaticManifest updated(Collection<Path> changed, Consumer<Path> onDirectory) {
+        Map<String, Entry> next = new HashMap<>(entries);
+        Set<Path> nextOpaque = ConcurrentHashMap.newKeySet();
+        nextOpaque.addAll(opaque);
+        for (Path path : changed) {
+            if (!path.startsWith(root)) {
+                continue;
+            }
+            next.values().removeIf(entry -> entry.path().startsWith(path));
+            nextOpaque.removeIf(dir -> dir.startsWith(path));
+        }
+        Map<String, Entry> found = new ConcurrentHashMap<>();
+        List<Scan> scans = new ArrayList<>();
+        for (Path path : changed) {
+            if (path.startsWith(root)) {
+                scans.add(new Scan(root, path, onDirectory, found, nextOpaque));
+            }
+        }
+        ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(scans);
+            }
+        });
+        next.putAll(found);
+        return new StaticManifest(root, next, nextOpaque);
+    }
+
+    static String urlPath(Path root, Path file) {
+        StringBuilder url = new StringBuilder();
+        for (Path name : root.relativize(file)) {
+            url.append('/').append(name);
+        }
+        return url.toString();
+    }
+
+    // a file or a directory; directories fork a task per subdirectory and do their files themselves
+    private static final class Scan extends RecursiveAction {
+        private final Path root;
+        private final Path path;
+        private final Consumer<Path> onDirectory;
+        private final Map<String, Entry> entries;
+        private final Set<Path> opaque;
+
+        Scan(Path root, Path path, Consumer<Path> onDirectory, Map<String, Entry> entries, Set<Path> opaque) {
+            this.root = root;
+            this.path = path;
+            this.onDirectory = onDirectory;
+            this.entries = entries;
+            this.opaque = opaque;
+        }
+
+        @Override
+        protected void compute() {
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            } catch (NoSuchFileException e) {
+                return; // gone again
+            } catch (IOException e) {
+                log.warn("Scanning {} failed", path, e);
+                opaque.add(path);
+                return;
+            }
+            if (attrs.isRegularFile()) {
+                add(path, attrs);
+                return;
+            }
+            if (!attrs.isDirectory()) {
+                return;
+            }
+            onDirectory.accept(path);
+            List<Scan> subdirectories = new ArrayList<>();
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(path)) {
+                for (Path child : children) {
+                    try {
+                        // one stat per file; links to directories are not followed, they could loop
+                        BasicFileAttributes childAttrs =
+                                Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                        if (childAttrs.isSymbolicLink()) {
+                            childAttrs = Files.readAttributes(child, BasicFileAttributes.class);
+                            if (childAttrs.isDirectory()) {
+                                opaque.add(child);
+                                continue;
+                            }
+                        } else if (childAttrs.isDirectory()) {
+                            subdirectories.add(new Scan(root, child, onDirectory, entries, opaque));
+                            continue;
+                        }
+                        if (childAttrs.isRegularFile()) {
+                            add(child, childAttrs);
+                        }
+                    } catch (NoSuchFileException ignored) {
+                        // deleted meanwhile, or a dangling link
+                    } catch (IOException e) {
+                        opaque.add(child); // requests for it go to the filesystem
+                    }
+                }
+            } catch (IOException e) {
+                log.warn("Scanning {} failed", path, e);
+                opaque.add(path);
+            }
+            invokeAll(subdirectories);
+        }
+
+        private void add(Path file, BasicFileAttributes attrs) {
+            String contentType = HarmarHttpServer.determineContentType(file);
+            entries.put(urlPath(root, file), new Entry(file, contentType, attrs.size(),
+                    attrs.lastModifiedTime().toMillis(), CachedFile.etag(attrs.size(), attrs.lastModifiedTime(), null),
+                    CachedFile.isCompressible(contentType)));
+        }
+    }
+}
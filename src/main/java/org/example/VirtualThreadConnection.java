@@ -0,0 +1,359 @@
+package org.example;
+
+import org.example.buffer.BufferPool;
+import org.example.buffer.RecvSizePredictor;
+import org.example.connection.VirtualThreadTransport;
+import org.example.log.Logger;
+import org.example.protocol.Http1BodyDecoder;
+import org.example.protocol.Http1RequestParser;
+import org.example.protocol.HttpParseException;
+import org.example.protocol.ResponseHeaderEncoder;
+import org.example.timer.HashedTimingWheel;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * One HTTP/1 connection of the {@link VirtualThreadTransport}, served start to finish by its own virtual thread.
+ *
+ * Same parser, admission, Router dispatch and response encoding as the callback path in ConnectionManager, as
+ * straight-line code: read until a request is parsed, read its body, run the handler right here (blocking handlers
+ * included, the thread is ours), write the response, next request. Pipelined requests are answered one after
+ * another out of the buffer. Timeouts close the socket from the timing wheel, which wakes the blocked read or write.
+ */
+final class VirtualThreadConnection {
+    private static final Logger log = Logger.get(VirtualThreadConnection.class);
+    // how often a thread waiting on a streaming ResponseBody looks whether the socket was closed under it
+    private static final long BODY_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final int TRANSFER_SPILL_SIZE = 8 * 1024;
+
+    private final ConnectionManager manager;
+    private final VirtualThreadTransport transport;
+    private final SocketChannel channel;
+    private final BufferPool pool;
+    private final RecvSizePredictor recvSize = new RecvSizePredictor();
+    private final Http1RequestParser parser = new Http1RequestParser();
+    private final HashedTimingWheel.Deadline deadline;
+    private final ByteBuffer[] batch;
+    private final int maxBatchBytes;
+    private final String clientIp;
+    // read mode between reads, null when nothing is pending
+    private ByteBuffer buffer;
+    private volatile boolean timedOut;
+
+    VirtualThreadConnection(ConnectionManager manager, VirtualThreadTransport transport, SocketChannel channel) {
+        this.manager = manager;
+        this.transport = transport;
+        this.channel = channel;
+        this.pool = manager.bufferPool;
+        this.batch = new ByteBuffer[WriteBatch.DEFAULT_MAX_BUFFERS];
+        this.maxBatchBytes = WriteBatch.DEFAULT_MAX_BYTES;
+        this.clientIp = clientIp(channel);
+        this.deadline = manager.timingWheel.newDeadline(this::onTimeout);
+    }
+
+    // ticker thread
+    private void onTimeout() {
+        if (deadline.isArmed()) {
+            return; // moved after it fired
+        }
+        timedOut = true;
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    void run() throws IOException {
+        if (!manager.openConnection()) {
+            return; // the transport closes it
+        }
+        boolean handedOff = false;
+        try {
+            arm(manager.headerReadTimeout);
+            Protocol protocol = null;
+            while (protocol == null) {
+                if (!fill()) {
+                    return;
+                }
+                protocol = ProtocolDetector.detect(buffer);
+            }
+            if (protocol == Protocol.HTTP2_PLAINTEXT) {
+                log.debug("Detected HTTP/2 connection");
+                deadline.disarm();
+                handedOff = true;
+                manager.startHttp2(transport.adapt(channel), clientIp, buffer);
+                return;
+            }
+            while (serveRequest()) {
+                // keep-alive
+            }
+        } catch (IOException e) {
+            if (!timedOut && channel.isOpen()) {
+                log.debug("Connection from {} failed: {}", clientIp, e.getMessage());
+            }
+        } finally {
+            deadline.disarm();
+            pool.release(buffer);
+            buffer = null;
+            manager.connectionClosed(timedOut);
+            if (!handedOff) {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * one request and its response, false when the connection is done
+     */
+    private boolean serveRequest() throws IOException {
+        if (buffer == null || !buffer.hasRemaining()) {
+            // idle until the next request starts, then it has headerReadTimeout for its header block
+            releaseBuffer();
+            arm(manager.keepAliveTimeout);
+            if (!fill()) {
+                return false;
+            }
+        }
+        arm(manager.headerReadTimeout);
+
+        HttpRequest request;
+        try {
+            while ((request = parser.parse(buffer)) == null) {
+                if (!fill()) {
+                    return false;
+                }
+            }
+        } catch (HttpParseException e) {
+            Exchange exchange = new Exchange(null, false);
+            exchange.response = ConnectionManager.errorResponse(HttpVersion.HTTP_1_1, e.getStatus(), e.getMessage());
+            write(exchange);
+            return false;
+        }
+
+        Exchange exchange = new Exchange(request, request.keepAlive);
+        arm(manager.requestTimeout);
+        boolean close = !exchange.keepAlive;
+        HttpResponse rejection = manager.admit(clientIp, exchange);
+        if (rejection != null) {
+            // shed before any handler work, an unread body is not worth draining so the connection is closed
+            close |= request.hasBody;
+            exchange.response = rejection;
+        } else {
+            if (request.hasBody) {
+                readBody(exchange);
+            }
+            exchange.response = manager.handle(exchange);
+        }
+
+        try {
+            // the response has started, from here on only a stalled write times out
+            write(exchange);
+        } finally {
+            manager.completeExchange(clientIp, exchange);
+        }
+        if (close) {
+            channel.shutdownOutput();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * the whole body before the handler runs; streaming handlers then read it from the spooled RequestBody
+     */
+    private void readBody(Exchange exchange) throws IOException {
+        HttpRequest request = exchange.request;
+        RequestBody body = new RequestBody(manager.bodySpillThreshold);
+        request.body = body;
+        Http1BodyDecoder decoder = new Http1BodyDecoder(request.contentLength, request.chunked);
+        try {
+            while (!decoder.decode(buffer, body)) {
+                if (!fill()) {
+                    throw new EOFException("Connection closed before request body was complete");
+                }
+            }
+            body.end();
+        } catch (HttpParseException | IOException e) {
+            body.fail(new IOException(e.getMessage(), e));
+            manager.releasePermit(exchange, false);
+            body.release();
+            throw e instanceof IOException io ? io : new IOException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * read more into the buffer, growing it when one unfinished request fills it (see
+     * ConnectionManager.prepareReadBuffer). false at end of stream
+     */
+    private boolean fill() throws IOException {
+        ByteBuffer buf = buffer;
+        if (buf == null || !buf.hasRemaining()) {
+            pool.release(buf);
+            buf = pool.acquire(recvSize.nextSize());
+        } else if (buf.position() == 0 && buf.limit() == buf.capacity()) {
+            ByteBuffer bigger = pool.acquire(buf.capacity() * 2);
+            bigger.put(buf);
+            pool.release(buf);
+            buf = bigger;
+        } else {
+            buf.compact();
+        }
+        buffer = buf;
+        int space = buf.remaining();
+        int n;
+        try {
+            n = channel.read(buf);
+        } finally {
+            buf.flip();
+        }
+        if (n == -1) {
+            return false;
+        }
+        recvSize.record(n, space);
+        return true;
+    }
+
+    private void releaseBuffer() {
+        pool.release(buffer);
+        buffer = null;
+    }
+
+    private void write(Exchange exchange) throws IOException {
+        HttpResponse response = exchange.response;
+        CannedResponse canned = response.getCanned();
+        if (canned != null) {
+            // head and body pre-encoded, the ResponseBody copy is only for other transports
+            batch[0] = canned.encoded(response.getHttpVersion(), exchange.keepAlive);
+            writeFully(1);
+            return;
+        }
+
+        ByteBuffer head = ResponseHeaderEncoder.encode(response, exchange.keepAlive, pool);
+        try {
+            ResponseBody body = response.getBody();
+            batch[0] = head;
+            if (body == null) {
+                writeFully(1);
+                return;
+            }
+            if (body instanceof FileBody file && file.getRemaining() >= manager.sendfileThreshold && file.startTransfer()) {
+                writeFully(1);
+                transfer(file);
+                return;
+            }
+            Thread self = Thread.currentThread();
+            body.setOnDataAvailable(() -> LockSupport.unpark(self));
+            int count = 1;
+            long bytes = head.remaining();
+            while (true) {
+                // end has to be read before draining, chunks added before end() are then all visible
+                boolean ended = body.isEnd();
+                ByteBuffer chunk;
+                while ((chunk = body.peek()) != null && count < batch.length
+                        && (count == 0 || bytes + chunk.remaining() <= maxBatchBytes)) {
+                    batch[count++] = body.poll();
+                    bytes += chunk.remaining();
+                }
+                if (body.getFailure() != null) {
+                    throw new IOException("Response body failed", body.getFailure());
+                }
+                if (count > 0) {
+                    writeFully(count);
+                    count = 0;
+                    bytes = 0;
+                    continue;
+                }
+                if (ended) {
+                    return;
+                }
+                // the producer unparks us; a timeout closes the socket, which we only notice by looking.
+                // waiting for body data is not the client's fault, the write deadline is off meanwhile
+                deadline.disarm();
+                LockSupport.parkNanos(this, BODY_WAIT_NANOS);
+                if (!channel.isOpen()) {
+                    throw new ClosedChannelException();
+                }
+            }
+        } finally {
+            pool.release(head);
+        }
+    }
+
+    /**
+     * sendfile. the socket under a virtual thread is non-blocking, so transferTo returns 0 instead of parking
+     * once the socket buffer is full; then a small buffered write parks us until the client drains it
+     */
+    private void transfer(FileBody file) throws IOException {
+        FileChannel source = file.getTransferChannel();
+        ByteBuffer spill = null;
+        try {
+            while (file.getRemaining() > 0) {
+                arm(manager.writeTimeout);
+                long n = source.transferTo(file.getPosition(), file.getRemaining(), channel);
+                if (n > 0) {
+                    file.transferred(n);
+                    continue;
+                }
+                if (spill == null) {
+                    spill = pool.acquire(TRANSFER_SPILL_SIZE);
+                }
+                spill.clear();
+                spill.limit((int) Math.min(spill.capacity(), file.getRemaining()));
+                if (source.read(spill, file.getPosition()) <= 0) {
+                    throw new EOFException("File shrank while it was sent");
+                }
+                spill.flip();
+                file.transferred(spill.remaining());
+                while (spill.hasRemaining()) {
+                    channel.write(spill);
+                    arm(manager.writeTimeout);
+                }
+            }
+        } finally {
+            pool.release(spill);
+        }
+    }
+
+    // blocking gathering write of batch[0, count), the slots are cleared afterwards
+    private void writeFully(int count) throws IOException {
+        try {
+            int offset = 0;
+            while (offset < count) {
+                // pushed back on every write that returns, a slow reader is only cut off when it stops
+                arm(manager.writeTimeout);
+                channel.write(batch, offset, count - offset);
+                while (offset < count && !batch[offset].hasRemaining()) {
+                    offset++;
+                }
+            }
+        } finally {
+            for (int i = 0; i < count; i++) {
+                batch[i] = null;
+            }
+        }
+    }
+
+    private void arm(long timeoutMillis) {
+        if (timeoutMillis > 0) {
+            deadline.arm(timeoutMillis);
+        } else {
+            deadline.disarm();
+        }
+    }
+
+    private static String clientIp(SocketChannel channel) {
+        try {
+            return ((InetSocketAddress) channel.getRemoteAddress()).getAddress().getHostAddress();
+        } catch (IOException e) {
+            return "unknown";
+        }
+    }
+}
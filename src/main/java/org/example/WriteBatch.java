@@ -0,0 +1,104 @@
+package org.example;
+
+import org.example.buffer.BufferPool;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Buffers for one gathering write, reused for the life of a connection.
+ * Collecting stops at maxBytes or maxBuffers, except that a batch always takes
+ * at least one buffer so an oversized chunk still goes out.
+ */
+class WriteBatch {
+    static final int DEFAULT_MAX_BYTES = 256 * 1024;
+    // well below IOV_MAX (1024 on Linux), the JDK copies the array into an iovec per write
+    static final int DEFAULT_MAX_BUFFERS = 64;
+
+    private final BufferPool pool;
+    private final int maxBytes;
+    private final int maxBuffers;
+    private ByteBuffer[] buffers = new ByteBuffer[8];
+    private int count;
+    private long bytes;
+    // first buffer that still has remaining bytes
+    private int offset;
+    // pooled buffers in this batch, handed back once the write is done
+    private final List<ByteBuffer> leased = new ArrayList<>(4);
+
+    WriteBatch(BufferPool pool, int maxBytes, int maxBuffers) {
+        this.pool = pool;
+        this.maxBytes = maxBytes;
+        this.maxBuffers = maxBuffers;
+    }
+
+    boolean isFull() {
+        return count >= maxBuffers || bytes >= maxBytes;
+    }
+
+    /**
+     * true if the buffer was taken
+     */
+    boolean offer(ByteBuffer buf) {
+        if (count > 0 && (count >= maxBuffers || bytes + buf.remaining() > maxBytes)) {
+            return false;
+        }
+        if (count == buffers.length) {
+            buffers = Arrays.copyOf(buffers, Math.min(buffers.length * 2, Math.max(maxBuffers, 8)));
+        }
+        buffers[count++] = buf;
+        bytes += buf.remaining();
+        return true;
+    }
+
+    /**
+     * offer a buffer leased from the pool, it is released on clear() or right away if not taken
+     */
+    boolean offerLeased(ByteBuffer buf) {
+        if (!offer(buf)) {
+            pool.release(buf);
+            return false;
+        }
+        leased.add(buf);
+        return true;
+    }
+
+    boolean isEmpty() {
+        return count == 0;
+    }
+
+    ByteBuffer[] buffers() {
+        return buffers;
+    }
+
+    int offset() {
+        return offset;
+    }
+
+    int length() {
+        return count - offset;
+    }
+
+    /**
+     * skip buffers drained by the last write, true if something is left
+     */
+    boolean advance() {
+        while (offset < count && !buffers[offset].hasRemaining()) {
+            offset++;
+        }
+        return offset < count;
+    }
+
+    void clear() {
+        Arrays.fill(buffers, 0, count, null);
+        for (ByteBuffer buf : leased) {
+            pool.release(buf);
+        }
+        leased.clear();
+        count = 0;
+        bytes = 0;
+        offset = 0;
+    }
+}
@@ -0,0 +1,171 @@
+package org.example.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pooled direct buffers in power-of-two size classes (512 B .. 64 KB).
+ *
+ * acquire/release first go through a small per-thread cache (I/O completion threads
+ * keep hitting the same few buffers), then a shared bounded queue per class.
+ * Requests above the largest class get an unpooled buffer that is simply dropped on release.
+ */
+public final class BufferPool {
+    public static final BufferPool DEFAULT = new BufferPool(64 * 1024 * 1024);
+
+    static final int MIN_SHIFT = 9;
+    static final int MAX_SHIFT = 16;
+    static final int CLASSES = MAX_SHIFT - MIN_SHIFT + 1;
+    private static final int THREAD_CACHE_SIZE = 16;
+
+    private final ConcurrentLinkedQueue<ByteBuffer>[] shared;
+    private final AtomicInteger[] sharedCount;
+    private final int[] sharedLimit;
+    private final ThreadLocal<ByteBuffer[][]> threadCache = ThreadLocal.withInitial(() -> new ByteBuffer[CLASSES][THREAD_CACHE_SIZE]);
+    private final ThreadLocal<int[]> threadCacheCount = ThreadLocal.withInitial(() -> new int[CLASSES]);
+
+    // stats
+    private final LongAdder allocated = new LongAdder();
+    private final LongAdder allocatedBytes = new LongAdder();
+    private final LongAdder leased = new LongAdder();
+    private final LongAdder leasedBytes = new LongAdder();
+    private final LongAdder pooled = new LongAdder();
+    private final LongAdder pooledBytes = new LongAdder();
+    private final LongAdder unpooled = new LongAdder();
+
+    /**
+     * @param sharedBudget bytes the shared queues may hold, split evenly over the size classes
+     */
+    @SuppressWarnings("unchecked")
+    public BufferPool(long sharedBudget) {
+        shared = new ConcurrentLinkedQueue[CLASSES];
+        sharedCount = new AtomicInteger[CLASSES];
+        sharedLimit = new int[CLASSES];
+        for (int i = 0; i < CLASSES; i++) {
+            shared[i] = new ConcurrentLinkedQueue<>();
+            sharedCount[i] = new AtomicInteger();
+            sharedLimit[i] = (int) Math.max(1, sharedBudget / CLASSES / classSize(i));
+        }
+    }
+
+    public static int classSize(int sizeClass) {
+        return 1 << (sizeClass + MIN_SHIFT);
+    }
+
+    static int sizeClass(int size) {
+        if (size <= (1 << MIN_SHIFT)) return 0;
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+    }
+
+    /**
+     * cleared buffer with capacity >= size (exactly the class size for pooled ones)
+     */
+    public ByteBuffer acquire(int size) {
+        int sizeClass = sizeClass(size);
+        ByteBuffer buf;
+        if (sizeClass >= CLASSES) {
+            unpooled.increment();
+            buf = allocate(size);
+        } else {
+            buf = fromThreadCache(sizeClass);
+            if (buf == null) {
+                buf = shared[sizeClass].poll();
+                if (buf != null) {
+                    sharedCount[sizeClass].decrementAndGet();
+                }
+            }
+            if (buf != null) {
+                pooled.decrement();
+                pooledBytes.add(-buf.capacity());
+            } else {
+                buf = allocate(classSize(sizeClass));
+            }
+        }
+        leased.increment();
+        leasedBytes.add(buf.capacity());
+        return buf;
+    }
+
+    public void release(ByteBuffer buf) {
+        if (buf == null) {
+            return;
+        }
+        leased.decrement();
+        leasedBytes.add(-buf.capacity());
+
+        int capacity = buf.capacity();
+        int sizeClass = sizeClass(capacity);
+        if (!buf.isDirect() || buf.isReadOnly() || sizeClass >= CLASSES || classSize(sizeClass) != capacity) {
+            return; // not ours, or oversized: GC takes it
+        }
+        buf.clear();
+
+        pooled.increment();
+        pooledBytes.add(capacity);
+        if (toThreadCache(sizeClass, buf)) {
+            return;
+        }
+        if (sharedCount[sizeClass].incrementAndGet() <= sharedLimit[sizeClass]) {
+            shared[sizeClass].offer(buf);
+        } else {
+            sharedCount[sizeClass].decrementAndGet();
+            pooled.decrement();
+            pooledBytes.add(-capacity);
+        }
+    }
+
+    /**
+     * give up a leased buffer that may still be in use elsewhere (a write in flight on a connection
+     * being closed): it leaves the lease count but is never handed out again
+     */
+    public void abandon(ByteBuffer buf) {
+        if (buf != null) {
+            leased.decrement();
+            leasedBytes.add(-buf.capacity());
+        }
+    }
+
+    private ByteBuffer fromThreadCache(int sizeClass) {
+        // virtual threads are too many and too short-lived to be worth a cache each
+        if (Thread.currentThread().isVirtual()) return null;
+        int[] counts = threadCacheCount.get();
+        if (counts[sizeClass] == 0) return null;
+        ByteBuffer[] stack = threadCache.get()[sizeClass];
+        ByteBuffer buf = stack[--counts[sizeClass]];
+        stack[counts[sizeClass]] = null;
+        return buf;
+    }
+
+    private boolean toThreadCache(int sizeClass, ByteBuffer buf) {
+        if (Thread.currentThread().isVirtual()) return false;
+        int[] counts = threadCacheCount.get();
+        if (counts[sizeClass] == THREAD_CACHE_SIZE) return false;
+        threadCache.get()[sizeClass][counts[sizeClass]++] = buf;
+        return true;
+    }
+
+    private ByteBuffer allocate(int size) {
+        allocated.increment();
+        allocatedBytes.add(size);
+        return ByteBuffer.allocateDirect(size);
+    }
+
+    /**
+     * counters for the monitor endpoints
+     */
+    public Map<String, Long> stats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("allocated", allocated.sum());
+        stats.put("allocatedBytes", allocatedBytes.sum());
+        stats.put("leased", leased.sum());
+        stats.put("leasedBytes", leasedBytes.sum());
+        stats.put("pooled", pooled.sum());
+        stats.put("pooledBytes", pooledBytes.sum());
+        stats.put("unpooledAllocations", unpooled.sum());
+        return stats;
+    }
+}
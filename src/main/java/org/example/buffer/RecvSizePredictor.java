@@ -0,0 +1,46 @@
+package org.example.buffer;
+
+/**
+ * Guesses how big the next read buffer of a connection should be from what the last reads returned.
+ * A read that fills the buffer grows the guess right away, it only shrinks after two reads in a row
+ * would also have fit the next smaller size class. Not thread safe, one per connection.
+ */
+public final class RecvSizePredictor {
+    private static final int MIN_CLASS = 0;
+    private static final int MAX_CLASS = BufferPool.CLASSES - 1;
+
+    private int sizeClass;
+    private boolean shrinkPending;
+
+    public RecvSizePredictor() {
+        this(2048);
+    }
+
+    public RecvSizePredictor(int initialSize) {
+        this.sizeClass = Math.min(MAX_CLASS, BufferPool.sizeClass(initialSize));
+    }
+
+    public int nextSize() {
+        return BufferPool.classSize(sizeClass);
+    }
+
+    /**
+     * @param bytesRead what the read returned
+     * @param space     free space the read had, a read that used all of it may have left data behind
+     */
+    public void record(int bytesRead, int space) {
+        if (bytesRead >= space) {
+            sizeClass = Math.min(MAX_CLASS, sizeClass + 1);
+            shrinkPending = false;
+        } else if (sizeClass > MIN_CLASS && bytesRead <= BufferPool.classSize(sizeClass - 1)) {
+            if (shrinkPending) {
+                sizeClass--;
+                shrinkPending = false;
+            } else {
+                shrinkPending = true;
+            }
+        } else {
+            shrinkPending = false;
+        }
+    }
+}
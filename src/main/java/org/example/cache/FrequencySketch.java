@@ -0,0 +1,86 @@
+package org.example.cache;
+
+/**
+ * Approximate access counts for TinyLFU admission: a count-min sketch of 4-bit counters, four per key.
+ *
+ * Every counter is halved once sampleSize increments went in, so what was popular an hour ago
+ * fades instead of blocking newcomers forever. Not thread safe, callers hold the cache lock.
+ */
+public final class FrequencySketch {
+    private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long ONE_MASK = 0x1111111111111111L;
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    // 16 counters per long
+    private final long[] table;
+    private final int mask;
+    private final int sampleSize;
+    private int additions;
+
+    /**
+     * @param expectedEntries about how many keys the cache holds
+     */
+    public FrequencySketch(int expectedEntries) {
+        int counters = Math.max(64, Integer.highestOneBit(Math.max(1, expectedEntries) - 1) << 3);
+        this.table = new long[counters >>> 4];
+        this.mask = counters - 1;
+        this.sampleSize = Math.max(64, 10 * expectedEntries);
+    }
+
+    public int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int min = 15;
+        for (int i = 0; i < SEEDS.length; i++) {
+            min = Math.min(min, counter(index(hash, i)));
+        }
+        return min;
+    }
+
+    public void increment(Object key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            added |= incrementAt(index(hash, i));
+        }
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    private int counter(int index) {
+        return (int) (table[index >>> 4] >>> ((index & 15) << 2)) & 0xf;
+    }
+
+    // saturates at 15
+    private boolean incrementAt(int index) {
+        int shift = (index & 15) << 2;
+        long value = table[index >>> 4];
+        if (((value >>> shift) & 0xf) == 0xf) {
+            return false;
+        }
+        table[index >>> 4] = value + (1L << shift);
+        return true;
+    }
+
+    private void reset() {
+        int odd = 0;
+        for (int i = 0; i < table.length; i++) {
+            odd += Long.bitCount(table[i] & ONE_MASK);
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        // the halving truncated odd counters, take that off the sample count as well
+        additions = (additions - (odd >>> 2)) >>> 1;
+    }
+
+    private int index(int hash, int row) {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        h += h >>> 32;
+        return (int) h & mask;
+    }
+
+    private static int spread(int h) {
+        h = ((h >>> 16) ^ h) * 0x45d9f3b;
+        h = ((h >>> 16) ^ h) * 0x45d9f3b;
+        return (h >>> 16) ^ h;
+    }
+}
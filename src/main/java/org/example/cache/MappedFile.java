@@ -0,0 +1,150 @@
+package org.example.cache;
+
+import org.example.log.Logger;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A whole file mapped read-only. Its bytes live in the page cache, shared with every other reader of the file,
+ * and never on the Java heap.
+ *
+ * Reference counted: whoever maps it holds the first reference, every response sending it takes one more with
+ * {@link #retain()}, and the last {@link #release()} unmaps it right away instead of whenever the GC gets to the
+ * buffer. Once unmapped, retain fails and the caller has to read the file some other way.
+ *
+ * A file truncated under its mapping makes reads past the new end fault, so the cache drops mappings of files that
+ * change and {@link #mapSettled} leaves alone files that may still be being written: ones modified less than
+ * {@link #SETTLE_MILLIS} ago, or whose size or modification time changed while they were mapped.
+ */
+public final class MappedFile {
+    private static final Logger log = Logger.get(MappedFile.class);
+    // files modified more recently than this may still be being written
+    public static final long SETTLE_MILLIS = 1000;
+    // sun.misc.Unsafe.invokeCleaner, null if this JDK doesn't have it and mappings are left to the GC
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.warn("Mapped files can't be unmapped explicitly, the GC will: {}", e.toString());
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private final MappedByteBuffer buffer;
+    private final AtomicInteger refCnt = new AtomicInteger(1);
+
+    private MappedFile(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * map the first size bytes of path, the caller owns the first reference
+     */
+    public static MappedFile map(Path path, long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("File too large to map: " + size + " bytes");
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel is closed
+            return new MappedFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    /**
+     * map the file attrs were read from if it has settled, null if it may still be being written and should be
+     * streamed instead. the caller owns the first reference
+     */
+    public static MappedFile mapSettled(Path path, BasicFileAttributes attrs) throws IOException {
+        if (System.currentTimeMillis() - attrs.lastModifiedTime().toMillis() < SETTLE_MILLIS) {
+            return null;
+        }
+        MappedFile file = map(path, attrs.size());
+        BasicFileAttributes after;
+        try {
+            after = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            file.release();
+            return null;
+        } catch (IOException e) {
+            file.release();
+            throw e;
+        }
+        // written to while we mapped it
+        if (after.size() != attrs.size() || !after.lastModifiedTime().equals(attrs.lastModifiedTime())) {
+            file.release();
+            return null;
+        }
+        return file;
+    }
+
+    public int size() {
+        return buffer.capacity();
+    }
+
+    /**
+     * another reference, false if the file was already unmapped
+     */
+    public boolean retain() {
+        while (true) {
+            int count = refCnt.get();
+            if (count == 0) {
+                return false;
+            }
+            if (refCnt.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * drop a reference, the last one unmaps
+     */
+    public void release() {
+        int count = refCnt.decrementAndGet();
+        if (count == 0) {
+            unmap();
+        } else if (count < 0) {
+            refCnt.incrementAndGet();
+            throw new IllegalStateException("MappedFile released more often than retained");
+        }
+    }
+
+    /**
+     * the whole file as a read-only buffer of its own, only valid while the caller holds a reference
+     */
+    public ByteBuffer slice() {
+        return buffer.asReadOnlyBuffer();
+    }
+
+    private void unmap() {
+        if (INVOKE_CLEANER == null) {
+            return;
+        }
+        try {
+            INVOKE_CLEANER.invoke(UNSAFE, buffer);
+        } catch (ReflectiveOperationException e) {
+            log.warn("Unmapping failed, left to the GC: {}", e.toString());
+        }
+    }
+}
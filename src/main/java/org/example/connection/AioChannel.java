@@ -0,0 +1,47 @@
+package org.example.connection;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.concurrent.TimeUnit;
+
+// TransportChannel over an AsynchronousSocketChannel, the calls map one to one
+final class AioChannel implements TransportChannel {
+    private final AsynchronousSocketChannel channel;
+
+    AioChannel(AsynchronousSocketChannel channel) {
+        this.channel = channel;
+    }
+
+    @Override
+    public <A> void read(ByteBuffer dst, A attachment, CompletionHandler<Integer, ? super A> handler) {
+        channel.read(dst, attachment, handler);
+    }
+
+    @Override
+    public <A> void write(ByteBuffer[] srcs, int offset, int length, A attachment, CompletionHandler<Long, ? super A> handler) {
+        channel.write(srcs, offset, length, 0, TimeUnit.MILLISECONDS, attachment, handler);
+    }
+
+    @Override
+    public void shutdownOutput() throws IOException {
+        channel.shutdownOutput();
+    }
+
+    @Override
+    public SocketAddress getRemoteAddress() throws IOException {
+        return channel.getRemoteAddress();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,149 @@
+package org.example.connection;
+
+import org.example.log.Logger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * NIO.2 engine: completion handlers on fixed channel-group thread pools.
+ *
+ * With more than one listener every listener socket is bound with SO_REUSEPORT and owns its
+ * channel group and accept chain, the kernel spreads new connections over them.
+ */
+public class AioTransport implements Transport {
+    private static final Logger log = Logger.get(AioTransport.class);
+
+    private final int threads;
+    private final int listenerCount;
+    private final int backlog;
+    private final List<Listener> listeners = new ArrayList<>();
+
+    // one accept chain on its own socket, connections it accepts run on its group
+    private static final class Listener {
+        final AsynchronousChannelGroup group;
+        final AsynchronousServerSocketChannel channel;
+
+        Listener(AsynchronousChannelGroup group, AsynchronousServerSocketChannel channel) {
+            this.group = group;
+            this.channel = channel;
+        }
+    }
+
+    /**
+     * @param threads completion threads over all listeners
+     */
+    public AioTransport(int threads, int listenerCount, int backlog) {
+        this.threads = threads;
+        this.listenerCount = Math.max(1, listenerCount);
+        this.backlog = backlog;
+    }
+
+    @Override
+    public void start(int port, Acceptor acceptor) throws IOException {
+        int count = listenerCount;
+        if (count > 1 && !supportsReusePort()) {
+            log.warn("SO_REUSEPORT not supported, using a single listener");
+            count = 1;
+        }
+        int threadsPerGroup = Math.max(1, threads / count);
+
+        try {
+            for (int i = 0; i < count; i++) {
+                listeners.add(openListener(port, i, threadsPerGroup, count > 1));
+            }
+        } catch (IOException e) {
+            shutdown();
+            throw e;
+        }
+
+        log.info("AIO transport on port {} with {} listener(s), {} I/O thread(s) each", getLocalPort(), count, threadsPerGroup);
+
+        for (Listener listener : listeners) {
+            acceptNext(listener, acceptor);
+        }
+    }
+
+    private Listener openListener(int port, int index, int threads, boolean reusePort) throws IOException {
+        AtomicInteger threadId = new AtomicInteger();
+        AsynchronousChannelGroup group = AsynchronousChannelGroup.withFixedThreadPool(threads,
+                r -> new Thread(r, "harmar-aio-" + index + "-" + threadId.incrementAndGet()));
+        try {
+            AsynchronousServerSocketChannel channel = AsynchronousServerSocketChannel.open(group);
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            if (reusePort) {
+                // the kernel hashes incoming connections over all sockets bound to the port
+                channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            channel.bind(new InetSocketAddress(port), backlog);
+            return new Listener(group, channel);
+        } catch (IOException e) {
+            group.shutdownNow();
+            throw e;
+        }
+    }
+
+    private static boolean supportsReusePort() {
+        try (AsynchronousServerSocketChannel probe = AsynchronousServerSocketChannel.open()) {
+            return probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void acceptNext(Listener listener, Acceptor acceptor) {
+        listener.channel.accept(null, new CompletionHandler<AsynchronousSocketChannel, Void>() {
+            @Override
+            public void completed(AsynchronousSocketChannel client, Void att) {
+                // re listening next connection
+                acceptNext(listener, acceptor);
+
+                acceptor.accept(new AioChannel(client));
+            }
+
+            @Override
+            public void failed(Throwable exc, Void att) {
+                if (!listener.channel.isOpen()) {
+                    return; // shutdown
+                }
+                log.warn("Accept failed: {}", exc.getMessage());
+                acceptNext(listener, acceptor);
+            }
+        });
+    }
+
+    @Override
+    public int getLocalPort() {
+        try {
+            return ((InetSocketAddress) listeners.get(0).channel.getLocalAddress()).getPort();
+        } catch (IOException | IndexOutOfBoundsException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        for (Listener listener : listeners) {
+            try {
+                listener.channel.close();
+            } catch (IOException e) {
+                log.warn("Error while closing server channel: {}", e.getMessage());
+            }
+            try {
+                // closes the connections of this group as well
+                listener.group.shutdownNow();
+            } catch (IOException e) {
+                log.warn("Error while shutting down channel group: {}", e.getMessage());
+            }
+        }
+        listeners.clear();
+    }
+}
@@ -0,0 +1,192 @@
+package org.example.connection;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.DefaultFileRegion;
+import io.netty.channel.socket.SocketChannel;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * TransportChannel over a Netty channel, the last handler of its pipeline.
+ *
+ * Auto-read is off: a pending read asks Netty for one read, inbound ByteBufs (pooled allocator) are copied
+ * into the caller's buffer and released, what doesn't fit waits for the next read. Writes wrap the caller's
+ * buffers without copying and complete when Netty flushed them. Completions always run as a new event loop
+ * task, never inside the caller's stack.
+ */
+final class NettyChannel extends ChannelInboundHandlerAdapter implements TransportChannel {
+    private final Transport.Acceptor acceptor;
+    private ChannelHandlerContext ctx;
+    // below: event loop only
+    private final ArrayDeque<ByteBuf> inbound = new ArrayDeque<>();
+    private boolean inputClosed;
+
+    private ByteBuffer readDst;
+    private Object readAttachment;
+    private CompletionHandler<Integer, Object> readHandler;
+
+    NettyChannel(Transport.Acceptor acceptor) {
+        this.acceptor = acceptor;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) {
+        this.ctx = ctx;
+        acceptor.accept(this);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        ByteBuf buf = (ByteBuf) msg;
+        if (!buf.isReadable()) {
+            buf.release();
+            return;
+        }
+        inbound.add(buf);
+        if (readHandler != null) {
+            completeRead();
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) {
+        inputClosed = true;
+        if (readHandler != null) {
+            completeRead();
+        }
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        ByteBuf buf;
+        while ((buf = inbound.poll()) != null) {
+            buf.release();
+        }
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        // surfaces as a failed read or write, or as end of stream
+        ctx.close();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <A> void read(ByteBuffer dst, A attachment, CompletionHandler<Integer, ? super A> handler) {
+        ctx.executor().execute(() -> {
+            readDst = dst;
+            readAttachment = attachment;
+            readHandler = (CompletionHandler<Integer, Object>) handler;
+            if (!inbound.isEmpty() || inputClosed) {
+                completeRead();
+            } else {
+                ctx.read();
+            }
+        });
+    }
+
+    private void completeRead() {
+        ByteBuffer dst = readDst;
+        Object attachment = readAttachment;
+        CompletionHandler<Integer, Object> handler = readHandler;
+        readDst = null;
+        readAttachment = null;
+        readHandler = null;
+
+        int n = 0;
+        ByteBuf buf;
+        while (dst.hasRemaining() && (buf = inbound.peek()) != null) {
+            int chunk = Math.min(buf.readableBytes(), dst.remaining());
+            int limit = dst.limit();
+            dst.limit(dst.position() + chunk);
+            buf.readBytes(dst);
+            dst.limit(limit);
+            n += chunk;
+            if (!buf.isReadable()) {
+                inbound.poll().release();
+            }
+        }
+        int result = n > 0 ? n : -1;
+        if (n == 0 && !inputClosed) {
+            // nothing for an empty dst, same as a 0-byte socket read
+            result = 0;
+        }
+        int bytes = result;
+        ctx.executor().execute(() -> handler.completed(bytes, attachment));
+    }
+
+    @Override
+    public <A> void write(ByteBuffer[] srcs, int offset, int length, A attachment, CompletionHandler<Long, ? super A> handler) {
+        long total = 0;
+        for (int i = offset; i < offset + length; i++) {
+            total += srcs[i].remaining();
+        }
+        long written = total;
+        ByteBuf out = Unpooled.wrappedBuffer(Arrays.copyOfRange(srcs, offset, offset + length));
+        ctx.writeAndFlush(out).addListener(f -> {
+            if (f.isSuccess()) {
+                // the wrapper read through slices, move the callers' buffers like a socket write would
+                for (int i = offset; i < offset + length; i++) {
+                    srcs[i].position(srcs[i].limit());
+                }
+                handler.completed(written, attachment);
+            } else {
+                Throwable cause = f.cause();
+                handler.failed(ctx.channel().isOpen() ? cause : new AsynchronousCloseException(), attachment);
+            }
+        });
+    }
+
+    @Override
+    public boolean supportsTransfer() {
+        return true;
+    }
+
+    /**
+     * a FileRegion: sendfile on epoll, transferTo on the NIO fallback. completes once all count bytes are out;
+     * Netty closes the file channel when it releases the region, so count has to be the rest of the file
+     */
+    @Override
+    public <A> void transferFrom(FileChannel file, long position, long count, A attachment,
+                                 CompletionHandler<Long, ? super A> handler) {
+        ctx.writeAndFlush(new DefaultFileRegion(file, position, count)).addListener(f -> {
+            if (f.isSuccess()) {
+                handler.completed(count, attachment);
+            } else {
+                Throwable cause = f.cause();
+                handler.failed(ctx.channel().isOpen() ? cause : new AsynchronousCloseException(), attachment);
+            }
+        });
+    }
+
+    @Override
+    public void shutdownOutput() throws IOException {
+        ((SocketChannel) ctx.channel()).shutdownOutput();
+    }
+
+    @Override
+    public SocketAddress getRemoteAddress() {
+        return ctx.channel().remoteAddress();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return ctx.channel().isOpen();
+    }
+
+    @Override
+    public void close() {
+        // a pending read then completes with end of stream from channelInactive
+        ctx.close();
+    }
+}
@@ -0,0 +1,127 @@
+package org.example.connection;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import org.example.log.Logger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Netty engine: native epoll where available (Linux), Netty NIO otherwise, pooled ByteBuf allocator.
+ *
+ * Netty only moves bytes here. Every channel ends in a {@link NettyChannel}, so protocol detection,
+ * HTTP/1 parsing, Router dispatch and the h2c handoff are the same code as on the other engines.
+ * With native epoll and more than one listener the sockets are bound with SO_REUSEPORT.
+ */
+public class NettyTransport implements Transport {
+    private static final Logger log = Logger.get(NettyTransport.class);
+
+    private final int threads;
+    private final int listenerCount;
+    private final int backlog;
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workerGroup;
+    private final List<Channel> listeners = new ArrayList<>();
+
+    public NettyTransport(int threads, int listenerCount, int backlog) {
+        this.threads = Math.max(1, threads);
+        this.listenerCount = Math.max(1, listenerCount);
+        this.backlog = backlog;
+    }
+
+    @Override
+    public void start(int port, Acceptor acceptor) throws IOException {
+        boolean epoll = Epoll.isAvailable();
+        Class<? extends ServerChannel> channelClass;
+        int count = listenerCount;
+        if (epoll) {
+            bossGroup = new EpollEventLoopGroup(count);
+            workerGroup = new EpollEventLoopGroup(threads);
+            channelClass = EpollServerSocketChannel.class;
+        } else {
+            if (count > 1) {
+                log.warn("Netty NIO has no SO_REUSEPORT, using a single listener ({})", Epoll.unavailabilityCause());
+                count = 1;
+            }
+            bossGroup = new NioEventLoopGroup(1);
+            workerGroup = new NioEventLoopGroup(threads);
+            channelClass = NioServerSocketChannel.class;
+        }
+
+        ServerBootstrap b = new ServerBootstrap();
+        b.group(bossGroup, workerGroup)
+                .channel(channelClass)
+                .option(ChannelOption.SO_BACKLOG, backlog)
+                .option(ChannelOption.SO_REUSEADDR, true)
+                .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                // reads are requested by the protocol code, one per pending TransportChannel.read
+                .childOption(ChannelOption.AUTO_READ, false)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast("transport", new NettyChannel(acceptor));
+                    }
+                });
+        if (count > 1) {
+            b.option(EpollChannelOption.SO_REUSEPORT, true);
+        }
+
+        try {
+            for (int i = 0; i < count; i++) {
+                listeners.add(b.bind(port).sync().channel());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            shutdown();
+            throw new IOException("Interrupted while binding port " + port, e);
+        } catch (RuntimeException e) {
+            shutdown();
+            throw new IOException("Binding port " + port + " failed", e);
+        }
+
+        log.info(epoll
+                        ? "Netty epoll transport on port {} with {} listener(s), {} I/O thread(s)"
+                        : "Netty NIO transport on port {} with {} listener(s), {} I/O thread(s)",
+                getLocalPort(), count, threads);
+    }
+
+    @Override
+    public int getLocalPort() {
+        if (listeners.isEmpty()) {
+            return -1;
+        }
+        return ((InetSocketAddress) listeners.get(0).localAddress()).getPort();
+    }
+
+    @Override
+    public void shutdown() {
+        for (Channel listener : listeners) {
+            listener.close().syncUninterruptibly();
+        }
+        listeners.clear();
+        if (bossGroup != null) {
+            bossGroup.shutdownGracefully();
+            bossGroup = null;
+        }
+        if (workerGroup != null) {
+            // closes the connections as well
+            workerGroup.shutdownGracefully();
+            workerGroup = null;
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package org.example.connection;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadPendingException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritePendingException;
+
+/**
+ * TransportChannel over a non-blocking SocketChannel bound to one {@link SelectorLoop} for its life.
+ *
+ * A read or write is first tried right away on the loop (pipelined data, an empty send buffer), interest in
+ * OP_READ / OP_WRITE is only registered when the socket has nothing / no room. A write, or a sendfile transfer
+ * (FileChannel.transferTo), completes once every byte went out, or with what it sent when the socket buffer
+ * fills after some progress; the caller re-issues the rest, and sees a slow reader still moving.
+ */
+final class NioChannel implements TransportChannel, SelectorLoop.Ready {
+    private final SocketChannel channel;
+    private final SelectorLoop loop;
+    private volatile boolean closed;
+
+    // below: loop thread only
+    private SelectionKey key;
+
+    private ByteBuffer readDst;
+    private Object readAttachment;
+    private CompletionHandler<Integer, Object> readHandler;
+
+    private ByteBuffer[] writeSrcs;
+    private int writeOffset;
+    private int writeEnd;
+    private long written;
+    private Object writeAttachment;
+    private CompletionHandler<Long, Object> writeHandler;
+    // set instead of writeSrcs for a transferFrom
+    private FileChannel transferFile;
+    private long transferPosition;
+    private long transferEnd;
+
+    NioChannel(SocketChannel channel, SelectorLoop loop) {
+        this.channel = channel;
+        this.loop = loop;
+    }
+
+    // loop thread
+    void register() throws IOException {
+        key = loop.register(channel, 0, this);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <A> void read(ByteBuffer dst, A attachment, CompletionHandler<Integer, ? super A> handler) {
+        loop.execute(() -> {
+            if (readHandler != null) {
+                throw new ReadPendingException();
+            }
+            readDst = dst;
+            readAttachment = attachment;
+            readHandler = (CompletionHandler<Integer, Object>) handler;
+            doRead();
+        });
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <A> void write(ByteBuffer[] srcs, int offset, int length, A attachment, CompletionHandler<Long, ? super A> handler) {
+        loop.execute(() -> {
+            if (writeHandler != null) {
+                throw new WritePendingException();
+            }
+            writeSrcs = srcs;
+            writeOffset = offset;
+            writeEnd = offset + length;
+            written = 0;
+            writeAttachment = attachment;
+            writeHandler = (CompletionHandler<Long, Object>) handler;
+            doWrite();
+        });
+    }
+
+    @Override
+    public boolean supportsTransfer() {
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <A> void transferFrom(FileChannel file, long position, long count, A attachment,
+                                 CompletionHandler<Long, ? super A> handler) {
+        loop.execute(() -> {
+            if (writeHandler != null) {
+                throw new WritePendingException();
+            }
+            transferFile = file;
+            transferPosition = position;
+            transferEnd = position + count;
+            written = 0;
+            writeAttachment = attachment;
+            writeHandler = (CompletionHandler<Long, Object>) handler;
+            doWrite();
+        });
+    }
+
+    @Override
+    public void ready(SelectionKey key) {
+        int ops = key.readyOps();
+        if ((ops & SelectionKey.OP_READ) != 0 && readHandler != null) {
+            doRead();
+        }
+        if ((ops & SelectionKey.OP_WRITE) != 0 && writeHandler != null) {
+            doWrite();
+        }
+    }
+
+    private void doRead() {
+        if (closed) {
+            failRead(new AsynchronousCloseException());
+            return;
+        }
+        int n;
+        try {
+            n = channel.read(readDst);
+        } catch (IOException e) {
+            failRead(e);
+            return;
+        }
+        if (n == 0) {
+            interest(SelectionKey.OP_READ, true);
+            return;
+        }
+        interest(SelectionKey.OP_READ, false);
+        CompletionHandler<Integer, Object> handler = readHandler;
+        Object attachment = readAttachment;
+        clearRead();
+        handler.completed(n, attachment);
+    }
+
+    private void doWrite() {
+        if (closed) {
+            failWrite(new AsynchronousCloseException());
+            return;
+        }
+        try {
+            if (transferFile != null) {
+                if (!doTransfer()) {
+                    return;
+                }
+            }
+            while (writeSrcs != null && writeOffset < writeEnd) {
+                long n = channel.write(writeSrcs, writeOffset, writeEnd - writeOffset);
+                written += n;
+                while (writeOffset < writeEnd && !writeSrcs[writeOffset].hasRemaining()) {
+                    writeOffset++;
+                }
+                if (n == 0 && writeOffset < writeEnd) {
+                    if (written > 0) {
+                        break; // socket buffer full, report the progress
+                    }
+                    interest(SelectionKey.OP_WRITE, true);
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            failWrite(e);
+            return;
+        }
+        interest(SelectionKey.OP_WRITE, false);
+        CompletionHandler<Long, Object> handler = writeHandler;
+        Object attachment = writeAttachment;
+        long total = written;
+        clearWrite();
+        handler.completed(total, attachment);
+    }
+
+    // true once everything is transferred or the socket is full after sending some, false while waiting for OP_WRITE
+    private boolean doTransfer() throws IOException {
+        while (transferPosition < transferEnd) {
+            long n = transferFile.transferTo(transferPosition, transferEnd - transferPosition, channel);
+            transferPosition += n;
+            written += n;
+            if (n == 0) {
+                if (transferPosition >= transferFile.size()) {
+                    throw new EOFException("File shrank while it was sent");
+                }
+                if (written > 0) {
+                    return true; // socket buffer full, report the progress
+                }
+                interest(SelectionKey.OP_WRITE, true);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void interest(int op, boolean on) {
+        if (key == null || !key.isValid()) {
+            return;
+        }
+        int ops = key.interestOps();
+        int next = on ? ops | op : ops & ~op;
+        if (next != ops) {
+            key.interestOps(next);
+        }
+    }
+
+    private void failRead(Throwable exc) {
+        CompletionHandler<Integer, Object> handler = readHandler;
+        Object attachment = readAttachment;
+        clearRead();
+        if (handler != null) {
+            handler.failed(exc, attachment);
+        }
+    }
+
+    private void failWrite(Throwable exc) {
+        CompletionHandler<Long, Object> handler = writeHandler;
+        Object attachment = writeAttachment;
+        clearWrite();
+        if (handler != null) {
+            handler.failed(exc, attachment);
+        }
+    }
+
+    private void clearRead() {
+        readDst = null;
+        readAttachment = null;
+        readHandler = null;
+    }
+
+    private void clearWrite() {
+        writeSrcs = null;
+        transferFile = null;
+        writeAttachment = null;
+        writeHandler = null;
+    }
+
+    @Override
+    public void shutdown() {
+        try {
+            close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    @Override
+    public void shutdownOutput() throws IOException {
+        channel.shutdownOutput();
+    }
+
+    @Override
+    public SocketAddress getRemoteAddress() throws IOException {
+        return channel.getRemoteAddress();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed && channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            channel.close();
+        } finally {
+            // pending operations complete on the loop, like AIO fails them on close
+            loop.execute(() -> {
+                failRead(new AsynchronousCloseException());
+                failWrite(new AsynchronousCloseException());
+            });
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package org.example.connection;
+
+import org.example.log.Logger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Multi-reactor engine: N {@link SelectorLoop}s (one per core by default) with non-blocking SocketChannels.
+ *
+ * Each connection stays on the loop it was assigned at accept, so its reads, writes and completion
+ * handlers always run on the same thread. Listener sockets (several with SO_REUSEPORT) are spread over
+ * the loops and hand accepted connections round robin to all of them.
+ */
+public class NioTransport implements Transport {
+    private static final Logger log = Logger.get(NioTransport.class);
+
+    private final int loopCount;
+    private final int listenerCount;
+    private final int backlog;
+    private final List<SelectorLoop> loops = new ArrayList<>();
+    private final List<ServerSocketChannel> listeners = new ArrayList<>();
+
+    public NioTransport(int loopCount, int listenerCount, int backlog) {
+        this.loopCount = Math.max(1, loopCount);
+        this.listenerCount = Math.max(1, listenerCount);
+        this.backlog = backlog;
+    }
+
+    @Override
+    public void start(int port, Acceptor acceptor) throws IOException {
+        int count = listenerCount;
+        if (count > 1 && !supportsReusePort()) {
+            log.warn("SO_REUSEPORT not supported, using a single listener");
+            count = 1;
+        }
+        try {
+            for (int i = 0; i < loopCount; i++) {
+                SelectorLoop loop = new SelectorLoop("harmar-nio-" + i);
+                loops.add(loop);
+                loop.start();
+            }
+            for (int i = 0; i < count; i++) {
+                ServerSocketChannel server = ServerSocketChannel.open();
+                listeners.add(server);
+                server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+                if (count > 1) {
+                    server.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                }
+                server.bind(new InetSocketAddress(port), backlog);
+                server.configureBlocking(false);
+                SelectorLoop loop = loops.get(i % loops.size());
+                Accept accept = new Accept(server, acceptor, i);
+                loop.execute(() -> {
+                    try {
+                        loop.register(server, SelectionKey.OP_ACCEPT, accept);
+                    } catch (IOException e) {
+                        log.error("Registering listener failed", e);
+                    }
+                });
+            }
+        } catch (IOException e) {
+            shutdown();
+            throw e;
+        }
+
+        log.info("NIO transport on port {} with {} listener(s), {} selector loop(s)", getLocalPort(), count, loopCount);
+    }
+
+    private static boolean supportsReusePort() {
+        try (ServerSocketChannel probe = ServerSocketChannel.open()) {
+            return probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // OP_ACCEPT handler of one listener socket
+    private final class Accept implements SelectorLoop.Ready {
+        private final ServerSocketChannel server;
+        private final Acceptor acceptor;
+        // listeners start at different loops so they don't all feed loop 0 first
+        private int next;
+
+        Accept(ServerSocketChannel server, Acceptor acceptor, int first) {
+            this.server = server;
+            this.acceptor = acceptor;
+            this.next = first;
+        }
+
+        @Override
+        public void ready(SelectionKey key) {
+            while (true) {
+                SocketChannel client;
+                try {
+                    client = server.accept();
+                    if (client == null) {
+                        return;
+                    }
+                    client.configureBlocking(false);
+                } catch (IOException e) {
+                    if (server.isOpen()) {
+                        log.warn("Accept failed: {}", e.getMessage());
+                    }
+                    return;
+                }
+                SelectorLoop loop = loops.get(next++ % loops.size());
+                NioChannel channel = new NioChannel(client, loop);
+                loop.execute(() -> {
+                    try {
+                        channel.register();
+                    } catch (IOException e) {
+                        channel.shutdown();
+                        return;
+                    }
+                    acceptor.accept(channel);
+                });
+            }
+        }
+
+        @Override
+        public void shutdown() {
+            try {
+                server.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    @Override
+    public int getLocalPort() {
+        try {
+            return ((InetSocketAddress) listeners.get(0).getLocalAddress()).getPort();
+        } catch (IOException | IndexOutOfBoundsException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        for (ServerSocketChannel server : listeners) {
+            try {
+                server.close();
+            } catch (IOException e) {
+                log.warn("Error while closing server channel: {}", e.getMessage());
+            }
+        }
+        listeners.clear();
+        // each loop closes its connections on the way out
+        for (SelectorLoop loop : loops) {
+            loop.shutdown();
+        }
+        loops.clear();
+    }
+}
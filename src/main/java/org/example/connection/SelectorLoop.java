@@ -0,0 +1,116 @@
+package org.example.connection;
+
+import org.example.log.Logger;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * One event loop of the NIO engine: a Selector and the thread that owns it.
+ *
+ * Every channel registered here is only ever touched by this thread, other threads hand work over with
+ * {@link #execute}. Tasks run after the selected keys of each round; the selector is woken at most once
+ * per round no matter how many tasks arrive.
+ */
+final class SelectorLoop {
+    private static final Logger log = Logger.get(SelectorLoop.class);
+    // tasks per round, the rest waits so I/O is not starved by a task that keeps requeueing itself
+    private static final int MAX_TASKS_PER_ROUND = 1024;
+
+    // attachment of every key registered with a loop
+    interface Ready {
+        void ready(SelectionKey key);
+
+        // loop is shutting down
+        void shutdown();
+    }
+
+    private final Selector selector;
+    private final Thread thread;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+    private volatile boolean running = true;
+
+    SelectorLoop(String name) throws IOException {
+        this.selector = Selector.open();
+        this.thread = new Thread(this::run, name);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    boolean inLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    void execute(Runnable task) {
+        tasks.offer(task);
+        if (!inLoop() && wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    // loop thread only
+    SelectionKey register(SelectableChannel channel, int ops, Ready ready) throws IOException {
+        return channel.register(selector, ops, ready);
+    }
+
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                if (tasks.isEmpty()) {
+                    selector.select();
+                } else {
+                    selector.selectNow();
+                }
+                wakeupPending.set(false);
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (key.isValid()) {
+                        ((Ready) key.attachment()).ready(key);
+                    }
+                }
+                runTasks();
+            } catch (ClosedSelectorException e) {
+                return;
+            } catch (IOException | RuntimeException e) {
+                log.error("Selector loop error", e);
+            }
+        }
+
+        for (SelectionKey key : selector.keys()) {
+            ((Ready) key.attachment()).shutdown();
+        }
+        runTasks();
+        try {
+            selector.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        for (int i = 0; i < MAX_TASKS_PER_ROUND && (task = tasks.poll()) != null; i++) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                log.error("Task failed on {}", thread.getName(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package org.example.connection;
+
+import java.io.IOException;
+
+/**
+ * I/O engine under the plaintext listener: binds the port, accepts connections and runs their
+ * reads and writes. The protocol code above it only sees {@link TransportChannel}s.
+ */
+public interface Transport {
+
+    @FunctionalInterface
+    interface Acceptor {
+        /**
+         * called on an engine thread for every accepted connection
+         */
+        void accept(TransportChannel channel);
+    }
+
+    void start(int port, Acceptor acceptor) throws IOException;
+
+    /**
+     * bound port, -1 before start
+     */
+    int getLocalPort();
+
+    /**
+     * stop accepting and close every connection of this engine
+     */
+    void shutdown();
+}
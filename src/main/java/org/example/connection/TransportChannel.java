@@ -0,0 +1,50 @@
+package org.example.connection;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+
+/**
+ * One accepted connection of a {@link Transport}, seen the same way whatever engine drives it.
+ *
+ * The operations follow {@link java.nio.channels.AsynchronousSocketChannel}: at most one read and one
+ * write may be outstanding, each completes exactly once through its handler on a thread of the engine.
+ * Closing fails the outstanding operations (AsynchronousCloseException), so whoever started one still
+ * gets its buffer back. A read completes with -1 at end of stream; a write may complete after writing
+ * only part of the buffers.
+ */
+public interface TransportChannel {
+
+    <A> void read(ByteBuffer dst, A attachment, CompletionHandler<Integer, ? super A> handler);
+
+    /**
+     * gathering write of srcs[offset, offset + length)
+     */
+    <A> void write(ByteBuffer[] srcs, int offset, int length, A attachment, CompletionHandler<Long, ? super A> handler);
+
+    /**
+     * whether {@link #transferFrom} is available (plaintext sockets of engines that can sendfile)
+     */
+    default boolean supportsTransfer() {
+        return false;
+    }
+
+    /**
+     * count bytes of file from position straight to the socket (sendfile, no copy through the heap).
+     * counts as the outstanding write; may complete after transferring only part of them
+     */
+    default <A> void transferFrom(FileChannel file, long position, long count, A attachment,
+                                  CompletionHandler<Long, ? super A> handler) {
+        throw new UnsupportedOperationException("transferFrom");
+    }
+
+    void shutdownOutput() throws IOException;
+
+    SocketAddress getRemoteAddress() throws IOException;
+
+    boolean isOpen();
+
+    void close() throws IOException;
+}
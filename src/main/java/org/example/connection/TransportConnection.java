@@ -0,0 +1,170 @@
+package org.example.connection;
+
+import org.example.buffer.BufferPool;
+import org.example.buffer.RecvSizePredictor;
+import org.example.timer.HashedTimingWheel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CompletionHandler;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// frame-level Connection (HTTP/2) on top of a transport channel
+public class TransportConnection implements Connection{
+    private final TransportChannel client;
+    private ReadHandler readHandler;
+    private final BufferPool pool = BufferPool.DEFAULT;
+    private final RecvSizePredictor recvSize = new RecvSizePredictor();
+    BlockingQueue<ByteBuffer> controlFrameQueue = new LinkedBlockingQueue<>();
+    BlockingQueue<ByteBuffer> streamsQueue = new LinkedBlockingQueue<>();
+    private AtomicBoolean writting = new AtomicBoolean(false);
+    // closes the connection when nothing was read for idleTimeoutMillis
+    private HashedTimingWheel.Deadline idleDeadline;
+    private long idleTimeoutMillis;
+    // gathering write of one buffer, writes are serialized by writting
+    private final ByteBuffer[] writeSlot = new ByteBuffer[1];
+    // run when the queues are written out, if the round of writes wrote anything
+    private Runnable onDrained;
+    private boolean wrote;
+    private Runnable onClose;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    public TransportConnection(TransportChannel client) {
+        this.client = client;
+    }
+
+    public void setIdleTimeout(HashedTimingWheel timingWheel, long idleTimeoutMillis) {
+        if (idleTimeoutMillis <= 0) {
+            return;
+        }
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.idleDeadline = timingWheel.newDeadline(() -> {
+            if (!idleDeadline.isArmed()) {
+                close();
+            }
+        });
+    }
+
+    /**
+     * the writer can queue more, e.g. the next DATA frames of a body it doesn't frame all at once
+     */
+    public void setOnDrained(Runnable onDrained) {
+        this.onDrained = onDrained;
+    }
+
+    /**
+     * run once when the connection is closed, for whatever reason
+     */
+    public void setOnClose(Runnable onClose) {
+        this.onClose = onClose;
+    }
+
+    @Override
+    public void write() {
+        if (!writting.compareAndSet(false, true)) {
+            return;
+        }
+        doWrite();
+    }
+
+    private void doWrite() {
+        ByteBuffer buffer = controlFrameQueue.poll();
+        if (buffer == null) {
+            buffer = streamsQueue.poll();
+        }
+
+        if (buffer == null) {
+            boolean drained = wrote;
+            wrote = false;
+            writting.set(false);
+            // something queued from another thread between the poll and the reset
+            if (!controlFrameQueue.isEmpty() || !streamsQueue.isEmpty()) {
+                write();
+            } else if (drained && onDrained != null) {
+                onDrained.run();
+            }
+            return;
+        }
+
+        wrote = true;
+        writeSlot[0] = buffer;
+        client.write(writeSlot, 0, 1, buffer, new CompletionHandler<Long, ByteBuffer>() {
+            @Override
+            public void completed(Long result, ByteBuffer buf) {
+                if (buf.hasRemaining()) {
+                    client.write(writeSlot, 0, 1, buf, this);
+                } else {
+                    doWrite(); // 🚀 写下一个
+                }
+            }
+
+            @Override
+            public void failed(Throwable exc, ByteBuffer attachment) {
+                close();
+            }
+        });
+    }
+
+
+    @Override
+    public void onRead(ReadHandler handler) {
+        this.readHandler = handler;
+        readLoop();
+    }
+
+    // the handler copies what it needs, so the buffer goes back to the pool after every read
+    private void readLoop() {
+        if (idleDeadline != null) {
+            idleDeadline.arm(idleTimeoutMillis);
+        }
+        ByteBuffer readBuffer = pool.acquire(recvSize.nextSize());
+        int space = readBuffer.remaining();
+        client.read(readBuffer, null, new CompletionHandler<>() {
+            @Override
+            public void completed(Integer result, Object attachment) {
+                if (result == -1) {
+                    pool.release(readBuffer);
+                    close();
+                    return;
+                }
+                recvSize.record(result, space);
+                readBuffer.flip();
+                try {
+                    readHandler.onRead(readBuffer);
+                } finally {
+                    pool.release(readBuffer);
+                }
+                readLoop();
+            }
+
+            @Override
+            public void failed(Throwable exc, Object attachment) {
+                pool.release(readBuffer);
+                close();
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        if (idleDeadline != null) {
+            idleDeadline.disarm();
+        }
+        try {
+            client.close();
+        } catch (IOException ignored){}
+        if (closed.compareAndSet(false, true) && onClose != null) {
+            onClose.run();
+        }
+    }
+
+    public BlockingQueue<ByteBuffer> getControlFrameQueue() {
+        return controlFrameQueue;
+    }
+
+    public BlockingQueue<ByteBuffer> getStreamsQueue() {
+        return streamsQueue;
+    }
+}
@@ -0,0 +1,40 @@
+package org.example.connection;
+
+import java.util.Locale;
+
+/**
+ * Engines the plaintext listener can run on, picked at startup
+ * (HarmarHttpServer.setTransport or -Dharmar.transport=aio|nio|netty|virtual).
+ */
+public enum TransportType {
+    // NIO.2 completion handlers on channel-group thread pools
+    AIO,
+    // one Selector event loop per thread, non-blocking SocketChannels
+    NIO,
+    // Netty, native epoll when available
+    NETTY,
+    // blocking sockets, one virtual thread per connection
+    VIRTUAL;
+
+    /**
+     * @param threads   I/O threads (AIO completion threads, NIO selector loops, Netty event loops), unused by
+     *                  VIRTUAL whose carriers are the JDK scheduler's
+     * @param listeners listener sockets, more than one binds them with SO_REUSEPORT
+     */
+    public Transport create(int threads, int listeners, int backlog) {
+        return switch (this) {
+            case AIO -> new AioTransport(threads, listeners, backlog);
+            case NIO -> new NioTransport(threads, listeners, backlog);
+            case NETTY -> new NettyTransport(threads, listeners, backlog);
+            case VIRTUAL -> new VirtualThreadTransport(listeners, backlog);
+        };
+    }
+
+    public static TransportType fromSystemProperty() {
+        String value = System.getProperty("harmar.transport");
+        if (value == null || value.isBlank()) {
+            return AIO;
+        }
+        return valueOf(value.trim().toUpperCase(Locale.ROOT));
+    }
+}
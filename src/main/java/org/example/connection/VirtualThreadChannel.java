@@ -0,0 +1,75 @@
+package org.example.connection;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.SocketChannel;
+
+/**
+ * TransportChannel over a blocking SocketChannel: each read or write is a blocking call on a fresh virtual thread,
+ * which then runs the completion handler. For callback-style code on the {@link VirtualThreadTransport}
+ * (h2c after the handoff, or no blocking acceptor at all). Closing the socket makes the blocked call throw,
+ * the handler sees that as failed().
+ */
+final class VirtualThreadChannel implements TransportChannel {
+    private final SocketChannel channel;
+    private final Runnable onClose;
+
+    VirtualThreadChannel(SocketChannel channel, Runnable onClose) {
+        this.channel = channel;
+        this.onClose = onClose;
+    }
+
+    @Override
+    public <A> void read(ByteBuffer dst, A attachment, CompletionHandler<Integer, ? super A> handler) {
+        Thread.startVirtualThread(() -> {
+            int n;
+            try {
+                n = channel.read(dst);
+            } catch (Throwable e) {
+                handler.failed(e, attachment);
+                return;
+            }
+            handler.completed(n, attachment);
+        });
+    }
+
+    @Override
+    public <A> void write(ByteBuffer[] srcs, int offset, int length, A attachment, CompletionHandler<Long, ? super A> handler) {
+        Thread.startVirtualThread(() -> {
+            long n;
+            try {
+                n = channel.write(srcs, offset, length);
+            } catch (Throwable e) {
+                handler.failed(e, attachment);
+                return;
+            }
+            handler.completed(n, attachment);
+        });
+    }
+
+    @Override
+    public void shutdownOutput() throws IOException {
+        channel.shutdownOutput();
+    }
+
+    @Override
+    public SocketAddress getRemoteAddress() throws IOException {
+        return channel.getRemoteAddress();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            channel.close();
+        } finally {
+            onClose.run();
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package org.example.connection;
+
+import org.example.log.Logger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Thread-per-connection engine: blocking SocketChannels, every accepted connection runs on its own virtual thread.
+ *
+ * A blocked read or write parks the virtual thread and frees its carrier, so 100k idle connections cost a
+ * parked stack each rather than an OS thread. With a {@link BlockingAcceptor} set, the protocol code drives the
+ * socket itself in straight-line code; otherwise connections are wrapped in {@link VirtualThreadChannel} and
+ * handed to the ordinary {@link Acceptor}. Carrier threads are the JDK's virtual thread scheduler
+ * (-Djdk.virtualThreadScheduler.parallelism), there are no I/O threads of our own.
+ */
+public class VirtualThreadTransport implements Transport {
+    private static final Logger log = Logger.get(VirtualThreadTransport.class);
+
+    @FunctionalInterface
+    public interface BlockingAcceptor {
+        /**
+         * runs on the connection's virtual thread for as long as it likes; the channel is closed
+         * when this returns unless it was handed on with {@link #adapt}
+         */
+        void serve(SocketChannel channel) throws IOException;
+    }
+
+    private final int listenerCount;
+    private final int backlog;
+    private final List<ServerSocketChannel> listeners = new ArrayList<>();
+    // open connections, closed on shutdown to wake their threads
+    private final Set<SocketChannel> connections = ConcurrentHashMap.newKeySet();
+    // connections handed on as TransportChannels, they outlive serve()
+    private final Set<SocketChannel> adapted = ConcurrentHashMap.newKeySet();
+    private volatile boolean running;
+    private volatile BlockingAcceptor blockingAcceptor;
+
+    public VirtualThreadTransport(int listenerCount, int backlog) {
+        this.listenerCount = Math.max(1, listenerCount);
+        this.backlog = backlog;
+    }
+
+    /**
+     * serve connections with blocking code instead of the TransportChannel callbacks, set before start()
+     */
+    public void setBlockingAcceptor(BlockingAcceptor blockingAcceptor) {
+        this.blockingAcceptor = blockingAcceptor;
+    }
+
+    @Override
+    public void start(int port, Acceptor acceptor) throws IOException {
+        int count = listenerCount;
+        if (count > 1 && !supportsReusePort()) {
+            log.warn("SO_REUSEPORT not supported, using a single listener");
+            count = 1;
+        }
+        running = true;
+        try {
+            for (int i = 0; i < count; i++) {
+                ServerSocketChannel server = ServerSocketChannel.open();
+                listeners.add(server);
+                server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+                if (count > 1) {
+                    server.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                }
+                server.bind(new InetSocketAddress(port), backlog);
+            }
+        } catch (IOException e) {
+            shutdown();
+            throw e;
+        }
+        for (int i = 0; i < count; i++) {
+            ServerSocketChannel server = listeners.get(i);
+            Thread.Builder connectionThreads = Thread.ofVirtual().name("harmar-conn-" + i + "-", 0);
+            Thread.ofVirtual().name("harmar-accept-" + i).start(() -> acceptLoop(server, acceptor, connectionThreads));
+        }
+
+        log.info("Virtual thread transport on port {} with {} listener(s)", getLocalPort(), count);
+    }
+
+    private static boolean supportsReusePort() {
+        try (ServerSocketChannel probe = ServerSocketChannel.open()) {
+            return probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // the builder numbers threads and is not thread safe, each accept loop has its own
+    private void acceptLoop(ServerSocketChannel server, Acceptor acceptor, Thread.Builder connectionThreads) {
+        while (running) {
+            SocketChannel client;
+            try {
+                client = server.accept();
+            } catch (IOException e) {
+                if (running && server.isOpen()) {
+                    log.warn("Accept failed: {}", e.getMessage());
+                    continue;
+                }
+                return;
+            }
+            connections.add(client);
+            if (!running) {
+                closeQuietly(client); // raced with shutdown
+                continue;
+            }
+            connectionThreads.start(() -> serve(client, acceptor));
+        }
+    }
+
+    // connection thread
+    private void serve(SocketChannel client, Acceptor acceptor) {
+        BlockingAcceptor blocking = blockingAcceptor;
+        if (blocking == null) {
+            acceptor.accept(adapt(client));
+            return;
+        }
+        try {
+            blocking.serve(client);
+        } catch (IOException e) {
+            if (client.isOpen()) {
+                log.debug("Connection failed: {}", e.getMessage());
+            }
+        } catch (RuntimeException e) {
+            log.error("Connection thread failed", e);
+        } finally {
+            if (!adapted.contains(client)) {
+                connections.remove(client);
+                closeQuietly(client);
+            }
+        }
+    }
+
+    /**
+     * the connection as a TransportChannel (e.g. for a protocol that only speaks callbacks),
+     * it then stays open after serve() returns until the channel is closed
+     */
+    public TransportChannel adapt(SocketChannel client) {
+        adapted.add(client);
+        return new VirtualThreadChannel(client, () -> {
+            adapted.remove(client);
+            connections.remove(client);
+        });
+    }
+
+    private static void closeQuietly(SocketChannel client) {
+        try {
+            client.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    @Override
+    public int getLocalPort() {
+        try {
+            return ((InetSocketAddress) listeners.get(0).getLocalAddress()).getPort();
+        } catch (IOException | IndexOutOfBoundsException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        running = false;
+        for (ServerSocketChannel server : listeners) {
+            try {
+                server.close();
+            } catch (IOException e) {
+                log.warn("Error while closing server channel: {}", e.getMessage());
+            }
+        }
+        listeners.clear();
+        // a blocked read or write fails with AsynchronousCloseException and its thread winds down
+        for (SocketChannel client : connections) {
+            closeQuietly(client);
+        }
+        connections.clear();
+        adapted.clear();
+    }
+}
@@ -1,5 +1,7 @@
 package org.example.http2;
 
+import org.example.log.Logger;
+
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
@@ -10,6 +12,7 @@ import java.util.Map;
 import static org.example.http2.HuffmanTable.HUFFMAN_TABLE;
 
 public class HpackDecoder {
+    private static final Logger log = Logger.get(HpackDecoder.class);
 
     private HpackDynamicTable hpackDynamicTable;
     private static final String[][] STATIC_TABLE = StaticTable.TABLE;
@@ -193,7 +196,7 @@ public class HpackDecoder {
             }
             else if ((firstByte & 0x10) != 0) { // Literal Never Indexed
                 // 阶段0先跳过
-                System.out.println("Skipping never-indexed header (stage0)");
+                log.debug("Skipping never-indexed header (stage0)");
             } else {
                 throw new IOException("Unknown header type: " + firstByte);
             }
@@ -1,9 +1,13 @@
 package org.example.http2;
 
+import org.example.log.Logger;
+
 import java.util.Deque;
 import java.util.LinkedList;
 
 public class HpackDynamicTable {
+    private static final Logger log = Logger.get(HpackDynamicTable.class);
+
     private int maxSize;            // 动态表容量上限
     private int currentSize;        // 当前占用大小
     private Deque<HpackDynamicEntry> entries;
@@ -32,7 +36,7 @@ public class HpackDynamicTable {
 
     public HpackDynamicEntry getEntry(int index) {
         if (index > entries.size()) {
-            System.out.println("Index out of range: " + index);
+            log.warn("Index out of range: {}", index);
             return null;
         }
         return ((LinkedList<HpackDynamicEntry>) entries).get(index);
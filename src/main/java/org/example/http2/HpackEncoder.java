@@ -14,6 +14,13 @@ public class HpackEncoder {
     }
 
     public byte[] encode(Map<String, String> headers) {
+        // the table belongs to the connection, handlers may encode from several threads
+        synchronized (dynamicTable) {
+            return encodeBlock(headers);
+        }
+    }
+
+    private byte[] encodeBlock(Map<String, String> headers) {
         ByteArrayOutputStream out = new ByteArrayOutputStream();
 
         for (Map.Entry<String, String> e : headers.entrySet()) {
@@ -1,12 +1,15 @@
 package org.example.http2;
 
 import org.example.Router;
-import org.example.connection.AioConnection;
+import org.example.StaticFileService;
+import org.example.connection.TransportConnection;
 import org.example.connection.Connection;
+import org.example.log.AccessLog;
+import org.example.log.Logger;
+import org.example.security.AdmissionController;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.channels.AsynchronousSocketChannel;
 import java.nio.channels.CompletionHandler;
 import java.nio.charset.StandardCharsets;
 import java.util.EnumSet;
@@ -18,16 +21,49 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
 
 public class Http2ConnectionManager {
-    private final AioConnection client;
+    private static final Logger log = Logger.get(Http2ConnectionManager.class);
+
+    private final TransportConnection client;
     private Router router;
-    Http2Manager http2Manager = new Http2Manager(router);
+    Http2Manager http2Manager;
 
-    public Http2ConnectionManager(AioConnection client, Router router) {
+    public Http2ConnectionManager(TransportConnection client, Router router) {
         this.client = client;
         this.router = router;
+        this.http2Manager = new Http2Manager(router);
+        this.http2Manager.setOnResponseReady(this::flushResponses);
+        // next DATA frames of the bodies once the last ones are out
+        client.setOnDrained(() -> {
+            if (http2Manager.hasPendingBodies()) {
+                flushResponses();
+            }
+        });
+        client.setOnClose(http2Manager::releaseBodies);
+    }
+
+    public void setAdmissionController(AdmissionController admissionController, String clientIp) {
+        http2Manager.setAdmissionController(admissionController, clientIp);
+    }
+
+    public void setAccessLog(AccessLog accessLog) {
+        http2Manager.setAccessLog(accessLog);
+    }
+
+    public void setStaticFiles(StaticFileService staticFiles) {
+        http2Manager.setStaticFiles(staticFiles);
     }
 
     public void start() {
+        start(null);
+    }
+
+    /**
+     * @param initial bytes after the connection preface that were read during protocol detection, may be null
+     */
+    public void start(ByteBuffer initial) {
+        if (initial != null && initial.hasRemaining() && http2Manager.decodeAndHandle(initial)) {
+            flushResponses();
+        }
         readNextFrame();
     }
 
@@ -35,27 +71,28 @@ public class Http2ConnectionManager {
         client.onRead(readBuffer -> {
             boolean hasFrame = http2Manager.decodeAndHandle(readBuffer);
             if (hasFrame) {
-                // combine control frame and stream response to
-                // a ByteBuffer
-                BlockingQueue<ByteBuffer> controlFrameQueue = http2Manager.getControlFrameQueue();
-                Map<Integer, Http2Stream> streams = http2Manager.getStreams();
-                BlockingQueue<Frame> responseQueues = new LinkedBlockingQueue<>();
-                for (Http2Stream stream : streams.values()) {
-                    BlockingQueue<Frame> responseQueue = stream.getResponseQueue();
-                    responseQueues.addAll(responseQueue);
-                }
-                client.getControlFrameQueue().addAll(controlFrameQueue);
-                while (!responseQueues.isEmpty()) {
-                    client.getStreamsQueue().add(ByteBuffer.wrap(responseQueues.poll().toBytes()));
-                }
-                client.write();
+                flushResponses();
             }
         });
     }
 
+    // I/O thread after a read, or a handler thread once it is done; drained frames are not sent twice
+    private synchronized void flushResponses() {
+        http2Manager.frameResponseBodies();
+        // combine control frame and stream response to
+        // a ByteBuffer
+        BlockingQueue<ByteBuffer> controlFrameQueue = http2Manager.getControlFrameQueue();
+        List<Frame> responseFrames = http2Manager.pollResponseFrames();
+        controlFrameQueue.drainTo(client.getControlFrameQueue());
+        for (Frame frame : responseFrames) {
+            client.getStreamsQueue().add(ByteBuffer.wrap(frame.toBytes()));
+        }
+        client.write();
+    }
+
 
     private void close() {
         client.close();
-        System.out.println("⚡ HTTP/2 connection closed");
+        log.debug("HTTP/2 connection closed");
     }
 }
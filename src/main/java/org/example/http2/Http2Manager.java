@@ -1,28 +1,76 @@
 package org.example.http2;
 
+import org.example.CannedResponse;
 import org.example.HttpRequest;
+import org.example.HttpResponse;
+import org.example.HttpStatus;
 import org.example.Protocol;
+import org.example.ResponseBody;
 import org.example.Router;
+import org.example.StaticFileService;
+import org.example.log.AccessLog;
+import org.example.log.Logger;
+import org.example.security.AdmissionController;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
 
 public class Http2Manager {
+    private static final Logger log = Logger.get(Http2Manager.class);
+    // bigger DATA frames than this save little frame overhead and hold more memory, whatever the peer allows
+    private static final int MAX_DATA_FRAME = 64 * 1024;
+    // DATA bytes framed per frameResponseBodies call, the rest waits until the transport wrote those
+    private static final int FRAMING_BUDGET = 256 * 1024;
+    private static final ByteBuffer NO_DATA = ByteBuffer.allocate(0);
+    // connection-specific, not allowed in HTTP/2 (RFC 9113 8.2.2)
+    private static final Set<String> CONNECTION_HEADERS =
+            Set.of("connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade");
+
     private BlockingQueue<ByteBuffer> controlFrameQueue = new LinkedBlockingQueue<>();
     private final Map<Integer, Http2Stream> streams = new ConcurrentHashMap<>();
-    private final ByteBuffer readBuffer = ByteBuffer.allocate(8192);
-    private HpackDynamicTable hpackDynamicTable = new HpackDynamicTable(4 * 1024 * 1024);
+    // one table per direction (RFC 7541 2.2): the decoder's is only used on the I/O thread, the encoder's by
+    // handlers on any thread under its lock, see Http2Stream.queueHeaders
+    private final HpackDynamicTable decoderTable = new HpackDynamicTable(4 * 1024 * 1024);
+    private final HpackDynamicTable encoderTable =
+            new HpackDynamicTable(SettingsConfig.HEADER_TABLE_SIZE.getDefaultValue());
+    // HEADERS of all streams in the order their blocks were encoded
+    private final BlockingQueue<Frame> headerFrames = new LinkedBlockingQueue<>();
     private final FrameDecoder decoder = new FrameDecoder();
     private final Router router;
     private int lastClientStreamId = 0;
+    // transport hook, called when a handler finished off the I/O thread and frames are queued
+    private Runnable onResponseReady = () -> {};
+    // handlers off the I/O thread run one after another in arrival order: they encode with the
+    // connection's HPACK table, which has to see header blocks in the order they are sent
+    private CompletableFuture<Void> handlerChain = CompletableFuture.completedFuture(null);
+    private AdmissionController admissionController;
+    private String clientIp;
+    private AccessLog accessLog;
+    // answers requests no route takes, null: they get no response
+    private StaticFileService staticFiles;
+
+    // flow control of what we send (RFC 9113 6.9), from the peer's SETTINGS and WINDOW_UPDATEs. guarded by this,
+    // initialWindowSize is only written on the I/O thread
+    private int connectionSendWindow = SettingsConfig.INITIAL_WINDOW_SIZE.getDefaultValue();
+    private volatile int initialWindowSize = SettingsConfig.INITIAL_WINDOW_SIZE.getDefaultValue();
+    private int maxFrameSize = SettingsConfig.MAX_FRAME_SIZE.getDefaultValue();
+    // streams with a response body still to frame, in the order they got it. guarded by this
+    private final Map<Integer, Http2Stream> sending = new LinkedHashMap<>();
+    // the connection is gone, see releaseBodies. guarded by this
+    private boolean released;
 
     public Http2Manager(Router router) {
         // 默认设置
@@ -49,7 +97,7 @@ public class Http2Manager {
         readBuffer.clear();
 
         for (Frame frame : frames) {
-            System.out.println("⚡ Received frame: " + frame);
+            log.debug("Received frame: {}", frame);
 
             switch (frame.header.FrameType) {
                 case SETTINGS -> handleSettings(frame);
@@ -57,36 +105,58 @@ public class Http2Manager {
                 case HEADERS -> {
                     try {
                         if (frame.header.StreamID % 2 == 0) throw new Http2ProtocolException("Invalid stream id");
-                        Http2Stream stream = streams.computeIfAbsent(frame.header.StreamID, Http2Stream::new);
+                        Http2Stream stream = streams.computeIfAbsent(frame.header.StreamID, this::newStream);
                         stream.onRecvFrame(frame);
                         lastClientStreamId = frame.header.StreamID;
                         handleHeaders(frame);
                     } catch (Http2ProtocolException e) {
-                        System.err.println(e.getMessage());
+                        log.warn("Stream error: {}", e.getMessage());
 //                        sendGoAway();
                         sendRST_STREAM(frame.header.StreamID, ErrorCode.PROTOCOL_ERROR);
                     }
                 }
                 case DATA, RST_STREAM -> {
                     // 找已有 stream 或新建
-                    Http2Stream stream = streams.computeIfAbsent(frame.header.StreamID, Http2Stream::new);
+                    Http2Stream stream = streams.computeIfAbsent(frame.header.StreamID, this::newStream);
 
                     // 推入请求帧，并更新状态
                     stream.onRecvFrame(frame);
 
                 }
-                case WINDOW_UPDATE, GOAWAY -> {
+                case WINDOW_UPDATE -> handleWindowUpdate(frame);
+
+                case GOAWAY -> {
 
                 }
 
                 default -> {
-                    System.out.println("⚠️ Unknown frame type: " + frame.header.FrameType);
+                    log.debug("Unknown frame type: {}", frame.header.FrameType);
                 }
             }
         }
         return true;
     }
 
+    private Http2Stream newStream(int streamId) {
+        return new Http2Stream(streamId, initialWindowSize, encoderTable, headerFrames);
+    }
+
+    // more room for DATA on the connection (stream 0) or on one stream
+    private synchronized void handleWindowUpdate(Frame frame) {
+        if (frame.payload == null || frame.payload.length != 4) {
+            return;
+        }
+        int increment = ByteBuffer.wrap(frame.payload).getInt() & 0x7FFFFFFF;
+        if (frame.header.StreamID == 0) {
+            connectionSendWindow = (int) Math.min(Integer.MAX_VALUE, (long) connectionSendWindow + increment);
+        } else {
+            Http2Stream stream = streams.get(frame.header.StreamID);
+            if (stream != null) {
+                stream.addSendWindow(increment);
+            }
+        }
+    }
+
     private void sendRST_STREAM(int streamID, ErrorCode errorCode) {
         Frame rstStream = new Frame(new FrameHeader(0, FrameType.RST_STREAM, null, streamID), null);
         byte[] errorCodeBytes = ByteBuffer.allocate(4).putInt(errorCode.getCode()).array();
@@ -116,37 +186,261 @@ public class Http2Manager {
     private void handleHeaders(Frame frame) {
         int streamId = frame.header.StreamID;
 
-        Http2Stream stream = streams.computeIfAbsent(streamId, Http2Stream::new);
+        Http2Stream stream = streams.computeIfAbsent(streamId, this::newStream);
 
         // unpack HPACK
         Map<String, String> headers = new ConcurrentHashMap<>();
         byte[] hpack = frame.getPayload();
         try {
-            HpackDecoder decoder = new HpackDecoder(hpackDynamicTable);
+            HpackDecoder decoder = new HpackDecoder(decoderTable);
             headers = decoder.decode(frame);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
 
-        for (Map.Entry<String, String> entry : headers.entrySet()) {
-            String key = entry.getKey();
-            String value = entry.getValue();
-            System.out.println("  " + key + ": " + value);
+        if (log.isDebugEnabled()) {
+            for (Map.Entry<String, String> entry : headers.entrySet()) {
+                log.debug("  {}: {}", entry.getKey(), entry.getValue());
+            }
         }
 
         HttpRequest request = new HttpRequest();
         request.method = headers.get(":method");
         request.path = headers.get(":path");
         request.protocol = Protocol.HTTP2_OVER_TLS;
+        // names are lower case in HTTP/2, as the static file path looks them up
+        request.headers = headers;
 
         Router.RouteMatchHttp2 match = router.findMatchHttp2(headers.get(":method"), headers.get(":path"));
-        if (match != null) {
-            try {
-                match.handler.handle(request, stream, match.pathParams, hpackDynamicTable, streamId);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+        if (match == null && staticFiles == null) {
+            // nothing serves this path, end the stream rather than leave it open
+            endStream(stream, HttpStatus.NOT_FOUND);
+            if (accessLog != null) {
+                accessLog.log(clientIp, request.method, request.path, "HTTP/2.0", HttpStatus.NOT_FOUND.code, 0, 0);
+            }
+            return;
+        }
+
+        AdmissionController.Permit permit = null;
+        if (admissionController != null) {
+            permit = admissionController.tryAcquire(clientIp);
+            if (!permit.isAdmitted()) {
+                reject(stream, streamId, permit.getRejection());
+                if (accessLog != null) {
+                    accessLog.log(clientIp, request.method, request.path, "HTTP/2.0", permit.getRejection().code, 0, 0);
+                }
+                return;
+            }
+        }
+
+        AdmissionController.Permit admitted = permit;
+        // no route: the doc root, on this thread like a non-blocking route
+        Runnable respond = match != null
+                ? () -> invoke(match, request, stream, streamId, admitted)
+                : () -> serveStatic(request, stream, streamId, admitted);
+        if (match != null && match.blocking || !handlerChain.isDone()) {
+            // a non-blocking one queues up behind a running blocking one to keep the order
+            handlerChain = handlerChain.thenRunAsync(() -> {
+                try {
+                    respond.run();
+                } catch (RuntimeException e) {
+                    log.error("Handler failed: {}", request.path, e);
+                }
+                onResponseReady.run();
+            }, router.getBlockingExecutor());
+            return;
+        }
+        respond.run();
+    }
+
+    private void invoke(Router.RouteMatchHttp2 match, HttpRequest request, Http2Stream stream, int streamId,
+                        AdmissionController.Permit permit) {
+        boolean ok = false;
+        long start = System.nanoTime();
+        try {
+            match.handler.handle(request, stream, match.pathParams, encoderTable, streamId);
+            ok = true;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (permit != null) {
+                admissionController.release(permit, ok);
+            }
+            if (accessLog != null) {
+                // the status is inside the handler's HEADERS frame
+                accessLog.log(clientIp, request.method, request.path, "HTTP/2.0", ok ? -1 : 500, -1,
+                        (System.nanoTime() - start) / 1000);
+            }
+        }
+    }
+
+    private void serveStatic(HttpRequest request, Http2Stream stream, int streamId,
+                             AdmissionController.Permit permit) {
+        boolean ok = false;
+        long start = System.nanoTime();
+        HttpResponse response = new HttpResponse();
+        try {
+            if (!staticFiles.serve(request, response)) {
+                CannedResponse.NOT_IMPLEMENTED.applyTo(response);
+            }
+            queueResponse(stream, streamId, response);
+            ok = true;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (permit != null) {
+                admissionController.release(permit, ok);
+            }
+            if (accessLog != null) {
+                accessLog.log(clientIp, request.method, request.path, "HTTP/2.0",
+                        ok ? response.getStatus().code : 500, ok ? response.getContentLength() : 0,
+                        (System.nanoTime() - start) / 1000);
+            }
+        }
+    }
+
+    /**
+     * an HTTP/1 style response on a stream: a HEADERS frame from its status and headers (names in lower case,
+     * the connection-specific ones left out), then its body as DATA frames, see {@link #frameResponseBodies}
+     */
+    public void queueResponse(Http2Stream stream, int streamId, HttpResponse response) {
+        Map<String, String> responseHeaders = new LinkedHashMap<>();
+        responseHeaders.put(":status", String.valueOf(response.getStatus().code));
+        for (Map.Entry<String, String> header : response.getHeaders().entrySet()) {
+            String name = header.getKey().toLowerCase(Locale.ROOT);
+            if (!CONNECTION_HEADERS.contains(name)) {
+                responseHeaders.put(name, header.getValue());
+            }
+        }
+        ResponseBody body = response.getBody();
+        stream.queueHeaders(responseHeaders, body == null);
+        if (body == null) {
+            return;
+        }
+        // a file read that completes brings the transport back to frame it
+        body.setOnDataAvailable(() -> onResponseReady.run());
+        synchronized (this) {
+            if (released) {
+                body.release(); // a handler that finished after the connection closed
+                return;
+            }
+            stream.sendBody(body);
+            sending.put(streamId, stream);
+        }
+    }
+
+    /**
+     * cut the pending response bodies into DATA frames on their streams' queues, as far as the peer's windows
+     * and the bytes the bodies have ready allow; streams take turns a frame at a time, END_STREAM goes on an
+     * empty last frame. transports call it before draining the queues, and again once the DATA they wrote is
+     * out while {@link #hasPendingBodies} (at most FRAMING_BUDGET bytes per call)
+     */
+    public synchronized void frameResponseBodies() {
+        int budget = FRAMING_BUDGET;
+        boolean progress = true;
+        while (progress && budget > 0 && !sending.isEmpty()) {
+            progress = false;
+            Iterator<Http2Stream> it = sending.values().iterator();
+            while (it.hasNext() && budget > 0) {
+                int framed = frameNext(it.next(), budget);
+                if (framed < 0) {
+                    it.remove();
+                } else if (framed > 0) {
+                    budget -= framed;
+                    progress = true;
+                }
+            }
+        }
+    }
+
+    public synchronized boolean hasPendingBodies() {
+        return !sending.isEmpty();
+    }
+
+    // one DATA frame of the stream's body: its length, 0 if it waits for a window or the body, -1 once done
+    private int frameNext(Http2Stream stream, int budget) {
+        ResponseBody body = stream.getBody();
+        int streamId = stream.getStreamId();
+        if (stream.isClosed()) {
+            // reset by the peer
+            finishBody(stream, body);
+            return -1;
+        }
+        if (body.getFailure() != null) {
+            log.warn("Response body failed on stream {}", streamId, body.getFailure());
+            finishBody(stream, body);
+            sendRST_STREAM(streamId, ErrorCode.INTERNAL_ERROR);
+            return -1;
+        }
+        int max = Math.min(Math.min(maxFrameSize, budget), Math.min(connectionSendWindow, stream.getSendWindow()));
+        // nothing is allocated while the stream waits for a window or for its body
+        int size = max > 0 ? body.available(max) : 0;
+        if (size == 0) {
+            // END_STREAM needs no window, an empty read tells whether the body is done
+            if (body.read(NO_DATA) < 0) {
+                finishBody(stream, body);
+                stream.queueResponse(new Frame(new FrameHeader(0, FrameType.DATA, EnumSet.of(FrameFlag.END_STREAM),
+                        streamId), null));
+                return -1;
             }
+            return 0;
+        }
+        // only read here, under the lock: the read fills exactly what available counted
+        byte[] payload = new byte[size];
+        int n = body.read(ByteBuffer.wrap(payload));
+        stream.queueResponse(new Frame(new FrameHeader(n, FrameType.DATA, EnumSet.noneOf(FrameFlag.class),
+                streamId), payload));
+        connectionSendWindow -= n;
+        stream.addSendWindow(-n);
+        return n;
+    }
+
+    /**
+     * the connection is gone, the bodies not sent yet give back what they hold
+     */
+    public synchronized void releaseBodies() {
+        released = true;
+        for (Http2Stream stream : sending.values()) {
+            finishBody(stream, stream.getBody());
         }
+        sending.clear();
+    }
+
+    private void finishBody(Http2Stream stream, ResponseBody body) {
+        stream.sendBody(null);
+        body.release();
+    }
+
+    // shed by the admission controller: headers-only response ending the stream
+    private void reject(Http2Stream stream, int streamId, HttpStatus status) {
+        Map<String, String> responseHeaders = new LinkedHashMap<>();
+        responseHeaders.put(":status", String.valueOf(status.code));
+        responseHeaders.put("retry-after", "1");
+        stream.queueHeaders(responseHeaders, true);
+    }
+
+    // headers-only response ending the stream
+    private void endStream(Http2Stream stream, HttpStatus status) {
+        Map<String, String> responseHeaders = new LinkedHashMap<>();
+        responseHeaders.put(":status", String.valueOf(status.code));
+        stream.queueHeaders(responseHeaders, true);
+    }
+
+    public void setAdmissionController(AdmissionController admissionController, String clientIp) {
+        this.admissionController = admissionController;
+        this.clientIp = clientIp;
+    }
+
+    public void setAccessLog(AccessLog accessLog) {
+        this.accessLog = accessLog;
+    }
+
+    public void setStaticFiles(StaticFileService staticFiles) {
+        this.staticFiles = staticFiles;
+    }
+
+    public void setOnResponseReady(Runnable onResponseReady) {
+        this.onResponseReady = onResponseReady;
     }
 
     /**
@@ -167,8 +461,10 @@ public class Http2Manager {
         // parse config and apply
         byte[] settingsConfig = frame.payload;
         EnumSet<SettingsConfig> configs = parseConfig(settingsConfig);
-        for (SettingsConfig config : configs) {
-            System.out.println("  " + config.name() + ": " + config.getDefaultValue());
+        if (log.isDebugEnabled()) {
+            for (SettingsConfig config : configs) {
+                log.debug("  {}: {}", config.name(), config.getDefaultValue());
+            }
         }
 
         // ACK = 0, apply settings and send ACK to client
@@ -203,18 +499,55 @@ public class Http2Manager {
                 // 因为 enum 本身不能存值，我们可以用一个临时封装类或者 Map 记录
                 // 这里为了简单，直接用 EnumSet 返回“存在的配置项”
                 result.add(config);
-
-                // 你也可以在这里直接应用 value，比如：
-                // applySetting(config, value);
+                applySetting(config, value);
             } else {
                 // 未知设置项，RFC 建议忽略
-                System.out.println("Unknown SETTINGS ID: " + id);
+                if (log.isDebugEnabled()) {
+                    log.debug("Unknown SETTINGS ID: {}", id);
+                }
             }
         }
 
         return result;
     }
 
+    // the values that change how we send, the others don't matter to us
+    private synchronized void applySetting(SettingsConfig config, int value) {
+        switch (config) {
+            case INITIAL_WINDOW_SIZE -> {
+                if (value < 0) {
+                    return; // above 2^31-1, a FLOW_CONTROL_ERROR we don't raise
+                }
+                // open streams move by the difference, RFC 9113 6.9.2
+                int delta = value - initialWindowSize;
+                initialWindowSize = value;
+                for (Http2Stream stream : streams.values()) {
+                    stream.addSendWindow(delta);
+                }
+            }
+            case MAX_FRAME_SIZE -> maxFrameSize = Math.max(SettingsConfig.MAX_FRAME_SIZE.getDefaultValue(),
+                    Math.min(value, MAX_DATA_FRAME));
+            default -> {
+            }
+        }
+    }
+
+    /**
+     * the stream frames ready to send: HEADERS in the order they were encoded, then DATA, each stream's
+     * after its HEADERS
+     */
+    public List<Frame> pollResponseFrames() {
+        List<Frame> data = new ArrayList<>();
+        // DATA first: the HEADERS of whatever is taken here was queued before it and is taken below
+        for (Http2Stream stream : streams.values()) {
+            stream.getResponseQueue().drainTo(data);
+        }
+        List<Frame> frames = new ArrayList<>();
+        headerFrames.drainTo(frames);
+        frames.addAll(data);
+        return frames;
+    }
+
     public BlockingQueue<ByteBuffer> getControlFrameQueue() {
         return controlFrameQueue;
     }
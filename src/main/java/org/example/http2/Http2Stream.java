@@ -1,5 +1,9 @@
 package org.example.http2;
 
+import org.example.ResponseBody;
+
+import java.util.EnumSet;
+import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 
@@ -8,9 +12,28 @@ public class Http2Stream {
     private final BlockingQueue<Frame> requestFrames = new LinkedBlockingQueue<>();
     private final BlockingQueue<Frame> responseFrames = new LinkedBlockingQueue<>();
     private StreamState state = StreamState.IDLE;
+    // bytes of DATA the peer lets us send on this stream (its INITIAL_WINDOW_SIZE plus WINDOW_UPDATEs)
+    private int sendWindow;
+    // response body still to be cut into DATA frames, see Http2Manager.frameResponseBodies
+    private ResponseBody body;
+    // the connection's HPACK table for what we send, and its HEADERS queue in encoding order; null: HEADERS
+    // stay on this stream's queue
+    private final HpackDynamicTable encoderTable;
+    private final BlockingQueue<Frame> headerFrames;
 
     public Http2Stream(int streamId) {
+        this(streamId, SettingsConfig.INITIAL_WINDOW_SIZE.getDefaultValue());
+    }
+
+    public Http2Stream(int streamId, int sendWindow) {
+        this(streamId, sendWindow, null, null);
+    }
+
+    public Http2Stream(int streamId, int sendWindow, HpackDynamicTable encoderTable, BlockingQueue<Frame> headerFrames) {
         this.streamId = streamId;
+        this.sendWindow = sendWindow;
+        this.encoderTable = encoderTable;
+        this.headerFrames = headerFrames;
     }
 
     // ------------------- 基本字段访问 -------------------
@@ -109,8 +132,12 @@ public class Http2Stream {
 //            throw new Http2ProtocolException("Stream " + streamId + " is closed");
             return;
         }
-        // 放入响应队列
-        responseFrames.offer(frame);
+        // 放入响应队列, HEADERS on the connection's queue: header blocks go out in the order they were encoded
+        if (headerFrames != null && frame.getHeader().FrameType == FrameType.HEADERS) {
+            headerFrames.offer(frame);
+        } else {
+            responseFrames.offer(frame);
+        }
 
         // END_STREAM 自动更新状态
         if (frame.getHeader().FrameFlags.contains(FrameFlag.END_STREAM)) {
@@ -120,6 +147,41 @@ public class Http2Stream {
     }
 
 
+    /**
+     * encode headers with the connection's HPACK table and queue the HEADERS frame in one step, under the
+     * table's lock: a block that refers to entries an earlier one added can't be sent before it
+     */
+    public void queueHeaders(Map<String, String> headers, boolean endStream) {
+        HpackDynamicTable table = encoderTable != null ? encoderTable : new HpackDynamicTable(0);
+        synchronized (table) {
+            byte[] payload = new HpackEncoder(table).encode(headers);
+            queueResponse(new Frame(new FrameHeader(payload.length, FrameType.HEADERS,
+                    endStream ? EnumSet.of(FrameFlag.END_HEADERS, FrameFlag.END_STREAM) : EnumSet.of(FrameFlag.END_HEADERS),
+                    streamId), payload));
+        }
+    }
+
+    /**
+     * the rest of the response after its HEADERS frame; the manager sends it as DATA frames as far as the flow
+     * control windows allow, END_STREAM on the last one
+     */
+    public synchronized void sendBody(ResponseBody body) {
+        this.body = body;
+    }
+
+    synchronized ResponseBody getBody() {
+        return body;
+    }
+
+    synchronized int getSendWindow() {
+        return sendWindow;
+    }
+
+    // may go negative when the peer shrinks INITIAL_WINDOW_SIZE, RFC 9113 6.9.2
+    synchronized void addSendWindow(int delta) {
+        sendWindow = (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, (long) sendWindow + delta));
+    }
+
     // ------------------- 枚举 -------------------
     public enum StreamState {
         IDLE,
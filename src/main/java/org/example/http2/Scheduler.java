@@ -2,12 +2,14 @@ package org.example.http2;
 
 import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
+import org.example.log.Logger;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class Scheduler {
+    private static final Logger log = Logger.get(Scheduler.class);
 
     private final Map<Integer, Queue<SchedulerUnit>> streamQueues = new ConcurrentHashMap<>();
     private final List<Integer> activeStreams = new ArrayList<>();
@@ -49,7 +51,9 @@ public class Scheduler {
                 .addListener(f -> {
                     scheduling = false;
                     if (f.isSuccess()) {
-                        System.out.println("发送 DATA" + unit.streamId);
+                        if (log.isTraceEnabled()) {
+                            log.trace("发送 DATA {}", unit.streamId);
+                        }
                         trySchedule();
                     }
                 });
@@ -1,104 +1,425 @@
 package org.example.https;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 import org.example.HttpRequest;
 
-import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.StringReader;
-import java.net.URLDecoder;
 import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
 
+import org.example.ConnectionManager;
+import org.example.HeadRequestHandler;
 import org.example.HttpResponse;
+import org.example.HttpStatus;
 import org.example.HttpVersion;
+import org.example.CannedResponse;
+import org.example.Protocol;
+import org.example.RequestBody;
+import org.example.ResponseBody;
 import org.example.Router;
-import org.example.protocol.HttpRequestParser;
-
-import static org.example.protocol.HttpRequestParser.findHttpRequestEnd;
+import org.example.StaticFileService;
+import org.example.log.AccessLog;
+import org.example.log.Logger;
+import org.example.security.AdmissionController;
+import org.example.protocol.Http1BodyDecoder;
+import org.example.protocol.Http1RequestParser;
+import org.example.protocol.HttpParseException;
+import org.example.protocol.ResponseHeaderEncoder;
 
 public class HttpsHandler extends SimpleChannelInboundHandler<ByteBuf> {
+    private static final Logger log = Logger.get(HttpsHandler.class);
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+
     private final Router router;
-    private ByteArrayOutputStream cumulation = new ByteArrayOutputStream();
+    private final AdmissionController admissionController;
+    private final AccessLog accessLog;
+    private final StaticFileService staticFiles;
+    private final HeadRequestHandler headRequestHandler = new HeadRequestHandler();
+    private int bodySpillThreshold = RequestBody.DEFAULT_SPILL_THRESHOLD;
+    // decrypted bytes not consumed yet, in write mode between reads; framed like the plaintext listener
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private final Http1RequestParser parser = new Http1RequestParser();
+    // request whose body is still arriving, with its decoder
+    private HttpRequest bodyRequest;
+    private Http1BodyDecoder bodyDecoder;
+    // a malformed request was answered, the connection closes once that is out
+    private boolean closing;
+    // a blocking handler is running, later requests wait in the buffer (event loop only)
+    private boolean handlerRunning;
+    // response body still being written, later requests wait for it too (event loop only)
+    private ResponseBody writingBody;
+    private boolean writingKeepAlive;
+    // some of its buffers are in a write that hasn't completed
+    private boolean bodyWriteInFlight;
 
 
     public HttpsHandler(Router router) {
+        this(router, null);
+    }
+
+    public HttpsHandler(Router router, AdmissionController admissionController) {
+        this(router, admissionController, null);
+    }
+
+    public HttpsHandler(Router router, AdmissionController admissionController, AccessLog accessLog) {
+        this(router, admissionController, accessLog, null);
+    }
+
+    /**
+     * staticFiles answers GET and HEAD requests no route takes, null: 501 for them
+     */
+    public HttpsHandler(Router router, AdmissionController admissionController, AccessLog accessLog,
+                        StaticFileService staticFiles) {
         this.router = router;
+        this.admissionController = admissionController;
+        this.accessLog = accessLog;
+        this.staticFiles = staticFiles;
+    }
+
+    /**
+     * request bodies above this size go to a temp file
+     */
+    public void setBodySpillThreshold(int bodySpillThreshold) {
+        this.bodySpillThreshold = bodySpillThreshold;
     }
 
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, ByteBuf msg) {
-        byte[] data = new byte[msg.readableBytes()];
-        msg.readBytes(data);
-        try {
-            cumulation.write(data);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+        if (closing) {
+            return;
+        }
+        int size = msg.readableBytes();
+        if (buffer.remaining() < size) {
+            // only an unfinished header block stays in the buffer, body bytes are decoded as they come
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + size));
+            buffer.flip();
+            grown.put(buffer);
+            buffer = grown;
+        }
+        msg.readBytes(buffer);
+        processRequests(ctx);
+    }
+
+    // every complete request in the buffer, in order
+    private void processRequests(ChannelHandlerContext ctx) {
+        while (!handlerRunning && !closing) {
+            HttpRequest request;
+            buffer.flip();
+            try {
+                request = bodyRequest != null ? readBody() : parseRequest();
+            } catch (HttpParseException | IOException e) {
+                // framing is lost, answer and close
+                closing = true;
+                if (bodyRequest != null) {
+                    bodyRequest.body.release();
+                    bodyRequest = null;
+                }
+                HttpStatus status = e instanceof HttpParseException parse ? parse.getStatus() : HttpStatus.BAD_REQUEST;
+                writeResponse(ctx, ConnectionManager.errorResponse(HttpVersion.HTTP_1_1, status, e.getMessage()), false);
+                return;
+            } finally {
+                // the parser keeps offsets relative to the request start, it survives the move
+                buffer.compact();
+            }
+            if (request == null) {
+                return;
+            }
+            processRequest(ctx, request);
         }
+    }
 
-        byte[] all = cumulation.toByteArray();
-        int requestEnd = findHttpRequestEnd(ByteBuffer.wrap(all));
-        if (requestEnd == -1) {
+    // the next header block, null until it is complete; a request with a body waits for it
+    private HttpRequest parseRequest() throws IOException {
+        HttpRequest request = parser.parse(buffer);
+        if (request == null || !request.hasBody) {
+            return request;
+        }
+        request.body = new RequestBody(bodySpillThreshold);
+        bodyRequest = request;
+        bodyDecoder = new Http1BodyDecoder(request.contentLength, request.chunked);
+        return readBody();
+    }
+
+    // the whole body before the handler runs, like on virtual thread connections
+    private HttpRequest readBody() throws IOException {
+        if (!bodyDecoder.decode(buffer, bodyRequest.body)) {
+            return null;
+        }
+        HttpRequest request = bodyRequest;
+        request.body.end();
+        bodyRequest = null;
+        bodyDecoder = null;
+        return request;
+    }
+
+    private void processRequest(ChannelHandlerContext ctx, HttpRequest request) {
+        long start = System.nanoTime();
+        log.debug("Received {} {}", request.method, request.path);
+
+        Router.RouteMatchHttp1 match = router.findMatchHttp1(request.method, request.path);
+
+        HttpResponse response = new HttpResponse();
+        response.setHttpVersion(request.protocol == Protocol.HTTP1_1 ? HttpVersion.HTTP_1_1 : HttpVersion.HTTP_1_0);
+
+        boolean keepAlive = request.keepAlive;
+        response.setHeader("Connection", keepAlive ? "keep-alive" : "close");
+
+        AdmissionController.Permit permit = null;
+        if (admissionController != null) {
+            permit = admissionController.tryAcquire(NettyTlsServer.clientIp(ctx));
+            if (!permit.isAdmitted()) {
+                CannedResponse.forRejection(permit.getRejection()).applyTo(response);
+                releaseBody(request);
+                logAccess(ctx, request, response, start);
+                writeResponse(ctx, response, keepAlive);
+                return;
+            }
+        }
+
+        AdmissionController.Permit admitted = permit;
+        if (match != null && match.blocking) {
+            // stop reading so the next request can't overtake this response, the event loop moves on
+            handlerRunning = true;
+            ctx.channel().config().setAutoRead(false);
+            HttpRequest blockingRequest = request;
+            long blockingStart = start;
+            boolean blockingKeepAlive = keepAlive;
+            router.getBlockingExecutor().execute(() -> {
+                HttpResponse result;
+                try {
+                    handle(match, blockingRequest, response, admitted);
+                    result = response;
+                } catch (RuntimeException e) {
+                    result = internalError(blockingRequest, response, e);
+                }
+                releaseBody(blockingRequest);
+                HttpResponse blockingResponse = result;
+                ctx.executor().execute(() -> {
+                    logAccess(ctx, blockingRequest, blockingResponse, blockingStart);
+                    handlerRunning = false;
+                    ctx.channel().config().setAutoRead(true);
+                    // may hold the requests back again until its body is out
+                    writeResponse(ctx, blockingResponse, blockingKeepAlive);
+                    processRequests(ctx);
+                });
+            });
             return;
         }
 
-        byte[] requestData = Arrays.copyOfRange(all, 0, requestEnd);
+        HttpResponse result = response;
+        try {
+            if (match != null) {
+                handle(match, request, response, admitted);
+            } else {
+                serveStatic(request, response, admitted);
+            }
+        } catch (RuntimeException e) {
+            result = internalError(request, response, e);
+        }
+        releaseBody(request);
+
+        logAccess(ctx, request, result, start);
+        writeResponse(ctx, result, keepAlive);
+    }
 
-        String requestStr = new String(requestData);
-        System.out.println("Received HTTP request:\n" + requestStr);
+    // a handler threw: 500 in its place, whatever it had put into the response is dropped
+    private HttpResponse internalError(HttpRequest request, HttpResponse failed, RuntimeException e) {
+        log.error("Handler failed: {}", request.path, e);
+        if (failed.getBody() != null) {
+            failed.getBody().release();
+        }
+        HttpResponse response = new HttpResponse();
+        response.setHttpVersion(failed.getHttpVersion());
+        CannedResponse.INTERNAL_SERVER_ERROR.applyTo(response);
+        return response;
+    }
 
-        HttpRequest request = null;
+    // the handler is done with it, drops a spilled temp file
+    private static void releaseBody(HttpRequest request) {
+        if (request.body != null) {
+            request.body.release();
+        }
+    }
+
+    private void logAccess(ChannelHandlerContext ctx, HttpRequest request, HttpResponse response, long start) {
+        if (accessLog != null) {
+            accessLog.log(NettyTlsServer.clientIp(ctx), request.method, request.path, request.protocol.getName(),
+                    response.getStatus() != null ? response.getStatus().code : -1, response.getContentLength(),
+                    (System.nanoTime() - start) / 1000);
+        }
+    }
+
+    private void handle(Router.RouteMatchHttp1 match, HttpRequest request, HttpResponse response,
+                        AdmissionController.Permit permit) {
+        boolean ok = false;
         try {
-            request = HttpRequestParser.parseRequest(new BufferedReader(new StringReader(requestStr)));
+            match.handler.handle(request, response, match.pathParams);
+            if ("HEAD".equalsIgnoreCase(request.method)) {
+                headRequestHandler.stripBody(response);
+            }
+            ok = true;
         } catch (IOException e) {
             throw new RuntimeException(e);
+        } finally {
+            if (permit != null) {
+                admissionController.release(permit, ok);
+            }
         }
+    }
 
-        Router.RouteMatchHttp1 match = router.findMatchHttp1(request.method, request.path);
-
-        HttpResponse response = new HttpResponse();
-        boolean keepAlive = true;
+    // no route: the doc root, like on the plaintext listener
+    private void serveStatic(HttpRequest request, HttpResponse response, AdmissionController.Permit permit) {
+        boolean ok = false;
+        try {
+            if (staticFiles == null || !staticFiles.serve(request, response)) {
+                CannedResponse.NOT_IMPLEMENTED.applyTo(response);
+            }
+            ok = true;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (permit != null) {
+                admissionController.release(permit, ok);
+            }
+        }
+    }
 
-        if (match != null) {
-            try {
-                // 设置 HTTP 版本
-                response.setHttpVersion(request.protocol.getName().startsWith("HTTP/1.1")
-                        ? HttpVersion.HTTP_1_1
-                        : HttpVersion.HTTP_1_0);
+    private void writeResponse(ChannelHandlerContext ctx, HttpResponse response, boolean keepAlive) {
+        ResponseBody body = response.getBody();
+        CannedResponse canned = response.getCanned();
+        if (canned != null) {
+            // head and body pre-encoded, the ResponseBody copy isn't needed
+            if (body != null) {
+                body.release();
+            }
+            ctx.writeAndFlush(Unpooled.wrappedBuffer(canned.encoded(response.getHttpVersion(), keepAlive)))
+                    .addListener(keepAlive ? f -> {} : ChannelFutureListener.CLOSE);
+            return;
+        }
+        ByteBuf head = Unpooled.wrappedBuffer(ResponseHeaderEncoder.encode(response, keepAlive));
+        if (body == null) {
+            ctx.writeAndFlush(head).addListener(keepAlive ? f -> {} : ChannelFutureListener.CLOSE);
+            return;
+        }
+        ctx.write(head);
+        writingBody = body;
+        writingKeepAlive = keepAlive;
+        body.setOnDataAvailable(() -> ctx.executor().execute(() -> writeBody(ctx, body)));
+        writeBody(ctx, body);
+        if (writingBody == body) {
+            // the rest follows as it becomes ready (file reads), the next request waits for it
+            handlerRunning = true;
+            ctx.channel().config().setAutoRead(false);
+        }
+    }
 
-                // 处理 Connection 头
-                keepAlive = "keep-alive".equalsIgnoreCase(request.headers.getOrDefault("connection", ""));
-                if (!keepAlive) {
-                    response.setHeader("Connection", "close");
+    // what the body has ready goes out as slices of its buffers, no copy; more once that write is done
+    private void writeBody(ChannelHandlerContext ctx, ResponseBody body) {
+        if (body != writingBody || bodyWriteInFlight) {
+            return; // finished already, or called again before the write in flight completed
+        }
+        if (body.getFailure() != null) {
+            // the head promised more than there is
+            log.warn("Response body failed, closing the connection", body.getFailure());
+            writingBody = null;
+            body.release();
+            ctx.close();
+            return;
+        }
+        // before the chunks: whatever was added ahead of end() is seen below
+        boolean end = body.isEnd();
+        List<ByteBuffer> ready = new ArrayList<>();
+        ByteBuffer chunk;
+        while ((chunk = body.peek()) != null) {
+            body.poll();
+            if (chunk.hasRemaining()) {
+                ready.add(chunk);
+            }
+        }
+        if (ready.isEmpty()) {
+            if (end) {
+                writingBody = null;
+                body.release();
+                if (writingKeepAlive) {
+                    bodyDone(ctx);
                 } else {
-                    response.setHeader("Connection", "keep-alive");
+                    ctx.close();
                 }
+            }
+            return; // onDataAvailable brings us back
+        }
 
-                match.handler.handle(request, response, match.pathParams);
-
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+        ByteBuffer[] buffers = ready.toArray(new ByteBuffer[0]);
+        ByteBuf out = Unpooled.wrappedBuffer(buffers);
+        if (end) {
+            // the rest of it: the next request needn't wait for the write, the body goes once it is out
+            writingBody = null;
+            boolean keepAlive = writingKeepAlive;
+            ctx.writeAndFlush(out).addListener(f -> {
+                if (f.isSuccess()) {
+                    consumed(buffers);
+                }
+                body.release();
+                if (!keepAlive) {
+                    ctx.close();
+                }
+            });
+            if (keepAlive) {
+                bodyDone(ctx);
+            }
+            return;
+        }
+        bodyWriteInFlight = true;
+        ctx.writeAndFlush(out).addListener(f -> {
+            bodyWriteInFlight = false;
+            if (!f.isSuccess()) {
+                writingBody = null;
+                body.release();
+                return;
             }
+            consumed(buffers);
+            writeBody(ctx, body);
+        });
+    }
+
+    // the wrapper read through slices, move the body's buffers like a socket write would
+    private static void consumed(ByteBuffer[] buffers) {
+        for (ByteBuffer buffer : buffers) {
+            buffer.position(buffer.limit());
         }
+    }
 
-        // write response
-        ByteBuf out = ctx.alloc().buffer();
-        out.writeBytes(response.toBytes());
-        boolean finalKeepAlive = keepAlive;
-        ctx.writeAndFlush(out).addListener(finalKeepAlive ? f -> {} : ChannelFutureListener.CLOSE);
+    // the body is out (or queued to be), requests held back for it may go
+    private void bodyDone(ChannelHandlerContext ctx) {
+        if (handlerRunning) {
+            handlerRunning = false;
+            ctx.channel().config().setAutoRead(true);
+            processRequests(ctx);
+        }
+    }
 
-        cumulation.reset();
-        cumulation.write(all, requestEnd, all.length - requestEnd);
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) {
+        if (bodyRequest != null) {
+            bodyRequest.body.fail(new EOFException("Connection closed before request body was complete"));
+            bodyRequest.body.release();
+            bodyRequest = null;
+        }
+        if (writingBody != null) {
+            writingBody.release();
+            writingBody = null;
+        }
     }
 
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
-        cause.printStackTrace();
+        log.warn("HTTPS connection failed", cause);
         ctx.close();
     }
 }
@@ -11,29 +11,35 @@ import io.netty.handler.ssl.*;
 import io.netty.handler.ssl.ApplicationProtocolNames;
 import io.netty.handler.ssl.ApplicationProtocolNegotiationHandler;
 import io.netty.handler.ssl.util.SelfSignedCertificate;
+import org.example.RequestBody;
 import org.example.Router;
+import org.example.StaticFileService;
 import org.example.http2.*;
+import org.example.log.AccessLog;
+import org.example.log.Logger;
+import org.example.security.AdmissionController;
 
 import javax.net.ssl.SSLException;
 import java.io.File;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.net.URISyntaxException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.cert.CertificateException;
 import java.util.*;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 
 public class NettyTlsServer {
+    private static final Logger log = Logger.get(NettyTlsServer.class);
 
     private final int port;
     private final SslContext sslContext;
     private final Router router;
-    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(
-            10, 10, 0L, TimeUnit.MILLISECONDS,
-            new LinkedBlockingQueue<Runnable>());
+    private AdmissionController admissionController;
+    private AccessLog accessLog;
+    private StaticFileService staticFiles;
+    private int bodySpillThreshold = RequestBody.DEFAULT_SPILL_THRESHOLD;
 
     public NettyTlsServer(int port, Router router) {
         this.port = port;
@@ -70,6 +76,28 @@ public class NettyTlsServer {
         this.router = router;
     }
 
+    public void setAdmissionController(AdmissionController admissionController) {
+        this.admissionController = admissionController;
+    }
+
+    public void setAccessLog(AccessLog accessLog) {
+        this.accessLog = accessLog;
+    }
+
+    /**
+     * doc root for requests no route takes, over HTTP/1.1 and h2
+     */
+    public void setStaticFiles(StaticFileService staticFiles) {
+        this.staticFiles = staticFiles;
+    }
+
+    /**
+     * request bodies above this size go to a temp file, as on the plaintext listener
+     */
+    public void setBodySpillThreshold(int bodySpillThreshold) {
+        this.bodySpillThreshold = bodySpillThreshold;
+    }
+
     public void start() throws InterruptedException {
         EventLoopGroup bossGroup = new NioEventLoopGroup(1);
         EventLoopGroup workerGroup = new NioEventLoopGroup();
@@ -89,7 +117,7 @@ public class NettyTlsServer {
                             p.addLast(new ApplicationProtocolNegotiationHandler(ApplicationProtocolNames.HTTP_1_1) {
                                 @Override
                                 protected void configurePipeline(ChannelHandlerContext ctx, String protocol) {
-                                    System.out.println("ALPN协商的协议: " + protocol);
+                                    log.debug("ALPN协商的协议: {}", protocol);
 
                                     // 3. 根据ALPN协商结果添加不同的处理器
                                     if (ApplicationProtocolNames.HTTP_2.equals(protocol)) {
@@ -105,14 +133,23 @@ public class NettyTlsServer {
 
                                 // configureForHttp2
                                 private void configureForHttp2(ChannelHandlerContext ctx) {
-                                    System.out.println("配置为HTTP/2协议处理");
+                                    log.debug("配置为HTTP/2协议处理");
                                     Http2Manager http2Manager = new Http2Manager(router);
+                                    http2Manager.setAdmissionController(admissionController, clientIp(ctx));
+                                    http2Manager.setAccessLog(accessLog);
+                                    http2Manager.setStaticFiles(staticFiles);
                                     Scheduler scheduler = new Scheduler();
                                     boolean enableSchedule = false;
 
                                     ctx.pipeline().addLast(new SimpleChannelInboundHandler<ByteBuf>() {
                                         private byte[] cumulation = new byte[0];
 
+                                        @Override
+                                        public void handlerAdded(ChannelHandlerContext ctx) {
+                                            // blocking handlers finish on a virtual thread, their frames go out from the event loop
+                                            http2Manager.setOnResponseReady(() -> ctx.executor().execute(() -> sendFrames(ctx)));
+                                        }
+
                                         @Override
                                         protected void channelRead0(ChannelHandlerContext ctx, ByteBuf msg) {
                                             scheduler.setCtx(ctx);
@@ -135,8 +172,13 @@ public class NettyTlsServer {
                                             boolean haveFrame = http2Manager.decodeAndHandle(receivedBuf);
                                             if (!haveFrame) return;
 
+                                            sendFrames(ctx);
+                                        }
+
+                                        // event loop only
+                                        private void sendFrames(ChannelHandlerContext ctx) {
+                                            http2Manager.frameResponseBodies();
                                             BlockingQueue<ByteBuffer> controlFrames = http2Manager.getControlFrameQueue();
-                                            Map<Integer, Http2Stream> streams = http2Manager.getStreams();
 
                                             // 1️⃣ 发送控制帧
                                             ByteBuffer frame;
@@ -149,49 +191,56 @@ public class NettyTlsServer {
                                             }
                                             ctx.flush();
 
-                                            // 2️⃣ 发送 HEADERS
-                                            for (Http2Stream stream : streams.values()) {
-                                                Queue<Frame> tempDataFrames = new LinkedList<>();
-                                                while (!stream.getResponseQueue().isEmpty()) {
-                                                    Frame f = stream.getResponseQueue().poll();
-                                                    if (f.getHeader().FrameType == FrameType.HEADERS) {
-                                                        System.out.println("发送 HEADERS" + f.toString());
-                                                        ctx.write(Unpooled.wrappedBuffer(f.toBytes()));
-                                                    } else {
-                                                        tempDataFrames.add(f);
-                                                    }
+                                            // 2️⃣ 发送 HEADERS, in the order they were encoded, they come first
+                                            List<Frame> responseFrames = http2Manager.pollResponseFrames();
+                                            for (Frame f : responseFrames) {
+                                                if (f.getHeader().FrameType == FrameType.HEADERS) {
+                                                    log.debug("发送 HEADERS {}", f);
+                                                    ctx.write(Unpooled.wrappedBuffer(f.toBytes()));
                                                 }
-                                                stream.getResponseQueue().addAll(tempDataFrames);
                                             }
                                             ctx.flush();
 
                                             // 3️⃣ 将 DATA 放入 Scheduler
-                                            for (Http2Stream stream : streams.values()) {
-                                                while (!stream.getResponseQueue().isEmpty()) {
-                                                    Frame f = stream.getResponseQueue().poll();
-                                                    if (f.getHeader().FrameType == FrameType.DATA) {
-                                                        if (enableSchedule) {
-                                                            scheduler.addSchedulerUnit(f, stream.getStreamId());
-                                                        } else {
-                                                            ctx.writeAndFlush(Unpooled.wrappedBuffer(f.toBytes()));
-                                                        }
+                                            ChannelFuture lastData = null;
+                                            for (Frame f : responseFrames) {
+                                                if (f.getHeader().FrameType == FrameType.DATA) {
+                                                    if (enableSchedule) {
+                                                        scheduler.addSchedulerUnit(f, f.getHeader().StreamID);
+                                                    } else {
+                                                        lastData = ctx.writeAndFlush(Unpooled.wrappedBuffer(f.toBytes()));
                                                     }
                                                 }
                                             }
+                                            if (lastData != null && http2Manager.hasPendingBodies()) {
+                                                // the next DATA frames of the bodies once these are out
+                                                lastData.addListener(f -> {
+                                                    if (f.isSuccess()) {
+                                                        sendFrames(ctx);
+                                                    }
+                                                });
+                                            }
+                                        }
+
+                                        @Override
+                                        public void channelInactive(ChannelHandlerContext ctx) {
+                                            http2Manager.releaseBodies();
                                         }
 
                                         @Override
                                         public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
-                                            cause.printStackTrace();
+                                            log.warn("HTTP/2 connection failed", cause);
                                             ctx.close();
                                         }
                                     });
                                 }
 
                                 private void configureForHttp11(ChannelHandlerContext ctx) {
-                                    System.out.println("配置为HTTP/1.1协议处理");
+                                    log.debug("配置为HTTP/1.1协议处理");
 
-                                    ctx.pipeline().addLast("https", new HttpsHandler(router));
+                                    HttpsHandler handler = new HttpsHandler(router, admissionController, accessLog, staticFiles);
+                                    handler.setBodySpillThreshold(bodySpillThreshold);
+                                    ctx.pipeline().addLast("https", handler);
                                 }
                             });
                         }
@@ -200,9 +249,9 @@ public class NettyTlsServer {
                     .childOption(ChannelOption.SO_KEEPALIVE, true);
 
             ChannelFuture f = b.bind(port).sync();
-            System.out.println("Netty TLS服务器启动，监听端口: " + port);
-            System.out.println("支持协议: HTTP/2, HTTP/1.1");
-            System.out.println("使用自签名证书，客户端可能需要忽略证书警告");
+            log.info("Netty TLS服务器启动，监听端口: {}", port);
+            log.info("支持协议: HTTP/2, HTTP/1.1");
+            log.info("使用自签名证书，客户端可能需要忽略证书警告");
 
             f.channel().closeFuture().sync();
         } finally {
@@ -210,4 +259,9 @@ public class NettyTlsServer {
             workerGroup.shutdownGracefully();
         }
     }
-}
\ No newline at end of file
+
+    static String clientIp(ChannelHandlerContext ctx) {
+        SocketAddress address = ctx.channel().remoteAddress();
+        return address instanceof InetSocketAddress inet ? inet.getAddress().getHostAddress() : null;
+    }
+}
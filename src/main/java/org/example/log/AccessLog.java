@@ -0,0 +1,225 @@
+package org.example.log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Access log written by its own daemon thread.
+ *
+ * Request threads copy a few fields into a pre-allocated ring slot; the writer encodes them straight into a
+ * direct buffer and appends it to the file in large writes. One line per request, space separated:
+ *
+ * <pre>
+ * epochMillis clientIp method path protocol status bytes micros
+ * 1760688000123 10.0.0.7 GET /index.html HTTP/1.1 200 5120 184
+ * </pre>
+ *
+ * Unknown numbers are written as "-", bytes outside printable ASCII as '?'. With a sample rate of n only
+ * about one request in n is logged, server errors (5xx) always are. A full ring drops the entry.
+ */
+public final class AccessLog implements AutoCloseable {
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final int BATCH = 1024;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final RingBuffer<Entry> ring;
+    private final ByteBuffer out = ByteBuffer.allocateDirect(1 << 16);
+    private final Thread writer;
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private volatile int sampleOneIn = 1;
+    private volatile boolean running = true;
+    private volatile boolean idle;
+
+    private static final class Entry {
+        long timeMillis;
+        String clientIp;
+        String method;
+        String path;
+        String protocol;
+        int status;
+        long bytes;
+        long micros;
+    }
+
+    public AccessLog(Path file) throws IOException {
+        this(file, 16384);
+    }
+
+    /**
+     * @param capacity ring slots, rounded down to a power of two
+     */
+    public AccessLog(Path file, int capacity) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        this.ring = new RingBuffer<>(Integer.highestOneBit(capacity), Entry::new);
+        this.writer = new Thread(this::run, "harmar-access-log");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * log about one request in n, 1 logs all
+     */
+    public void setSampleRate(int oneIn) {
+        this.sampleOneIn = Math.max(1, oneIn);
+    }
+
+    /**
+     * @param status -1 if unknown
+     * @param bytes  response body length, -1 if unknown
+     * @param micros time from request to response, -1 if unknown
+     */
+    public void log(String clientIp, String method, String path, String protocol, int status, long bytes, long micros) {
+        int oneIn = sampleOneIn;
+        if (oneIn > 1 && status < 500 && ThreadLocalRandom.current().nextInt(oneIn) != 0) {
+            return;
+        }
+        long seq = ring.tryClaim();
+        if (seq < 0) {
+            dropped.incrementAndGet();
+            return;
+        }
+        Entry entry = ring.get(seq);
+        entry.timeMillis = System.currentTimeMillis();
+        entry.clientIp = clientIp;
+        entry.method = method;
+        entry.path = path;
+        entry.protocol = protocol;
+        entry.status = status;
+        entry.bytes = bytes;
+        entry.micros = micros;
+        ring.publish(seq);
+        if (idle) {
+            idle = false;
+            LockSupport.unpark(writer);
+        }
+    }
+
+    private void run() {
+        while (running) {
+            int n = ring.drain(this::encode, BATCH);
+            if (n == 0) {
+                flush();
+                idle = true;
+                if (running && !ring.hasPublished()) {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+                idle = false;
+            }
+        }
+        while (ring.drain(this::encode, BATCH) > 0) {
+            // what was logged before close
+        }
+        flush();
+    }
+
+    private void encode(Entry e) {
+        if (out.remaining() < 64 + length(e.clientIp) + length(e.method) + length(e.path) + length(e.protocol)) {
+            flush();
+        }
+        putLong(e.timeMillis);
+        out.put((byte) ' ');
+        putAscii(e.clientIp);
+        out.put((byte) ' ');
+        putAscii(e.method);
+        out.put((byte) ' ');
+        putAscii(e.path);
+        out.put((byte) ' ');
+        putAscii(e.protocol);
+        out.put((byte) ' ');
+        putLong(e.status);
+        out.put((byte) ' ');
+        putLong(e.bytes);
+        out.put((byte) ' ');
+        putLong(e.micros);
+        out.put((byte) '\n');
+        e.clientIp = e.method = e.path = e.protocol = null;
+        written.incrementAndGet();
+    }
+
+    private static int length(String s) {
+        return s == null ? 1 : s.length();
+    }
+
+    private void putAscii(String s) {
+        if (s == null || s.isEmpty()) {
+            out.put((byte) '-');
+            return;
+        }
+        // longer than the whole buffer: cut, the line must fit
+        int len = Math.min(s.length(), out.capacity() - 128);
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            out.put(c > 0x20 && c < 0x7f ? (byte) c : (byte) '?');
+        }
+    }
+
+    private void putLong(long v) {
+        if (v < 0) {
+            out.put((byte) '-');
+            return;
+        }
+        if (v == 0) {
+            out.put((byte) '0');
+            return;
+        }
+        int start = out.position();
+        while (v > 0) {
+            out.put((byte) ('0' + (int) (v % 10)));
+            v /= 10;
+        }
+        // digits went in backwards
+        for (int i = start, j = out.position() - 1; i < j; i++, j--) {
+            byte t = out.get(i);
+            out.put(i, out.get(j));
+            out.put(j, t);
+        }
+    }
+
+    private void flush() {
+        if (out.position() == 0) {
+            return;
+        }
+        out.flip();
+        try {
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+        } catch (IOException e) {
+            Logger.get(AccessLog.class).warn("access log write failed: " + file, e);
+        }
+        out.clear();
+    }
+
+    public Map<String, Long> stats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("written", written.get());
+        stats.put("dropped", dropped.get());
+        stats.put("sampleOneIn", (long) sampleOneIn);
+        return stats;
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+}
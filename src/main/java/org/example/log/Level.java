@@ -0,0 +1,5 @@
+package org.example.log;
+
+public enum Level {
+    TRACE, DEBUG, INFO, WARN, ERROR, OFF
+}
@@ -0,0 +1,152 @@
+package org.example.log;
+
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Ring of diagnostic events and the daemon thread writing them out.
+ *
+ * Logging threads never touch the console: they fill a slot and go on. The writer renders a batch
+ * into buffered streams (stdout below WARN, stderr from WARN up) and flushes once the ring is empty,
+ * so a burst costs a few large writes instead of one synchronized println per line. A full ring drops
+ * the event and counts it; the writer reports the count.
+ */
+final class LogDispatcher {
+    private static final int CAPACITY = Integer.getInteger("harmar.log.ringSize", 8192);
+    private static final int BATCH = 512;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final DateTimeFormatter TIME =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+    private static final RingBuffer<LogEvent> RING = new RingBuffer<>(Integer.highestOneBit(CAPACITY), LogEvent::new);
+    private static final AtomicLong DROPPED = new AtomicLong();
+    private static final PrintStream OUT =
+            new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16), false);
+    private static final PrintStream ERR =
+            new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.err), 1 << 14), false);
+    // single consumer: the writer thread, or the shutdown hook after it
+    private static final Object DRAIN_LOCK = new Object();
+    private static final StringBuilder LINE = new StringBuilder(256);
+    private static final Thread WRITER;
+    private static volatile boolean idle;
+
+    static {
+        WRITER = new Thread(LogDispatcher::run, "harmar-log");
+        WRITER.setDaemon(true);
+        WRITER.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(LogDispatcher::drainAll, "harmar-log-flush"));
+    }
+
+    private LogDispatcher() {
+    }
+
+    static void enqueue(Level level, String logger, String format, Object arg0, Object arg1, Object arg2, Throwable error) {
+        long seq = RING.tryClaim();
+        if (seq < 0) {
+            DROPPED.incrementAndGet();
+            return;
+        }
+        LogEvent event = RING.get(seq);
+        event.timeMillis = System.currentTimeMillis();
+        event.level = level;
+        event.logger = logger;
+        event.thread = Thread.currentThread().getName();
+        event.format = format;
+        event.arg0 = arg0;
+        event.arg1 = arg1;
+        event.arg2 = arg2;
+        event.error = error;
+        RING.publish(seq);
+        if (idle) {
+            idle = false;
+            LockSupport.unpark(WRITER);
+        }
+    }
+
+    private static void run() {
+        while (true) {
+            int n;
+            synchronized (DRAIN_LOCK) {
+                n = RING.drain(LogDispatcher::write, BATCH);
+                if (n == 0) {
+                    reportDropped();
+                    OUT.flush();
+                    ERR.flush();
+                }
+            }
+            if (n == 0) {
+                idle = true;
+                // an event published before the flag was visible would otherwise wait for the timeout
+                if (!RING.hasPublished()) {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+                idle = false;
+            }
+        }
+    }
+
+    private static void drainAll() {
+        synchronized (DRAIN_LOCK) {
+            while (RING.drain(LogDispatcher::write, BATCH) > 0) {
+                // keep going
+            }
+            reportDropped();
+            OUT.flush();
+            ERR.flush();
+        }
+    }
+
+    private static void reportDropped() {
+        long dropped = DROPPED.getAndSet(0);
+        if (dropped > 0) {
+            ERR.println(TIME.format(Instant.now()) + " WARN  [harmar-log] LogDispatcher - "
+                    + dropped + " log events dropped, ring full");
+        }
+    }
+
+    private static void write(LogEvent event) {
+        StringBuilder line = LINE;
+        line.setLength(0);
+        TIME.formatTo(Instant.ofEpochMilli(event.timeMillis), line);
+        line.append(' ').append(event.level);
+        if (event.level.name().length() == 4) {
+            line.append(' ');
+        }
+        line.append(" [").append(event.thread).append("] ").append(event.logger).append(" - ");
+        format(line, event.format, event.arg0, event.arg1, event.arg2);
+
+        PrintStream out = event.level.ordinal() >= Level.WARN.ordinal() ? ERR : OUT;
+        out.append(line).append(System.lineSeparator());
+        if (event.error != null) {
+            event.error.printStackTrace(out);
+        }
+        event.clear();
+    }
+
+    // "{}" placeholders take the arguments in order, surplus placeholders stay as they are
+    static void format(StringBuilder out, String format, Object arg0, Object arg1, Object arg2) {
+        if (format == null) {
+            out.append("null");
+            return;
+        }
+        int argIndex = 0;
+        int from = 0;
+        int at;
+        while (argIndex < 3 && (at = format.indexOf("{}", from)) >= 0) {
+            Object arg = argIndex == 0 ? arg0 : argIndex == 1 ? arg1 : arg2;
+            out.append(format, from, at);
+            out.append(arg);
+            from = at + 2;
+            argIndex++;
+        }
+        out.append(format, from, format.length());
+    }
+}
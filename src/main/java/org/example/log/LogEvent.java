@@ -0,0 +1,20 @@
+package org.example.log;
+
+// one slot of the diagnostic ring, filled in place by the logging thread and rendered by the writer
+final class LogEvent {
+    long timeMillis;
+    Level level;
+    String logger;
+    String thread;
+    String format;
+    Object arg0;
+    Object arg1;
+    Object arg2;
+    Throwable error;
+
+    void clear() {
+        logger = thread = format = null;
+        arg0 = arg1 = arg2 = null;
+        error = null;
+    }
+}
@@ -0,0 +1,187 @@
+package org.example.log;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Leveled logger handing events to the background writer of {@link LogDispatcher}.
+ *
+ * Messages are SLF4J-style formats with "{}" placeholders, rendered on the writer thread; the calling
+ * thread only claims a ring slot and stores references. A disabled level is one int compare and
+ * allocates nothing, as long as the arguments are not boxed or built for the call, guard those with
+ * {@link #isDebugEnabled()}. Arguments are rendered later, pass values that don't change afterwards.
+ *
+ * The root level comes from the system property harmar.log.level (default INFO).
+ */
+public final class Logger {
+    private static final ConcurrentHashMap<String, Logger> LOGGERS = new ConcurrentHashMap<>();
+    private static volatile Level rootLevel = parseLevel(System.getProperty("harmar.log.level"), Level.INFO);
+
+    private final String name;
+    // own level, null follows the root level
+    private volatile Level level;
+    private volatile int threshold;
+
+    private Logger(String name) {
+        this.name = name;
+        this.threshold = rootLevel.ordinal();
+    }
+
+    public static Logger get(Class<?> type) {
+        return get(type.getSimpleName());
+    }
+
+    public static Logger get(String name) {
+        return LOGGERS.computeIfAbsent(name, Logger::new);
+    }
+
+    public static void setRootLevel(Level level) {
+        rootLevel = level;
+        for (Logger logger : LOGGERS.values()) {
+            if (logger.level == null) {
+                logger.threshold = level.ordinal();
+            }
+        }
+    }
+
+    public static Level getRootLevel() {
+        return rootLevel;
+    }
+
+    /**
+     * @param level null to follow the root level again
+     */
+    public void setLevel(Level level) {
+        this.level = level;
+        this.threshold = (level != null ? level : rootLevel).ordinal();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isEnabled(Level level) {
+        return level.ordinal() >= threshold;
+    }
+
+    public boolean isTraceEnabled() {
+        return Level.TRACE.ordinal() >= threshold;
+    }
+
+    public boolean isDebugEnabled() {
+        return Level.DEBUG.ordinal() >= threshold;
+    }
+
+    public void trace(String format, Object arg0) {
+        if (Level.TRACE.ordinal() >= threshold) {
+            LogDispatcher.enqueue(Level.TRACE, name, format, arg0, null, null, null);
+        }
+    }
+
+    public void debug(String message) {
+        if (Level.DEBUG.ordinal() >= threshold) {
+            LogDispatcher.enqueue(Level.DEBUG, name, message, null, null, null, null);
+        }
+    }
+
+    public void debug(String format, Object arg0) {
+        if (Level.DEBUG.ordinal() >= threshold) {
+            LogDispatcher.enqueue(Level.DEBUG, name, format, arg0, null, null, null);
+        }
+    }
+
+    public void debug(String format, Object arg0, Object arg1) {
+        if (Level.DEBUG.ordinal() >= threshold) {
+            LogDispatcher.enqueue(Level.DEBUG, name, format, arg0, arg1, null, null);
+        }
+    }
+
+    public void info(String message) {
+        if (Level.INFO.ordinal() >= threshold) {
+            LogDispatcher.enqueue(Level.INFO, name, message, null, null, null, null);
+        }
+    }
+
+    public void info(String format, Object arg0) {
+        if (Level.INFO.ordinal() >= threshold) {
+            LogDispatcher.enqueue(Level.INFO, name, format, arg0, null, null, null);
+        }
+    }
+
+    public void info(String format, Object arg0, Object arg1) {
+        if (Level.INFO.ordinal() >= threshold) {
+            LogDispatcher.enqueue(Level.INFO, name, format, arg0, arg1, null, null);
+        }
+    }
+
+    public void info(String format, Object arg0, Object arg1, Object arg2) {
+        if (Level.INFO.ordinal() >= threshold) {
+            LogDispatcher.enqueue(Level.INFO, name, format, arg0, arg1, arg2, null);
+        }
+    }
+
+    public void warn(String message) {
+        if (Level.WARN.ordinal() >= threshold) {
+            LogDispatcher.enqueue(Level.WARN, name, message, null, null, null, null);
+        }
+    }
+
+    public void warn(String format, Object arg0) {
+        if (Level.WARN.ordinal() >= threshold) {
+            LogDispatcher.enqueue(Level.WARN, name, format, arg0, null, null, null);
+        }
+    }
+
+    public void warn(String format, Object arg0, Object arg1) {
+        if (Level.WARN.ordinal() >= threshold) {
+            LogDispatcher.enqueue(Level.WARN, name, format, arg0, arg1, null, null);
+        }
+    }
+
+    public void warn(String message, Throwable error) {
+        if (Level.WARN.ordinal() >= threshold) {
+            LogDispatcher.enqueue(Level.WARN, name, message, null, null, null, error);
+        }
+    }
+
+    public void warn(String format, Object arg0, Throwable error) {
+        if (Level.WARN.ordinal() >= threshold) {
+            LogDispatcher.enqueue(Level.WARN, name, format, arg0, null, null, error);
+        }
+    }
+
+    public void error(String message) {
+        if (Level.ERROR.ordinal() >= threshold) {
+            LogDispatcher.enqueue(Level.ERROR, name, message, null, null, null, null);
+        }
+    }
+
+    public void error(String format, Object arg0) {
+        if (Level.ERROR.ordinal() >= threshold) {
+            LogDispatcher.enqueue(Level.ERROR, name, format, arg0, null, null, null);
+        }
+    }
+
+    public void error(String message, Throwable error) {
+        if (Level.ERROR.ordinal() >= threshold) {
+            LogDispatcher.enqueue(Level.ERROR, name, message, null, null, null, error);
+        }
+    }
+
+    public void error(String format, Object arg0, Throwable error) {
+        if (Level.ERROR.ordinal() >= threshold) {
+            LogDispatcher.enqueue(Level.ERROR, name, format, arg0, null, null, error);
+        }
+    }
+
+    static Level parseLevel(String value, Level fallback) {
+        if (value == null || value.isBlank()) {
+            return fallback;
+        }
+        try {
+            return Level.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return fallback;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package org.example.log;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Bounded multi-producer / single-consumer ring of pre-allocated entries (Vyukov's bounded queue).
+ *
+ * A producer claims a slot with one CAS, fills the entry in place and publishes it; nothing is
+ * allocated per event. When the ring is full the claim fails instead of waiting, the hot path never
+ * blocks on the log. Only one thread may drain.
+ */
+final class RingBuffer<E> {
+    private final E[] entries;
+    // per slot: == seq free for producer seq, == seq + 1 published
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    // consumer thread only
+    private long head;
+
+    @SuppressWarnings("unchecked")
+    RingBuffer(int capacity, Supplier<E> factory) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        }
+        entries = (E[]) new Object[capacity];
+        sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            entries[i] = factory.get();
+            sequences.set(i, i);
+        }
+        mask = capacity - 1;
+    }
+
+    /**
+     * @return sequence of the claimed slot, -1 when full
+     */
+    long tryClaim() {
+        while (true) {
+            long seq = tail.get();
+            long diff = sequences.get((int) (seq & mask)) - seq;
+            if (diff == 0) {
+                if (tail.compareAndSet(seq, seq + 1)) {
+                    return seq;
+                }
+            } else if (diff < 0) {
+                return -1;
+            }
+            // else another producer took it, retry with the new tail
+        }
+    }
+
+    E get(long seq) {
+        return entries[(int) (seq & mask)];
+    }
+
+    void publish(long seq) {
+        sequences.lazySet((int) (seq & mask), seq + 1);
+    }
+
+    // consumer thread only
+    boolean hasPublished() {
+        return sequences.get((int) (head & mask)) == head + 1;
+    }
+
+    /**
+     * hand published entries to consumer in order, at most max of them
+     *
+     * @return entries consumed
+     */
+    int drain(Consumer<E> consumer, int max) {
+        int n = 0;
+        while (n < max) {
+            int idx = (int) (head & mask);
+            if (sequences.get(idx) != head + 1) {
+                break;
+            }
+            consumer.accept(entries[idx]);
+            sequences.lazySet(idx, head + entries.length);
+            head++;
+            n++;
+        }
+        return n;
+    }
+}
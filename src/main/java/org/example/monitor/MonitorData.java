@@ -14,11 +14,14 @@ public class MonitorData {
     public final long uptime;
     public final Map<Integer, Long> statusCodeCounts;
     public final Map<String, Long> errorCounts;
+    // component name -> counters
+    public final Map<String, Map<String, Long>> gauges;
 
     public MonitorData(long totalRequests, long successfulRequests, long failedRequests,
                        long averageResponseTime, long maxResponseTime, long minResponseTime, long uptime,
                        int currentConnections, int maxConcurrentConnections,
-                       Map<Integer, Long> statusCodeCounts, Map<String, Long> errorCounts) {
+                       Map<Integer, Long> statusCodeCounts, Map<String, Long> errorCounts,
+                       Map<String, Map<String, Long>> gauges) {
         this.totalRequests = totalRequests;
         this.successfulRequests = successfulRequests;
         this.failedRequests = failedRequests;
@@ -27,6 +30,7 @@ public class MonitorData {
         this.minResponseTime = minResponseTime;
         this.statusCodeCounts = statusCodeCounts;
         this.errorCounts = errorCounts;
+        this.gauges = gauges;
         this.uptime = uptime;
         this.currentConnections = currentConnections;
         this.maxConcurrentConnections = maxConcurrentConnections;
@@ -56,6 +60,16 @@ public class MonitorData {
         json.append("\"uptime\":").append(uptime).append(",");
         json.append("\"statusCodeCounts\":").append(statusCodeCounts.toString()).append(",");
         json.append("\"errorCounts\":").append(errorCounts.toString());
+        for (Map.Entry<String, Map<String, Long>> gauge : gauges.entrySet()) {
+            json.append(",\"").append(gauge.getKey()).append("\":{");
+            boolean first = true;
+            for (Map.Entry<String, Long> counter : gauge.getValue().entrySet()) {
+                if (!first) json.append(",");
+                json.append("\"").append(counter.getKey()).append("\":").append(counter.getValue());
+                first = false;
+            }
+            json.append("}");
+        }
         json.append("}");
         return json.toString();
     }
@@ -6,6 +6,7 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 public class PerformanceMonitor {
     // request count
@@ -28,6 +29,9 @@ public class PerformanceMonitor {
     // error count
     private final Map<String, AtomicLong> errorCounts = new ConcurrentHashMap<>();
 
+    // counters owned by other components (buffer pool, ...), read when data is requested
+    private final Map<String, Supplier<Map<String, Long>>> gauges = new ConcurrentHashMap<>();
+
     // start time
     private final long startTime = System.currentTimeMillis();
 
@@ -86,6 +90,11 @@ public class PerformanceMonitor {
         currentConnections.decrementAndGet();
     }
 
+    // register a group of counters shown under the given name
+    public void registerGauges(String name, Supplier<Map<String, Long>> supplier) {
+        gauges.put(name, supplier);
+    }
+
     // get monitor data
     public MonitorData getMonitorData() {
         long total =  totalRequests.get();
@@ -104,10 +113,19 @@ public class PerformanceMonitor {
                 maxConcurrentConnections.get(),
                 (int) (System.currentTimeMillis() - startTime),
                 convertAtomicToMap(statusCodeCounts),
-                convertAtomicToMap(errorCounts)
+                convertAtomicToMap(errorCounts),
+                readGauges()
         );
     }
 
+    private Map<String, Map<String, Long>> readGauges() {
+        Map<String, Map<String, Long>> result = new HashMap<>();
+        for (Map.Entry<String, Supplier<Map<String, Long>>> entry : gauges.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().get());
+        }
+        return result;
+    }
+
     public <K> Map<K, Long> convertAtomicToMap(Map<K, AtomicLong> map) {
         Map<K, Long> result = new HashMap<>();
         for (Map.Entry<K, AtomicLong> entry : map.entrySet()) {
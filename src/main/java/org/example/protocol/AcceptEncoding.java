@@ -0,0 +1,76 @@
+package org.example.protocol;
+
+/**
+ * Reads an Accept-Encoding header value, e.g. "gzip, deflate, br;q=0.9, *;q=0".
+ * Works on the string in place, no splitting.
+ */
+public final class AcceptEncoding {
+
+    private AcceptEncoding() {
+    }
+
+    /**
+     * the q-value header gives coding, 0 if the client doesn't take it. "*" covers codings it doesn't name
+     */
+    public static float quality(String header, String coding) {
+        float wildcard = 0;
+        int length = header.length();
+        int start = 0;
+        while (start < length) {
+            int end = header.indexOf(',', start);
+            if (end < 0) {
+                end = length;
+            }
+            int nameEnd = header.indexOf(';', start);
+            if (nameEnd < 0 || nameEnd > end) {
+                nameEnd = end;
+            }
+            int nameStart = skipSpaces(header, start, nameEnd);
+            int nameLength = trimmedEnd(header, nameStart, nameEnd) - nameStart;
+
+            if (nameLength == coding.length() && header.regionMatches(true, nameStart, coding, 0, nameLength)) {
+                return qValue(header, nameEnd, end);
+            }
+            if (nameLength == 1 && header.charAt(nameStart) == '*') {
+                wildcard = qValue(header, nameEnd, end);
+            }
+            start = end + 1;
+        }
+        return wildcard;
+    }
+
+    // parameters of one element, ";q=0.8"; 1 without q, 0 if q can't be read
+    private static float qValue(String header, int from, int end) {
+        while (from < end) {
+            int next = header.indexOf(';', from + 1);
+            if (next < 0 || next > end) {
+                next = end;
+            }
+            int p = skipSpaces(header, from + 1, next);
+            if (p + 1 < next && (header.charAt(p) == 'q' || header.charAt(p) == 'Q') && header.charAt(p + 1) == '=') {
+                try {
+                    float q = Float.parseFloat(header.substring(p + 2, trimmedEnd(header, p + 2, next)));
+                    return q >= 0 && q <= 1 ? q : 0;
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+            from = next;
+        }
+        return 1;
+    }
+
+    private static int skipSpaces(String s, int from, int end) {
+        while (from < end && (s.charAt(from) == ' ' || s.charAt(from) == '\t')) {
+            from++;
+        }
+        return from;
+    }
+
+    private static int trimmedEnd(String s, int from, int end) {
+        while (end > from && (s.charAt(end - 1) == ' ' || s.charAt(end - 1) == '\t')) {
+            end--;
+        }
+        return end;
+    }
+}
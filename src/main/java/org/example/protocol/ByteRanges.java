@@ -0,0 +1,129 @@
+package org.example.protocol;
+
+import java.util.Arrays;
+
+/**
+ * Reads a Range header value (RFC 9110 14.1.2), e.g. "bytes=0-499, 1000-, -200", against a representation
+ * of a known length.
+ */
+public final class ByteRanges {
+    // more than this in one request is not worth serving piecewise, the whole file goes out instead
+    public static final int MAX_RANGES = 16;
+
+    private static final long[] NONE = new long[0];
+
+    private ByteRanges() {
+    }
+
+    /**
+     * first and last byte (inclusive) of each satisfiable range, in request order, clipped to length.
+     * null if the header can't be used and the whole representation is sent (not bytes, malformed,
+     * too many or overlapping ranges); empty if no range is satisfiable (416)
+     */
+    public static long[] parse(String header, long length) {
+        int p = skipSpaces(header, 0);
+        if (!header.regionMatches(true, p, "bytes", 0, 5)) {
+            return null;
+        }
+        p = skipSpaces(header, p + 5);
+        if (p >= header.length() || header.charAt(p) != '=') {
+            return null;
+        }
+        p++;
+
+        long[] ranges = new long[8];
+        int count = 0;
+        int specs = 0;
+        while (p < header.length()) {
+            int end = header.indexOf(',', p);
+            if (end < 0) {
+                end = header.length();
+            }
+            int from = skipSpaces(header, p);
+            int to = trimmedEnd(header, from, end);
+            p = end + 1;
+            if (from == to) {
+                continue; // empty list element
+            }
+            if (++specs > MAX_RANGES) {
+                return null;
+            }
+            int dash = header.indexOf('-', from);
+            if (dash < 0 || dash >= to) {
+                return null;
+            }
+            long first;
+            long last;
+            if (dash == from) {
+                // suffix: the last n bytes
+                long suffix = number(header, dash + 1, to);
+                if (suffix < 0) {
+                    return null;
+                }
+                if (suffix == 0 || length == 0) {
+                    continue;
+                }
+                first = Math.max(0, length - suffix);
+                last = length - 1;
+            } else {
+                first = number(header, from, dash);
+                last = dash + 1 == to ? Long.MAX_VALUE : number(header, dash + 1, to);
+                if (first < 0 || last < 0 || last < first) {
+                    return null;
+                }
+                if (first >= length) {
+                    continue;
+                }
+                last = Math.min(last, length - 1);
+            }
+            if (count + 2 > ranges.length) {
+                ranges = Arrays.copyOf(ranges, ranges.length * 2);
+            }
+            ranges[count++] = first;
+            ranges[count++] = last;
+        }
+        if (specs == 0) {
+            return null;
+        }
+        for (int i = 0; i < count; i += 2) {
+            for (int j = i + 2; j < count; j += 2) {
+                if (ranges[i] <= ranges[j + 1] && ranges[j] <= ranges[i + 1]) {
+                    return null; // overlapping, RFC 9110 lets us ignore the header
+                }
+            }
+        }
+        return count == 0 ? NONE : Arrays.copyOf(ranges, count);
+    }
+
+    // digits only, -1 if there are none or something else
+    private static long number(String s, int from, int to) {
+        from = skipSpaces(s, from);
+        to = trimmedEnd(s, from, to);
+        if (from == to || to - from > 18) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static int skipSpaces(String s, int from) {
+        while (from < s.length() && (s.charAt(from) == ' ' || s.charAt(from) == '\t')) {
+            from++;
+        }
+        return from;
+    }
+
+    private static int trimmedEnd(String s, int from, int end) {
+        while (end > from && (s.charAt(end - 1) == ' ' || s.charAt(end - 1) == '\t')) {
+            end--;
+        }
+        return end;
+    }
+}
@@ -0,0 +1,141 @@
+package org.example.protocol;
+
+import org.example.HttpStatus;
+import org.example.RequestBody;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental decoder for HTTP/1 request body framing, Content-Length or chunked (RFC 7230 4.1).
+ * Consumes from the connection buffer, decoded bytes go to the {@link RequestBody}.
+ * Bytes after the body (next pipelined request) are left in the buffer.
+ */
+public class Http1BodyDecoder {
+    private static final int MAX_CHUNK_LINE = 1024;
+
+    private enum State { SIZE, SIZE_EXT, SIZE_LF, DATA, DATA_CR, DATA_LF, TRAILER_START, TRAILER, TRAILER_LF, FINAL_LF, DONE }
+
+    private final boolean chunked;
+    private long remaining;
+    private State state;
+    private int lineLength;
+    // hex digits read on the current chunk-size line
+    private int sizeDigits;
+
+    public Http1BodyDecoder(long contentLength, boolean chunked) {
+        this.chunked = chunked;
+        this.remaining = chunked ? 0 : contentLength;
+        this.state = chunked ? State.SIZE : (contentLength > 0 ? State.DATA : State.DONE);
+    }
+
+    /**
+     * returns true once the whole body has been consumed
+     */
+    public boolean decode(ByteBuffer in, RequestBody out) throws IOException {
+        while (state != State.DONE && in.hasRemaining()) {
+            if (state == State.DATA) {
+                int n = (int) Math.min(remaining, in.remaining());
+                ByteBuffer slice = in.slice(in.position(), n);
+                in.position(in.position() + n);
+                out.append(slice);
+                remaining -= n;
+                if (remaining == 0) {
+                    state = chunked ? State.DATA_CR : State.DONE;
+                }
+                continue;
+            }
+            step(in.get());
+        }
+        return state == State.DONE;
+    }
+
+    public boolean isDone() {
+        return state == State.DONE;
+    }
+
+    private void step(byte b) {
+        if (++lineLength > MAX_CHUNK_LINE) {
+            throw badChunk("Chunk line too long");
+        }
+        switch (state) {
+            case SIZE -> {
+                int digit = Character.digit(b, 16);
+                if (digit >= 0) {
+                    if (remaining > (Long.MAX_VALUE >> 4)) throw badChunk("Chunk size too large");
+                    remaining = (remaining << 4) | digit;
+                    sizeDigits++;
+                } else if (sizeDigits == 0) {
+                    // an empty size would read as the last chunk and end the body early
+                    throw badChunk("Invalid chunk size");
+                } else if (b == ';' || b == ' ' || b == '\t') {
+                    state = State.SIZE_EXT;
+                } else if (b == '\r') {
+                    state = State.SIZE_LF;
+                } else if (b == '\n') {
+                    endSizeLine();
+                } else {
+                    throw badChunk("Invalid chunk size");
+                }
+            }
+            // chunk extensions are ignored
+            case SIZE_EXT -> {
+                if (b == '\r') state = State.SIZE_LF;
+                else if (b == '\n') endSizeLine();
+            }
+            case SIZE_LF -> {
+                if (b != '\n') throw badChunk("Malformed chunk size line");
+                endSizeLine();
+            }
+            case DATA_CR -> {
+                if (b == '\r') state = State.DATA_LF;
+                else if (b == '\n') nextChunk();
+                else throw badChunk("Missing CRLF after chunk data");
+            }
+            case DATA_LF -> {
+                if (b != '\n') throw badChunk("Missing CRLF after chunk data");
+                nextChunk();
+            }
+            // trailer fields are read and dropped
+            case TRAILER_START -> {
+                if (b == '\r') state = State.FINAL_LF;
+                else if (b == '\n') state = State.DONE;
+                else state = State.TRAILER;
+            }
+            case TRAILER -> {
+                if (b == '\r') state = State.TRAILER_LF;
+                else if (b == '\n') nextLine(State.TRAILER_START);
+            }
+            case TRAILER_LF -> {
+                if (b != '\n') throw badChunk("Malformed trailer");
+                nextLine(State.TRAILER_START);
+            }
+            case FINAL_LF -> {
+                if (b != '\n') throw badChunk("Malformed chunked body end");
+                state = State.DONE;
+            }
+            default -> {}
+        }
+    }
+
+    private void endSizeLine() {
+        lineLength = 0;
+        state = remaining == 0 ? State.TRAILER_START : State.DATA;
+    }
+
+    private void nextChunk() {
+        lineLength = 0;
+        sizeDigits = 0;
+        remaining = 0;
+        state = State.SIZE;
+    }
+
+    private void nextLine(State next) {
+        lineLength = 0;
+        state = next;
+    }
+
+    private static HttpParseException badChunk(String message) {
+        return new HttpParseException(HttpStatus.BAD_REQUEST, message);
+    }
+}
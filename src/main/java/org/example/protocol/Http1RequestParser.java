@@ -0,0 +1,378 @@
+package org.example.protocol;
+
+import org.example.HttpRequest;
+import org.example.HttpStatus;
+import org.example.Protocol;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+/**
+ * Resumable HTTP/1 request parser, one instance per connection.
+ *
+ * Works directly on the connection read buffer (flipped, position = request start).
+ * All offsets are kept relative to the request start, so the caller may compact
+ * the buffer between reads and the parser continues where it stopped instead of
+ * rescanning from the beginning.
+ */
+public class Http1RequestParser {
+    public static final int DEFAULT_MAX_HEADER_SIZE = 8192;
+
+    private enum State {
+        METHOD, TARGET, VERSION, REQUEST_LINE_LF,
+        HEADER_LINE_START, HEADER_NAME, HEADER_VALUE_START, HEADER_VALUE, HEADER_LF,
+        FINAL_LF, DONE
+    }
+
+    private static final byte[] GET = {'G', 'E', 'T'};
+    private static final byte[] POST = {'P', 'O', 'S', 'T'};
+    private static final byte[] HEAD = {'H', 'E', 'A', 'D'};
+    private static final byte[] PUT = {'P', 'U', 'T'};
+    private static final byte[] DELETE = {'D', 'E', 'L', 'E', 'T', 'E'};
+    private static final byte[] OPTIONS = {'O', 'P', 'T', 'I', 'O', 'N', 'S'};
+    private static final byte[] PATCH = {'P', 'A', 'T', 'C', 'H'};
+    private static final byte[] HTTP_1_1 = {'H', 'T', 'T', 'P', '/', '1', '.', '1'};
+    private static final byte[] HTTP_1_0 = {'H', 'T', 'T', 'P', '/', '1', '.', '0'};
+    private static final byte[] CONTENT_LENGTH = "content-length".getBytes(ISO_8859_1);
+    private static final byte[] CONNECTION = "connection".getBytes(ISO_8859_1);
+    private static final byte[] HOST = "host".getBytes(ISO_8859_1);
+    private static final byte[] TRANSFER_ENCODING = "transfer-encoding".getBytes(ISO_8859_1);
+    private static final byte[] CHUNKED = "chunked".getBytes(ISO_8859_1);
+    private static final byte[] CLOSE = "close".getBytes(ISO_8859_1);
+    private static final byte[] KEEP_ALIVE = "keep-alive".getBytes(ISO_8859_1);
+
+    private final int maxHeaderSize;
+
+    private State state = State.METHOD;
+    // next byte to look at, relative to request start
+    private int scanned;
+    private int methodEnd;
+    private int targetStart;
+    private int targetEnd;
+    private int versionStart;
+    private int versionEnd;
+    private int headerEnd;
+    private boolean folding;
+
+    private int[] offsets = new int[16 * 4];
+    private int headerCount;
+
+    public Http1RequestParser() {
+        this(DEFAULT_MAX_HEADER_SIZE);
+    }
+
+    public Http1RequestParser(int maxHeaderSize) {
+        this.maxHeaderSize = maxHeaderSize;
+    }
+
+    /**
+     * feed the buffer, returns a request once its header block is complete or null if more bytes are needed.
+     * on success the buffer position is moved past the headers, the body (if any) is left for
+     * {@link Http1BodyDecoder}.
+     */
+    public HttpRequest parse(ByteBuffer buf) {
+        int limit = buf.limit();
+        if (state == State.METHOD && scanned == 0) {
+            // tolerate empty lines in front of a request (RFC 7230 3.5)
+            while (buf.position() < limit && (buf.get(buf.position()) == '\r' || buf.get(buf.position()) == '\n')) {
+                buf.position(buf.position() + 1);
+            }
+        }
+        int base = buf.position();
+
+        int i = base + scanned;
+        // no further than the limit, a complete block that is too large fails like an incomplete one
+        int end = (int) Math.min(limit, (long) base + maxHeaderSize);
+        for (; i < end && state != State.DONE; i++) {
+            step(buf.get(i), i - base);
+        }
+        scanned = i - base;
+
+        if (state != State.DONE) {
+            if (scanned >= maxHeaderSize) {
+                throw new HttpParseException(HttpStatus.REQUEST_HEADER_FIELDS_TOO_LARGE, "Request header too large");
+            }
+            return null;
+        }
+
+        HttpRequest request = buildRequest(buf, base);
+        buf.position(base + headerEnd);
+        reset();
+        return request;
+    }
+
+    public void reset() {
+        state = State.METHOD;
+        scanned = 0;
+        headerCount = 0;
+        folding = false;
+    }
+
+    private void step(byte b, int pos) {
+        switch (state) {
+            case METHOD -> {
+                if (b == ' ') {
+                    if (pos == 0) throw badRequest("Empty method");
+                    methodEnd = pos;
+                    targetStart = pos + 1;
+                    state = State.TARGET;
+                } else if (b <= ' ' || b >= 0x7f) {
+                    throw badRequest("Invalid method");
+                }
+            }
+            case TARGET -> {
+                if (b == ' ') {
+                    if (pos == targetStart) throw badRequest("Empty request target");
+                    targetEnd = pos;
+                    versionStart = pos + 1;
+                    state = State.VERSION;
+                } else if (b == '\r' || b == '\n') {
+                    throw badRequest("Malformed request line");
+                }
+            }
+            case VERSION -> {
+                if (b == '\r') {
+                    versionEnd = pos;
+                    state = State.REQUEST_LINE_LF;
+                } else if (b == '\n') {
+                    versionEnd = pos;
+                    state = State.HEADER_LINE_START;
+                }
+            }
+            case REQUEST_LINE_LF -> {
+                if (b != '\n') throw badRequest("Malformed request line");
+                state = State.HEADER_LINE_START;
+            }
+            case HEADER_LINE_START -> {
+                if (b == '\r') {
+                    state = State.FINAL_LF;
+                } else if (b == '\n') {
+                    finishHeaders(pos);
+                } else if ((b == ' ' || b == '\t') && headerCount > 0) {
+                    // process line breaking(RFC 822), value keeps growing on the last header
+                    folding = true;
+                    state = State.HEADER_VALUE_START;
+                } else {
+                    addHeader(pos);
+                    state = State.HEADER_NAME;
+                }
+            }
+            case HEADER_NAME -> {
+                if (b == ':') {
+                    int idx = (headerCount - 1) * 4;
+                    offsets[idx + 1] = pos;
+                    offsets[idx + 2] = pos + 1;
+                    offsets[idx + 3] = pos + 1;
+                    state = State.HEADER_VALUE_START;
+                } else if (b == '\r' || b == '\n') {
+                    throw badRequest("Header without colon");
+                }
+            }
+            case HEADER_VALUE_START -> {
+                if (b == ' ' || b == '\t') {
+                    return;
+                }
+                int idx = (headerCount - 1) * 4;
+                if (b == '\r' || b == '\n') {
+                    state = b == '\r' ? State.HEADER_LF : State.HEADER_LINE_START;
+                    folding = false;
+                    return;
+                }
+                if (!folding) {
+                    offsets[idx + 2] = pos;
+                }
+                offsets[idx + 3] = pos + 1;
+                folding = false;
+                state = State.HEADER_VALUE;
+            }
+            case HEADER_VALUE -> {
+                if (b == '\r') {
+                    state = State.HEADER_LF;
+                } else if (b == '\n') {
+                    state = State.HEADER_LINE_START;
+                } else if (b != ' ' && b != '\t') {
+                    offsets[(headerCount - 1) * 4 + 3] = pos + 1;
+                }
+            }
+            case HEADER_LF -> {
+                if (b != '\n') throw badRequest("Malformed header line");
+                state = State.HEADER_LINE_START;
+            }
+            case FINAL_LF -> {
+                if (b != '\n') throw badRequest("Malformed header end");
+                finishHeaders(pos);
+            }
+            default -> {}
+        }
+    }
+
+    private void finishHeaders(int pos) {
+        headerEnd = pos + 1;
+        state = State.DONE;
+    }
+
+    private void addHeader(int nameStart) {
+        if (headerCount * 4 == offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        offsets[headerCount * 4] = nameStart;
+        headerCount++;
+    }
+
+    private HttpRequest buildRequest(ByteBuffer buf, int base) {
+        // one copy of the header block, everything else is decoded from it on demand
+        byte[] raw = new byte[headerEnd];
+        buf.get(base, raw);
+
+        HttpRequest request = new HttpRequest();
+        request.method = method(raw);
+        request.path = new String(raw, targetStart, targetEnd - targetStart, ISO_8859_1);
+        request.protocol = version(raw);
+        request.headers = new LazyHeaders(raw, Arrays.copyOf(offsets, headerCount * 4), headerCount);
+        request.keepAlive = request.protocol == Protocol.HTTP1_1;
+
+        long contentLength = -1;
+        // codings over all Transfer-Encoding lines, and whether the only one is chunked
+        int codings = 0;
+        boolean chunked = false;
+        boolean hasHost = false;
+        for (int i = 0; i < headerCount; i++) {
+            int nameStart = offsets[i * 4];
+            int nameEnd = offsets[i * 4 + 1];
+            int valueStart = offsets[i * 4 + 2];
+            int valueEnd = offsets[i * 4 + 3];
+
+            if (nameEquals(raw, nameStart, nameEnd, CONTENT_LENGTH)) {
+                long value = parseContentLength(raw, valueStart, valueEnd);
+                if (contentLength != -1 && contentLength != value) {
+                    // two framings of one body, intermediaries may pick either (RFC 7230 3.3.3)
+                    throw badRequest("Conflicting Content-Length");
+                }
+                contentLength = value;
+            } else if (nameEquals(raw, nameStart, nameEnd, CONNECTION)) {
+                if (hasToken(raw, valueStart, valueEnd, CLOSE)) {
+                    request.keepAlive = false;
+                } else if (hasToken(raw, valueStart, valueEnd, KEEP_ALIVE)) {
+                    request.keepAlive = true;
+                }
+            } else if (nameEquals(raw, nameStart, nameEnd, HOST)) {
+                hasHost = true;
+            } else if (nameEquals(raw, nameStart, nameEnd, TRANSFER_ENCODING)) {
+                int count = countTokens(raw, valueStart, valueEnd);
+                if (count > 0) {
+                    chunked = codings == 0 && count == 1 && hasToken(raw, valueStart, valueEnd, CHUNKED);
+                    codings += count;
+                }
+            }
+        }
+        if (!hasHost && request.protocol == Protocol.HTTP1_1) {
+            throw badRequest("Missing required Host header");
+        }
+        if (codings > 0) {
+            // a request smuggling vector, not an override (RFC 7230 3.3.3)
+            if (contentLength != -1) {
+                throw badRequest("Both Transfer-Encoding and Content-Length");
+            }
+            // only a lone chunked is decoded, chunked over gzip etc. isn't
+            if (!chunked) {
+                throw new HttpParseException(HttpStatus.NOT_IMPLEMENTED, "Unsupported Transfer-Encoding");
+            }
+        }
+        request.chunked = chunked;
+        request.contentLength = chunked ? -1 : Math.max(contentLength, 0);
+        request.hasBody = chunked || contentLength > 0;
+        return request;
+    }
+
+    private String method(byte[] raw) {
+        if (rangeEquals(raw, 0, methodEnd, GET)) return "GET";
+        if (rangeEquals(raw, 0, methodEnd, POST)) return "POST";
+        if (rangeEquals(raw, 0, methodEnd, HEAD)) return "HEAD";
+        if (rangeEquals(raw, 0, methodEnd, PUT)) return "PUT";
+        if (rangeEquals(raw, 0, methodEnd, DELETE)) return "DELETE";
+        if (rangeEquals(raw, 0, methodEnd, OPTIONS)) return "OPTIONS";
+        if (rangeEquals(raw, 0, methodEnd, PATCH)) return "PATCH";
+        return new String(raw, 0, methodEnd, ISO_8859_1);
+    }
+
+    private Protocol version(byte[] raw) {
+        if (rangeEquals(raw, versionStart, versionEnd, HTTP_1_1)) return Protocol.HTTP1_1;
+        if (rangeEquals(raw, versionStart, versionEnd, HTTP_1_0)) return Protocol.HTTP1_0;
+        throw new HttpParseException(HttpStatus.BAD_REQUEST, "Unsupported HTTP version");
+    }
+
+    private static long parseContentLength(byte[] raw, int start, int end) {
+        if (start == end || end - start > 18) {
+            throw badRequest("Invalid Content-Length");
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            byte b = raw[i];
+            if (b < '0' || b > '9') throw badRequest("Invalid Content-Length");
+            value = value * 10 + (b - '0');
+        }
+        return value;
+    }
+
+    private static boolean rangeEquals(byte[] raw, int start, int end, byte[] expected) {
+        if (end - start != expected.length) return false;
+        for (int i = 0; i < expected.length; i++) {
+            if (raw[start + i] != expected[i]) return false;
+        }
+        return true;
+    }
+
+    static boolean nameEquals(byte[] raw, int start, int end, byte[] lowerName) {
+        if (end - start != lowerName.length) return false;
+        for (int i = 0; i < lowerName.length; i++) {
+            if (LazyHeaders.toLower(raw[start + i]) != lowerName[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * lowerToken is one of the comma separated elements of the value, compared whole and ignoring case
+     */
+    static boolean hasToken(byte[] raw, int start, int end, byte[] lowerToken) {
+        int i = start;
+        while (i < end) {
+            int comma = i;
+            while (comma < end && raw[comma] != ',') comma++;
+            int from = i;
+            int to = comma;
+            while (from < to && isOws(raw[from])) from++;
+            while (to > from && isOws(raw[to - 1])) to--;
+            if (nameEquals(raw, from, to, lowerToken)) {
+                return true;
+            }
+            i = comma + 1;
+        }
+        return false;
+    }
+
+    // non-empty elements of a comma separated list
+    static int countTokens(byte[] raw, int start, int end) {
+        int count = 0;
+        boolean inToken = false;
+        for (int i = start; i < end; i++) {
+            byte b = raw[i];
+            if (b == ',') {
+                inToken = false;
+            } else if (!isOws(b) && !inToken) {
+                inToken = true;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean isOws(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    private static HttpParseException badRequest(String message) {
+        return new HttpParseException(HttpStatus.BAD_REQUEST, message);
+    }
+}
@@ -0,0 +1,73 @@
+package org.example.protocol;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+/**
+ * Current time as an HTTP Date value (RFC 7231 7.1.1.1, IMF-fixdate),
+ * formatted once per second by a ticker instead of once per response.
+ */
+public final class HttpDate {
+    // RFC_1123_DATE_TIME doesn't pad the day, IMF-fixdate needs two digits
+    private static final DateTimeFormatter IMF_FIXDATE =
+            DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+
+    private static volatile Snapshot current = snapshot();
+
+    static {
+        ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "HttpDateTicker");
+            t.setDaemon(true);
+            return t;
+        });
+        ticker.scheduleAtFixedRate(() -> current = snapshot(), 1000 - System.currentTimeMillis() % 1000,
+                1000, TimeUnit.MILLISECONDS);
+    }
+
+    private HttpDate() {
+    }
+
+    public static String now() {
+        return current.text;
+    }
+
+    /**
+     * shared array, do not modify. a new array is published every second, so identity
+     * can be used to tell whether something built from it is stale.
+     */
+    public static byte[] nowBytes() {
+        return current.bytes;
+    }
+
+    public static String format(long epochMillis) {
+        return IMF_FIXDATE.format(Instant.ofEpochMilli(epochMillis));
+    }
+
+    /**
+     * epoch millis of an IMF-fixdate value, -1 if it isn't one. the obsolete formats are not read
+     */
+    public static long parse(String value) {
+        try {
+            return ZonedDateTime.parse(value.trim(), IMF_FIXDATE).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    private static Snapshot snapshot() {
+        String text = IMF_FIXDATE.format(ZonedDateTime.now(ZoneOffset.UTC));
+        return new Snapshot(text, text.getBytes(ISO_8859_1));
+    }
+
+    private record Snapshot(String text, byte[] bytes) {
+    }
+}
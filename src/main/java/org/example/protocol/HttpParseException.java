@@ -0,0 +1,17 @@
+package org.example.protocol;
+
+import org.example.HttpStatus;
+
+// malformed or oversized HTTP/1 request, status is what we answer before closing
+public class HttpParseException extends RuntimeException {
+    private final HttpStatus status;
+
+    public HttpParseException(HttpStatus status, String message) {
+        super(message);
+        this.status = status;
+    }
+
+    public HttpStatus getStatus() {
+        return status;
+    }
+}
@@ -0,0 +1,129 @@
+package org.example.protocol;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+/**
+ * Header map backed by the raw header block of one request.
+ * Only offsets are recorded while parsing, names and values become
+ * Strings the first time somebody asks for them.
+ */
+public class LazyHeaders extends AbstractMap<String, String> {
+    private final byte[] raw;
+    // per header: nameStart, nameEnd, valueStart, valueEnd
+    private final int[] offsets;
+    private final int count;
+    private final String[] values;
+    private Map<String, String> materialized;
+
+    LazyHeaders(byte[] raw, int[] offsets, int count) {
+        this.raw = raw;
+        this.offsets = offsets;
+        this.count = count;
+        this.values = new String[count];
+    }
+
+    @Override
+    public String get(Object key) {
+        if (!(key instanceof String name)) return null;
+        int idx = indexOf(name);
+        return idx < 0 ? null : value(idx);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof String name && indexOf(name) >= 0;
+    }
+
+    @Override
+    public String getOrDefault(Object key, String defaultValue) {
+        String value = get(key);
+        return value != null ? value : defaultValue;
+    }
+
+    @Override
+    public int size() {
+        return materialize().size();
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        return materialize().entrySet();
+    }
+
+    /**
+     * last header with this name wins, same as the old LinkedHashMap parser
+     */
+    private int indexOf(String name) {
+        int len = name.length();
+        for (int i = count - 1; i >= 0; i--) {
+            int start = offsets[i * 4];
+            int end = offsets[i * 4 + 1];
+            if (end - start != len) continue;
+
+            boolean match = true;
+            for (int j = 0; j < len; j++) {
+                if (toLower(raw[start + j]) != toLower((byte) name.charAt(j))) {
+                    match = false;
+                    break;
+                }
+            }
+            if (match) return i;
+        }
+        return -1;
+    }
+
+    private String value(int idx) {
+        String value = values[idx];
+        if (value == null) {
+            int start = offsets[idx * 4 + 2];
+            int end = offsets[idx * 4 + 3];
+            value = new String(raw, start, end - start, ISO_8859_1);
+
+            // obs-fold (RFC 822 line breaking) is kept raw until decoded
+            if (value.indexOf('\n') >= 0) {
+                value = value.replaceAll("\\r?\\n[ \\t]+", " ");
+            }
+
+            if (isHost(idx)) {
+                // remove port(if exist)
+                int portIndex = value.indexOf(':');
+                if (portIndex != -1) {
+                    value = value.substring(0, portIndex);
+                }
+            }
+            values[idx] = value;
+        }
+        return value;
+    }
+
+    private boolean isHost(int idx) {
+        int start = offsets[idx * 4];
+        return offsets[idx * 4 + 1] - start == 4
+                && toLower(raw[start]) == 'h' && toLower(raw[start + 1]) == 'o'
+                && toLower(raw[start + 2]) == 's' && toLower(raw[start + 3]) == 't';
+    }
+
+    private Map<String, String> materialize() {
+        if (materialized == null) {
+            Map<String, String> map = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                int start = offsets[i * 4];
+                String name = new String(raw, start, offsets[i * 4 + 1] - start, ISO_8859_1);
+                map.put(name.toLowerCase(Locale.US), value(i));
+            }
+            materialized = Collections.unmodifiableMap(map);
+        }
+        return materialized;
+    }
+
+    static byte toLower(byte b) {
+        return (b >= 'A' && b <= 'Z') ? (byte) (b + 32) : b;
+    }
+}
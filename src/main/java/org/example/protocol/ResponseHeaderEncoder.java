@@ -0,0 +1,130 @@
+package org.example.protocol;
+
+import org.example.HttpResponse;
+import org.example.HttpStatus;
+import org.example.HttpVersion;
+import org.example.buffer.BufferPool;
+
+import java.nio.ByteBuffer;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+/**
+ * Encodes an HTTP/1 status line + header block straight into a byte buffer.
+ * Status lines and common header names are pre-encoded, the exact size is computed
+ * first so the block is written once without intermediate Strings.
+ */
+public final class ResponseHeaderEncoder {
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] COLON_SP = {':', ' '};
+    private static final byte[] CONNECTION_KEEP_ALIVE = "Connection: keep-alive\r\n".getBytes(ISO_8859_1);
+    private static final byte[] CONNECTION_CLOSE = "Connection: close\r\n".getBytes(ISO_8859_1);
+
+    private static final Map<HttpVersion, EnumMap<HttpStatus, byte[]>> STATUS_LINES = new EnumMap<>(HttpVersion.class);
+    // "Name: " for the headers we send all the time
+    private static final Map<String, byte[]> HEADER_NAMES = new HashMap<>();
+
+    static {
+        for (HttpVersion version : HttpVersion.values()) {
+            EnumMap<HttpStatus, byte[]> lines = new EnumMap<>(HttpStatus.class);
+            for (HttpStatus status : HttpStatus.values()) {
+                lines.put(status, (version + " " + status.code + " " + status.message + "\r\n").getBytes(ISO_8859_1));
+            }
+            STATUS_LINES.put(version, lines);
+        }
+
+        for (String name : new String[]{
+                "Server", "Date", "Content-Type", "Content-Length", "Transfer-Encoding", "Connection",
+                "Cache-Control", "Last-Modified", "ETag", "Vary", "Content-Encoding", "Accept-Ranges",
+                "Content-Range", "Location", "Retry-After"}) {
+            HEADER_NAMES.put(name, (name + ": ").getBytes(ISO_8859_1));
+        }
+    }
+
+    private ResponseHeaderEncoder() {
+    }
+
+    public static byte[] statusLine(HttpVersion version, HttpStatus status) {
+        return STATUS_LINES.get(version).get(status);
+    }
+
+    /**
+     * headers as set on the response
+     */
+    public static ByteBuffer encode(HttpResponse response) {
+        return encode(response, null, null);
+    }
+
+    /**
+     * Connection header decided by the connection, whatever the handler put there is replaced
+     */
+    public static ByteBuffer encode(HttpResponse response, boolean keepAlive) {
+        return encode(response, keepAlive ? CONNECTION_KEEP_ALIVE : CONNECTION_CLOSE, null);
+    }
+
+    /**
+     * same, into a buffer leased from the pool; the caller releases it once written
+     */
+    public static ByteBuffer encode(HttpResponse response, boolean keepAlive, BufferPool pool) {
+        return encode(response, keepAlive ? CONNECTION_KEEP_ALIVE : CONNECTION_CLOSE, pool);
+    }
+
+    private static ByteBuffer encode(HttpResponse response, byte[] connectionLine, BufferPool pool) {
+        byte[] statusLine = statusLine(response.getHttpVersion(), response.getStatus());
+        // only Date still comes from the map
+        byte[] preEncoded = response.getEncodedHeaders();
+
+        int size = statusLine.length + CRLF.length;
+        if (preEncoded != null) {
+            size += preEncoded.length;
+        }
+        for (Map.Entry<String, String> header : response.getHeaders().entrySet()) {
+            if (connectionLine != null && "Connection".equalsIgnoreCase(header.getKey())
+                    || preEncoded != null && !"Date".equals(header.getKey())) {
+                continue;
+            }
+            byte[] name = HEADER_NAMES.get(header.getKey());
+            size += (name != null ? name.length : header.getKey().length() + COLON_SP.length)
+                    + header.getValue().length() + CRLF.length;
+        }
+        if (connectionLine != null) {
+            size += connectionLine.length;
+        }
+
+        ByteBuffer buf = pool != null ? pool.acquire(size) : ByteBuffer.allocate(size);
+        buf.put(statusLine);
+        if (preEncoded != null) {
+            buf.put(preEncoded);
+        }
+        for (Map.Entry<String, String> header : response.getHeaders().entrySet()) {
+            if (connectionLine != null && "Connection".equalsIgnoreCase(header.getKey())
+                    || preEncoded != null && !"Date".equals(header.getKey())) {
+                continue;
+            }
+            byte[] name = HEADER_NAMES.get(header.getKey());
+            if (name != null) {
+                buf.put(name);
+            } else {
+                putLatin1(buf, header.getKey());
+                buf.put(COLON_SP);
+            }
+            putLatin1(buf, header.getValue());
+            buf.put(CRLF);
+        }
+        if (connectionLine != null) {
+            buf.put(connectionLine);
+        }
+        buf.put(CRLF);
+        buf.flip();
+        return buf;
+    }
+
+    private static void putLatin1(ByteBuffer buf, String s) {
+        for (int i = 0, n = s.length(); i < n; i++) {
+            buf.put((byte) s.charAt(i));
+        }
+    }
+}
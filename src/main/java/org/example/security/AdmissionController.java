@@ -0,0 +1,126 @@
+package org.example.security;
+
+import org.example.HttpStatus;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Server-wide admission for requests, shared by all transports.
+ *
+ * A request gets a permit while its handler works on it. Past the adaptive {@link GradientLimit}
+ * it is shed with 503, past the per-IP in-flight cap with 429; both checks happen before any handler
+ * runs, so overload costs a pre-encoded response rather than queueing. Every permit is released
+ * exactly once, also when the connection dies before the response is written.
+ */
+public class AdmissionController {
+    private final GradientLimit limit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    // ip -> requests in flight, entries go away at zero
+    private final ConcurrentHashMap<String, Integer> perIp = new ConcurrentHashMap<>();
+    private volatile int maxPerIp;
+
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder shedByLimit = new LongAdder();
+    private final LongAdder shedByIp = new LongAdder();
+
+    public static final Permit REJECTED_LIMIT = new Permit(null, 0, HttpStatus.SERVICE_UNAVAILABLE);
+    public static final Permit REJECTED_IP = new Permit(null, 0, HttpStatus.TOO_MANY_REQUESTS);
+
+    public AdmissionController(GradientLimit limit, int maxPerIp) {
+        this.limit = limit;
+        this.maxPerIp = maxPerIp;
+    }
+
+    public static final class Permit {
+        final String ip;
+        final long startNanos;
+        final HttpStatus rejection;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        Permit(String ip, long startNanos, HttpStatus rejection) {
+            this.ip = ip;
+            this.startNanos = startNanos;
+            this.rejection = rejection;
+        }
+
+        public boolean isAdmitted() {
+            return rejection == null;
+        }
+
+        /**
+         * 503 (limit) or 429 (per-IP cap), null if admitted
+         */
+        public HttpStatus getRejection() {
+            return rejection;
+        }
+    }
+
+    /**
+     * @param ip client address, null skips the per-IP cap
+     */
+    public Permit tryAcquire(String ip) {
+        if (inFlight.incrementAndGet() > limit.getLimit()) {
+            inFlight.decrementAndGet();
+            shedByLimit.increment();
+            return REJECTED_LIMIT;
+        }
+        int cap = maxPerIp;
+        if (cap > 0 && ip != null) {
+            boolean[] over = new boolean[1];
+            perIp.compute(ip, (k, count) -> {
+                int n = count == null ? 0 : count;
+                if (n >= cap) {
+                    over[0] = true;
+                    return count;
+                }
+                return n + 1;
+            });
+            if (over[0]) {
+                inFlight.decrementAndGet();
+                shedByIp.increment();
+                return REJECTED_IP;
+            }
+        } else {
+            ip = null;
+        }
+        admitted.increment();
+        return new Permit(ip, System.nanoTime(), null);
+    }
+
+    /**
+     * @param sample the request completed normally and its latency should feed the limit
+     */
+    public void release(Permit permit, boolean sample) {
+        if (!permit.isAdmitted() || !permit.released.compareAndSet(false, true)) {
+            return;
+        }
+        int inFlightAtEnd = inFlight.getAndDecrement();
+        if (permit.ip != null) {
+            perIp.computeIfPresent(permit.ip, (k, count) -> count <= 1 ? null : count - 1);
+        }
+        if (sample) {
+            limit.onSample(System.nanoTime() - permit.startNanos, inFlightAtEnd);
+        }
+    }
+
+    public void setMaxPerIp(int maxPerIp) {
+        this.maxPerIp = maxPerIp;
+    }
+
+    public Map<String, Long> stats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("limit", (long) limit.getLimit());
+        stats.put("inFlight", (long) inFlight.get());
+        stats.put("admitted", admitted.sum());
+        stats.put("shedByLimit", shedByLimit.sum());
+        stats.put("shedByIp", shedByIp.sum());
+        stats.put("shortRttMicros", limit.getShortRttNanos() / 1000);
+        stats.put("longRttMicros", limit.getLongRttNanos() / 1000);
+        return stats;
+    }
+}
@@ -0,0 +1,92 @@
+package org.example.security;
+
+/**
+ * Concurrency limit that follows latency (gradient algorithm, as in Netflix concurrency-limits Gradient2).
+ *
+ * A short-term and a long-term exponential average of request latency are kept. While the short one stays
+ * near the long one the limit grows by a fraction of sqrt(limit) per sample; once requests start queueing the short
+ * average rises and the limit is scaled down by long/short (at most halved per sample). The limit does not
+ * grow while fewer than half of the permits are in use, an idle server learns nothing about its capacity.
+ */
+public class GradientLimit {
+    private final int minLimit;
+    private final int maxLimit;
+    // short/long ratio accepted before backing off
+    private final double tolerance;
+    private final double smoothing;
+    private final double shortAlpha;
+    private final double longAlpha;
+
+    private double limit;
+    // read on every admission without the lock
+    private volatile int currentLimit;
+    private double shortRtt;
+    private double longRtt;
+
+    public GradientLimit() {
+        this(100, 20, 5000);
+    }
+
+    public GradientLimit(int initialLimit, int minLimit, int maxLimit) {
+        this(initialLimit, minLimit, maxLimit, 1.5, 0.2, 10, 600);
+    }
+
+    /**
+     * @param shortWindow samples averaged by the short-term latency
+     * @param longWindow  samples averaged by the long-term latency
+     */
+    public GradientLimit(int initialLimit, int minLimit, int maxLimit, double tolerance, double smoothing,
+                         int shortWindow, int longWindow) {
+        this.limit = initialLimit;
+        this.currentLimit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.smoothing = smoothing;
+        this.shortAlpha = 2.0 / (shortWindow + 1);
+        this.longAlpha = 2.0 / (longWindow + 1);
+    }
+
+    public int getLimit() {
+        return currentLimit;
+    }
+
+    /**
+     * @param rttNanos latency of a completed request
+     * @param inFlight requests in flight when it completed
+     */
+    public synchronized void onSample(long rttNanos, int inFlight) {
+        if (rttNanos <= 0) {
+            return;
+        }
+        if (longRtt == 0) {
+            shortRtt = longRtt = rttNanos;
+            return;
+        }
+        shortRtt += (rttNanos - shortRtt) * shortAlpha;
+        longRtt += (rttNanos - longRtt) * longAlpha;
+
+        // the long average slowly absorbs a new normal, pull it down fast after a latency spike passed
+        if (longRtt > shortRtt * 2) {
+            longRtt *= 0.95;
+        }
+
+        if (inFlight < limit / 2) {
+            return; // app-limited
+        }
+
+        double gradient = Math.max(0.5, Math.min(1.0, tolerance * longRtt / shortRtt));
+        double newLimit = limit * gradient + Math.sqrt(limit);
+        newLimit = limit * (1 - smoothing) + newLimit * smoothing;
+        limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+        currentLimit = (int) limit;
+    }
+
+    public synchronized long getShortRttNanos() {
+        return (long) shortRtt;
+    }
+
+    public synchronized long getLongRttNanos() {
+        return (long) longRtt;
+    }
+}
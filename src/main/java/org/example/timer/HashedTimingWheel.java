@@ -0,0 +1,219 @@
+package org.example.timer;
+
+import org.example.log.Logger;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hashed timing wheel for per-connection deadlines.
+ *
+ * Every connection owns one {@link Deadline} for its whole life. Moving the deadline is a volatile
+ * write, the entry stays in its bucket and is re-hashed when the ticker reaches it, so the usual
+ * "push the timeout back on every request" costs no allocation and no lock. Only a deadline moved
+ * earlier than where it sits is re-queued. Expiry callbacks run on the ticker thread and must be short;
+ * the deadline is disarmed before the callback, so one that finds it armed again knows it was moved.
+ */
+public final class HashedTimingWheel {
+    private static final Logger log = Logger.get(HashedTimingWheel.class);
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    // new or moved-earlier entries, placed by the ticker
+    private final ConcurrentLinkedQueue<Deadline> pending = new ConcurrentLinkedQueue<>();
+    private final Thread ticker;
+    private final long startNanos = System.nanoTime();
+    private volatile boolean running;
+    private long tick;
+
+    public HashedTimingWheel(String name, long tickMillis, int ticksPerWheel) {
+        if (Integer.bitCount(ticksPerWheel) != 1) {
+            throw new IllegalArgumentException("ticksPerWheel must be a power of two: " + ticksPerWheel);
+        }
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.wheel = new Bucket[ticksPerWheel];
+        for (int i = 0; i < ticksPerWheel; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = ticksPerWheel - 1;
+        this.ticker = new Thread(this::run, name);
+        this.ticker.setDaemon(true);
+    }
+
+    public void start() {
+        if (!running) {
+            running = true;
+            ticker.start();
+        }
+    }
+
+    public void stop() {
+        running = false;
+        ticker.interrupt();
+    }
+
+    /**
+     * a disarmed deadline calling task when it expires
+     */
+    public Deadline newDeadline(Runnable task) {
+        return new Deadline(this, task);
+    }
+
+    private void run() {
+        while (running) {
+            long wakeAt = startNanos + (tick + 1) * tickNanos;
+            long sleep = wakeAt - System.nanoTime();
+            if (sleep > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                } catch (InterruptedException e) {
+                    if (!running) return;
+                }
+            }
+            tick++;
+            placePending();
+            expire(wheel[(int) (tick & mask)]);
+        }
+    }
+
+    private void placePending() {
+        Deadline d;
+        while ((d = pending.poll()) != null) {
+            d.unlink();
+            long at = d.deadline.get();
+            if (at == 0) {
+                d.leaveWheel();
+                continue;
+            }
+            place(d, at);
+        }
+    }
+
+    private void place(Deadline d, long at) {
+        long ticks = Math.max(tick + 1, ceilDiv(at - startNanos, tickNanos));
+        d.rounds = (ticks - tick - 1) / wheel.length;
+        d.placedAt = at;
+        wheel[(int) (ticks & mask)].add(d);
+    }
+
+    private void expire(Bucket bucket) {
+        long now = System.nanoTime();
+        // detach first, entries re-placed into this bucket wait for the next round
+        Deadline d = bucket.head;
+        bucket.head = bucket.tail = null;
+        while (d != null) {
+            Deadline next = d.next;
+            d.prev = d.next = null;
+            d.bucket = null;
+            if (d.rounds > 0) {
+                d.rounds--;
+                bucket.add(d);
+            } else {
+                long at = d.deadline.get();
+                if (at == 0) {
+                    d.leaveWheel();
+                } else if (at - now > tickNanos / 2) {
+                    place(d, at); // pushed back since it was placed
+                } else if (d.deadline.compareAndSet(at, 0)) {
+                    d.leaveWheel();
+                    try {
+                        d.task.run();
+                    } catch (RuntimeException e) {
+                        log.error("Timer task failed", e);
+                    }
+                } else {
+                    pending.offer(d); // moved just now, placed again on the next tick
+                }
+            }
+            d = next;
+        }
+    }
+
+    private static long ceilDiv(long a, long b) {
+        return -Math.floorDiv(-a, b);
+    }
+
+    private static final class Bucket {
+        Deadline head;
+        Deadline tail;
+
+        void add(Deadline d) {
+            d.bucket = this;
+            if (tail == null) {
+                head = tail = d;
+            } else {
+                tail.next = d;
+                d.prev = tail;
+                tail = d;
+            }
+        }
+
+        void remove(Deadline d) {
+            if (d.prev != null) d.prev.next = d.next; else head = d.next;
+            if (d.next != null) d.next.prev = d.prev; else tail = d.prev;
+            d.prev = d.next = null;
+            d.bucket = null;
+        }
+    }
+
+    /**
+     * one movable deadline. arm/disarm may be called from any thread.
+     */
+    public static final class Deadline {
+        private final HashedTimingWheel timer;
+        private final Runnable task;
+        // System.nanoTime() to expire at, 0 = disarmed
+        private final AtomicLong deadline = new AtomicLong();
+        private final AtomicBoolean inWheel = new AtomicBoolean();
+        // deadline the entry was hashed for, written by the ticker
+        private volatile long placedAt;
+
+        // ticker thread only
+        private long rounds;
+        private Bucket bucket;
+        private Deadline prev;
+        private Deadline next;
+
+        private Deadline(HashedTimingWheel timer, Runnable task) {
+            this.timer = timer;
+            this.task = task;
+        }
+
+        public void arm(long delayMillis) {
+            long at = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+            if (at == 0) at = 1;
+            deadline.set(at);
+            if (inWheel.compareAndSet(false, true)) {
+                timer.pending.offer(this);
+            } else if (at - placedAt < 0) {
+                // would fire late where it is, the ticker moves it
+                timer.pending.offer(this);
+            }
+        }
+
+        public void disarm() {
+            deadline.set(0);
+        }
+
+        public boolean isArmed() {
+            return deadline.get() != 0;
+        }
+
+        private void unlink() {
+            if (bucket != null) {
+                bucket.remove(this);
+            }
+        }
+
+        private void leaveWheel() {
+            inWheel.set(false);
+            // armed again while it was on its way out
+            if (deadline.get() != 0 && inWheel.compareAndSet(false, true)) {
+                timer.pending.offer(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ResponseBodyTest {
+
+    @Test
+    void countsReadyBytesUpToMax() {
+        ResponseBody body = new ResponseBody();
+        assertEquals(0, body.available(16));
+        body.addChunk(new byte[5]);
+        body.addChunk(new byte[7]);
+        assertEquals(12, body.available(16));
+        assertEquals(10, body.available(10));
+
+        ByteBuffer dst = ByteBuffer.allocate(8);
+        assertEquals(8, body.read(dst));
+        // nothing is used up by counting
+        assertEquals(4, body.available(16));
+        assertEquals(4, body.read(ByteBuffer.allocate(16)));
+        assertEquals(0, body.available(16));
+    }
+
+    @Test
+    void emptyReadSeesTheEnd() {
+        ByteBuffer none = ByteBuffer.allocate(0);
+        ResponseBody body = new ResponseBody();
+        body.addChunk(new byte[3]);
+        body.end();
+        assertEquals(0, body.read(none));
+        assertEquals(3, body.read(ByteBuffer.allocate(3)));
+        assertEquals(-1, body.read(none));
+
+        // empty chunks are dropped without room to copy into
+        ResponseBody empties = new ResponseBody();
+        empties.addChunk(new byte[0]);
+        empties.addChunk(ByteBuffer.allocate(0));
+        assertEquals(0, empties.available(16));
+        assertEquals(0, empties.read(none));
+        empties.end();
+        assertEquals(-1, empties.read(none));
+    }
+}
@@ -0,0 +1,119 @@
+package org.example;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StaticManifestTest {
+    private Path root;
+
+    @BeforeEach
+    void create() throws IOException {
+        root = Files.createTempDirectory("manifest").toRealPath();
+        Files.createDirectories(root.resolve("css/deep"));
+        Files.writeString(root.resolve("index.html"), "<h1>hi</h1>");
+        Files.writeString(root.resolve("css/site.css"), "body{}");
+        Files.writeString(root.resolve("css/deep/x.css"), "p{}");
+        Files.write(root.resolve("logo.png"), new byte[100]);
+        Files.write(root.resolve("photo.png"), new byte[200]);
+        Files.write(root.resolve("photo.png.gz"), new byte[50]);
+    }
+
+    @AfterEach
+    void delete() throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Test
+    void knowsEveryFileByUrlPath() throws IOException {
+        List<Path> directories = new ArrayList<>();
+        StaticManifest manifest = StaticManifest.build(root, directories::add);
+        assertEquals(6, manifest.size());
+        assertEquals(3, directories.size());
+
+        StaticManifest.Entry css = manifest.get("/css/deep/x.css");
+        assertEquals(root.resolve("css/deep/x.css"), css.path());
+        assertEquals("text/css", css.contentType());
+        assertEquals(3L, css.length());
+        assertTrue(css.etag().startsWith("\"3-"));
+        assertTrue(css == manifest.get(root.resolve("css/deep/x.css")));
+        assertNull(manifest.get("/css/missing.css"));
+        assertNull(manifest.get(root.getParent()));
+    }
+
+    @Test
+    void describesFilesWithoutVariants() throws IOException {
+        StaticManifest manifest = StaticManifest.build(root, dir -> { });
+        StaticManifest.Entry logo = manifest.get("/logo.png");
+        assertFalse(logo.isNegotiable());
+        // compressible types and files with a precompressed sibling depend on Accept-Encoding
+        assertTrue(manifest.get("/css/site.css").isNegotiable());
+        assertTrue(manifest.get("/photo.png").isNegotiable());
+
+        CachedFile described = logo.describe();
+        assertTrue(described == logo.describe());
+        assertEquals("image/png", described.contentType);
+        assertEquals("100", described.contentLength);
+        assertEquals(logo.etag(), described.etag);
+        assertEquals(logo.lastModified(), described.lastModified);
+        assertTrue(described.isNotModified(logo.etag(), null));
+        assertTrue(described.isNotModified(null, described.lastModifiedHeader));
+        assertFalse(described.isNotModified("\"other\"", null));
+
+        HttpResponse response = new HttpResponse();
+        described.applyNotModifiedTo(response);
+        assertEquals(HttpStatus.NOT_MODIFIED, response.getStatus());
+        assertNull(response.getBody());
+    }
+
+    @Test
+    void updatesChangedPaths() throws IOException {
+        StaticManifest manifest = StaticManifest.build(root, dir -> { });
+        Files.delete(root.resolve("photo.png.gz"));
+        Files.write(root.resolve("logo.png.br"), new byte[10]);
+        Files.writeString(root.resolve("css/deep/x.css"), "p{color:red}");
+        Files.writeString(root.resolve("css/deep/new.css"), "a{}");
+
+        StaticManifest next = manifest.updated(List.of(root.resolve("photo.png.gz"), root.resolve("logo.png.br"),
+                root.resolve("css/deep")), dir -> { });
+        assertNull(next.get("/photo.png.gz"));
+        assertFalse(next.get("/photo.png").isNegotiable());
+        assertTrue(next.get("/logo.png").isNegotiable());
+        assertEquals(12L, next.get("/css/deep/x.css").length());
+        assertNotNull(next.get("/css/deep/new.css"));
+        assertEquals(7, next.size());
+        // the old one is left as it was
+        assertEquals(3L, manifest.get("/css/deep/x.css").length());
+        assertFalse(manifest.get("/logo.png").isNegotiable());
+    }
+
+    @Test
+    void remembersMissesUntilReplaced() throws IOException {
+        StaticManifest manifest = StaticManifest.build(root, dir -> { });
+        assertTrue(manifest.covers(root.resolve("nothing/here.txt")));
+        assertFalse(manifest.covers(root.getParent().resolve("elsewhere")));
+
+        assertFalse(manifest.isRecentMiss("/nothing"));
+        manifest.recordMiss("/nothing");
+        assertTrue(manifest.isRecentMiss("/nothing"));
+        assertFalse(manifest.updated(List.of(root.resolve("index.html")), dir -> { }).isRecentMiss("/nothing"));
+    }
+}
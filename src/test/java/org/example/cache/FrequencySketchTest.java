@@ -0,0 +1,43 @@
+package org.example.cache;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FrequencySketchTest {
+
+    @Test
+    void countsAccesses() {
+        FrequencySketch sketch = new FrequencySketch(1024);
+        assertEquals(0, sketch.frequency("a"));
+        for (int i = 0; i < 5; i++) {
+            sketch.increment("a");
+        }
+        sketch.increment("b");
+        assertEquals(5, sketch.frequency("a"));
+        assertTrue(sketch.frequency("a") > sketch.frequency("b"));
+    }
+
+    @Test
+    void saturatesAtFifteen() {
+        FrequencySketch sketch = new FrequencySketch(1024);
+        for (int i = 0; i < 100; i++) {
+            sketch.increment("hot");
+        }
+        assertEquals(15, sketch.frequency("hot"));
+    }
+
+    @Test
+    void agesOldCounts() {
+        FrequencySketch sketch = new FrequencySketch(8);
+        for (int i = 0; i < 15; i++) {
+            sketch.increment("hot");
+        }
+        // enough other traffic for a few halvings
+        for (int i = 0; i < 1000; i++) {
+            sketch.increment("key" + i);
+        }
+        assertTrue(sketch.frequency("hot") < 15);
+    }
+}
@@ -0,0 +1,80 @@
+package org.example.cache;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MappedFileTest {
+    private Path file;
+
+    @BeforeEach
+    void create() throws IOException {
+        file = Files.createTempFile("mapped", ".bin");
+        Files.write(file, "0123456789".getBytes());
+    }
+
+    @AfterEach
+    void delete() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    void leavesRecentlyModifiedFilesAlone() throws IOException {
+        assertNull(MappedFile.mapSettled(file, attributes()));
+    }
+
+    @Test
+    void mapsSettledFiles() throws IOException {
+        settle();
+        MappedFile mapped = MappedFile.mapSettled(file, attributes());
+        assertNotNull(mapped);
+        assertEquals(10, mapped.size());
+        ByteBuffer bytes = mapped.slice();
+        assertEquals((byte) '0', bytes.get(0));
+        assertEquals((byte) '9', bytes.get(9));
+        mapped.release();
+        assertFalse(mapped.retain());
+    }
+
+    @Test
+    void dropsFilesThatChangeWhileMapped() throws IOException {
+        settle();
+        BasicFileAttributes before = attributes();
+        Files.write(file, "01234567890123".getBytes());
+        settle();
+        assertNull(MappedFile.mapSettled(file, before));
+        MappedFile mapped = MappedFile.mapSettled(file, attributes());
+        assertEquals(14, mapped.size());
+        mapped.release();
+    }
+
+    @Test
+    void countsReferences() throws IOException {
+        MappedFile mapped = MappedFile.map(file, 10);
+        assertTrue(mapped.retain());
+        mapped.release();
+        mapped.release();
+        assertFalse(mapped.retain());
+    }
+
+    private void settle() throws IOException {
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() - 10 * MappedFile.SETTLE_MILLIS));
+    }
+
+    private BasicFileAttributes attributes() throws IOException {
+        return Files.readAttributes(file, BasicFileAttributes.class);
+    }
+}
@@ -0,0 +1,127 @@
+package org.example.log;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RingBufferTest {
+
+    static final class Slot {
+        long value;
+    }
+
+    @Test
+    void rejectsCapacityThatIsNotAPowerOfTwo() {
+        assertThrows(IllegalArgumentException.class, () -> new RingBuffer<>(6, Slot::new));
+    }
+
+    @Test
+    void drainsInClaimOrderAndReusesEntries() {
+        RingBuffer<Slot> ring = new RingBuffer<>(4, Slot::new);
+        List<Slot> seen = new ArrayList<>();
+        List<Long> values = new ArrayList<>();
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 4; i++) {
+                long seq = ring.tryClaim();
+                assertEquals(round * 4L + i, seq);
+                ring.get(seq).value = seq;
+                ring.publish(seq);
+            }
+            assertEquals(4, ring.drain(slot -> {
+                seen.add(slot);
+                values.add(slot.value);
+            }, 16));
+        }
+        for (int i = 0; i < 12; i++) {
+            assertEquals(i, (long) values.get(i));
+            // wrapped around onto the same pre-allocated entries
+            assertTrue(seen.get(i) == seen.get(i % 4));
+        }
+    }
+
+    @Test
+    void claimFailsWhenFullUntilDrained() {
+        RingBuffer<Slot> ring = new RingBuffer<>(2, Slot::new);
+        ring.publish(ring.tryClaim());
+        ring.publish(ring.tryClaim());
+        assertEquals(-1L, ring.tryClaim());
+        assertEquals(1, ring.drain(slot -> { }, 1));
+        assertEquals(2L, ring.tryClaim());
+        assertEquals(-1L, ring.tryClaim());
+    }
+
+    @Test
+    void drainStopsAtTheFirstUnpublishedSlot() {
+        RingBuffer<Slot> ring = new RingBuffer<>(4, Slot::new);
+        long first = ring.tryClaim();
+        long second = ring.tryClaim();
+        ring.publish(second);
+        assertFalse(ring.hasPublished());
+        assertEquals(0, ring.drain(slot -> { }, 4));
+
+        ring.publish(first);
+        assertTrue(ring.hasPublished());
+        assertEquals(2, ring.drain(slot -> { }, 4));
+        assertFalse(ring.hasPublished());
+    }
+
+    @Test
+    void deliversEveryEventOnceWithConcurrentProducers() throws InterruptedException {
+        int producers = 4;
+        int perProducer = 20_000;
+        RingBuffer<Slot> ring = new RingBuffer<>(64, Slot::new);
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            long base = (long) p * perProducer;
+            threads[p] = new Thread(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    long seq;
+                    while ((seq = ring.tryClaim()) < 0) {
+                        if (System.nanoTime() > deadline) {
+                            return;
+                        }
+                        Thread.yield();
+                    }
+                    ring.get(seq).value = base + i;
+                    ring.publish(seq);
+                }
+            });
+            threads[p].start();
+        }
+
+        long[] next = new long[producers];
+        for (int p = 0; p < producers; p++) {
+            next[p] = (long) p * perProducer;
+        }
+        int[] received = new int[1];
+        boolean[] ordered = {true};
+        while (received[0] < producers * perProducer && System.nanoTime() < deadline) {
+            int n = ring.drain(slot -> {
+                int p = (int) (slot.value / perProducer);
+                // each producer's events arrive in the order it published them
+                if (slot.value != next[p]++) {
+                    ordered[0] = false;
+                }
+            }, 256);
+            if (n == 0) {
+                Thread.yield();
+            }
+            received[0] += n;
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(producers * perProducer, received[0]);
+        assertTrue(ordered[0]);
+        for (int p = 0; p < producers; p++) {
+            assertEquals((long) (p + 1) * perProducer, next[p]);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package org.example.protocol;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class AcceptEncodingTest {
+
+    @Test
+    void readsQualities() {
+        String header = "gzip, deflate, br;q=0.9, identity; q=0.5";
+        assertEquals(1f, AcceptEncoding.quality(header, "gzip"));
+        assertEquals(1f, AcceptEncoding.quality(header, "deflate"));
+        assertEquals(0.9f, AcceptEncoding.quality(header, "br"));
+        assertEquals(0.5f, AcceptEncoding.quality(header, "identity"));
+        assertEquals(0f, AcceptEncoding.quality(header, "zstd"));
+        assertEquals(1f, AcceptEncoding.quality("GZip", "gzip"));
+    }
+
+    @Test
+    void wildcardCoversUnnamedCodings() {
+        assertEquals(0.3f, AcceptEncoding.quality("gzip, *;q=0.3", "br"));
+        assertEquals(0f, AcceptEncoding.quality("*;q=0.3, br;q=0", "br"));
+        assertEquals(1f, AcceptEncoding.quality("br, *;q=0", "br"));
+    }
+
+    @Test
+    void unreadableQualityRefuses() {
+        assertEquals(0f, AcceptEncoding.quality("gzip;q=abc", "gzip"));
+        assertEquals(0f, AcceptEncoding.quality("", "gzip"));
+    }
+}
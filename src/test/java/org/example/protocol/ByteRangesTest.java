@@ -0,0 +1,48 @@
+package org.example.protocol;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ByteRangesTest {
+
+    @Test
+    void readsSingleRanges() {
+        assertArrayEquals(new long[]{0, 499}, ByteRanges.parse("bytes=0-499", 1000));
+        assertArrayEquals(new long[]{900, 999}, ByteRanges.parse("bytes=900-", 1000));
+        assertArrayEquals(new long[]{800, 999}, ByteRanges.parse("bytes=-200", 1000));
+        // clipped to the length
+        assertArrayEquals(new long[]{500, 999}, ByteRanges.parse("bytes=500-5000", 1000));
+        assertArrayEquals(new long[]{0, 999}, ByteRanges.parse("bytes=-5000", 1000));
+        assertArrayEquals(new long[]{0, 9}, ByteRanges.parse(" Bytes = 0-9 ", 1000));
+    }
+
+    @Test
+    void keepsMultipleRangesInRequestOrder() {
+        assertArrayEquals(new long[]{500, 599, 0, 99, 900, 999},
+                ByteRanges.parse("bytes=500-599, 0-99,, -100", 1000));
+        // unsatisfiable ones are dropped, the rest is served
+        assertArrayEquals(new long[]{0, 99}, ByteRanges.parse("bytes=0-99, 2000-3000", 1000));
+    }
+
+    @Test
+    void nothingSatisfiableIs416() {
+        assertEquals(0, ByteRanges.parse("bytes=1000-", 1000).length);
+        assertEquals(0, ByteRanges.parse("bytes=2000-2100, 3000-", 1000).length);
+        assertEquals(0, ByteRanges.parse("bytes=-0", 1000).length);
+        assertEquals(0, ByteRanges.parse("bytes=0-0", 0).length);
+    }
+
+    @Test
+    void unusableHeadersAreIgnored() {
+        assertNull(ByteRanges.parse("items=0-1", 1000));
+        assertNull(ByteRanges.parse("bytes 0-1", 1000));
+        assertNull(ByteRanges.parse("bytes=", 1000));
+        assertNull(ByteRanges.parse("bytes=5-1", 1000));
+        assertNull(ByteRanges.parse("bytes=a-b", 1000));
+        assertNull(ByteRanges.parse("bytes=0-99, 50-150", 1000));
+        assertNull(ByteRanges.parse("bytes=0-1" + ", 10-11".repeat(ByteRanges.MAX_RANGES), 1000));
+    }
+}
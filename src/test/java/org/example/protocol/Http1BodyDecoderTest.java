@@ -0,0 +1,107 @@
+package org.example.protocol;
+
+import org.example.HttpStatus;
+import org.example.RequestBody;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class Http1BodyDecoderTest {
+
+    // feeds text in reads of step bytes, returns the decoded body and what was left after it
+    private static String[] decode(Http1BodyDecoder decoder, String text, int step) throws IOException {
+        byte[] bytes = text.getBytes(ISO_8859_1);
+        RequestBody body = new RequestBody();
+        ByteBuffer buf = ByteBuffer.allocate(bytes.length);
+        boolean done = false;
+        for (int i = 0; i < bytes.length && !done; i += step) {
+            buf.put(bytes, i, Math.min(step, bytes.length - i));
+            buf.flip();
+            done = decoder.decode(buf, body);
+            buf.compact();
+        }
+        assertTrue(done);
+        body.end();
+        buf.flip();
+        String rest = ISO_8859_1.decode(buf).toString();
+        return new String[]{new String(body.toBytes(), ISO_8859_1), rest};
+    }
+
+    private static HttpStatus failure(String text) {
+        Http1BodyDecoder decoder = new Http1BodyDecoder(-1, true);
+        HttpParseException e = assertThrows(HttpParseException.class,
+                () -> decoder.decode(ByteBuffer.wrap(text.getBytes(ISO_8859_1)), new RequestBody()));
+        return e.getStatus();
+    }
+
+    @Test
+    void readsContentLengthAcrossReads() throws IOException {
+        for (int step : new int[]{1, 3, 100}) {
+            String[] result = decode(new Http1BodyDecoder(5, false), "helloGET / HTTP/1.1\r\n", step);
+            assertEquals("hello", result[0]);
+            assertTrue(("GET / HTTP/1.1\r\n").startsWith(result[1]));
+        }
+        String[] whole = decode(new Http1BodyDecoder(5, false), "helloGET", 100);
+        assertEquals("GET", whole[1]);
+    }
+
+    @Test
+    void emptyBodyIsDoneAtOnce() throws IOException {
+        Http1BodyDecoder decoder = new Http1BodyDecoder(0, false);
+        assertTrue(decoder.isDone());
+        assertTrue(decoder.decode(ByteBuffer.allocate(0), new RequestBody()));
+    }
+
+    @Test
+    void readsChunksWithExtensionsAndTrailers() throws IOException {
+        String text = "3;name=value\r\nabc\r\nA\r\n0123456789\r\n0\r\nExpires: never\r\nX-Sum: 1\r\n\r\nGET";
+        for (int step : new int[]{1, 2, 7, 1000}) {
+            String[] result = decode(new Http1BodyDecoder(-1, true), text, step);
+            assertEquals("abc0123456789", result[0]);
+            assertTrue("GET".startsWith(result[1]));
+        }
+        assertEquals("GET", decode(new Http1BodyDecoder(-1, true), text, 1000)[1]);
+    }
+
+    @Test
+    void acceptsBareLineFeeds() throws IOException {
+        assertEquals("ab", decode(new Http1BodyDecoder(-1, true), "2\nab\n0\n\n", 1)[0]);
+    }
+
+    @Test
+    void waitsForTheLastChunk() throws IOException {
+        Http1BodyDecoder decoder = new Http1BodyDecoder(-1, true);
+        assertFalse(decoder.decode(ByteBuffer.wrap("3\r\nabc\r\n".getBytes(ISO_8859_1)), new RequestBody()));
+        assertFalse(decoder.isDone());
+    }
+
+    @Test
+    void rejectsChunkSizeOverflow() {
+        assertEquals(HttpStatus.BAD_REQUEST, failure("ffffffffffffffff\r\n"));
+        assertEquals(HttpStatus.BAD_REQUEST, failure("10000000000000000\r\n"));
+    }
+
+    @Test
+    void rejectsMalformedChunks() {
+        assertEquals(HttpStatus.BAD_REQUEST, failure("xyz\r\n"));
+        assertEquals(HttpStatus.BAD_REQUEST, failure("3\r\nabcd\r\n"));
+        assertEquals(HttpStatus.BAD_REQUEST, failure("3\r\nabc\r\n0\r\n\rx"));
+        assertEquals(HttpStatus.BAD_REQUEST, failure("1;" + "x".repeat(2000) + "\r\n"));
+    }
+
+    @Test
+    void rejectsChunkSizeLinesWithoutDigits() {
+        assertEquals(HttpStatus.BAD_REQUEST, failure("\r\n"));
+        assertEquals(HttpStatus.BAD_REQUEST, failure(";ext\r\n"));
+        assertEquals(HttpStatus.BAD_REQUEST, failure(" 3\r\nabc\r\n0\r\n\r\n"));
+        // a stray CRLF after chunk data must not end the body
+        assertEquals(HttpStatus.BAD_REQUEST, failure("3\r\nabc\r\n\r\n0\r\n\r\n"));
+    }
+}
@@ -0,0 +1,143 @@
+package org.example.protocol;
+
+import org.example.HttpRequest;
+import org.example.HttpStatus;
+import org.example.Protocol;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class Http1RequestParserTest {
+
+    private static ByteBuffer buffer(String s) {
+        return ByteBuffer.wrap(s.getBytes(ISO_8859_1));
+    }
+
+    private static HttpRequest parse(String s) {
+        return new Http1RequestParser().parse(buffer(s));
+    }
+
+    private static HttpStatus failure(String s) {
+        return assertThrows(HttpParseException.class, () -> parse(s)).getStatus();
+    }
+
+    @Test
+    void parsesRequestLineAndHeaders() {
+        HttpRequest request = parse("GET /index.html?x=1 HTTP/1.1\r\nHost: a\r\nX-Test:  value \r\n\r\n");
+        assertEquals("GET", request.method);
+        assertEquals("/index.html?x=1", request.path);
+        assertEquals(Protocol.HTTP1_1, request.protocol);
+        assertEquals("value", request.headers.get("x-test"));
+        assertEquals("a", request.headers.get("Host"));
+        assertTrue(request.keepAlive);
+        assertFalse(request.hasBody);
+    }
+
+    @Test
+    void resumesAcrossSplitReads() {
+        String text = "POST /upload HTTP/1.1\r\nHost: a\r\nContent-Length: 4\r\n\r\nbody";
+        byte[] bytes = text.getBytes(ISO_8859_1);
+        Http1RequestParser parser = new Http1RequestParser();
+        ByteBuffer buf = ByteBuffer.allocate(bytes.length);
+        HttpRequest request = null;
+        // one byte per read, the buffer compacted in between like a connection does
+        for (int i = 0; i < bytes.length && request == null; i++) {
+            buf.put(bytes[i]);
+            buf.flip();
+            request = parser.parse(buf);
+            if (request == null) {
+                assertEquals(0, buf.position());
+                buf.compact();
+            }
+        }
+        assertNotNull(request);
+        assertEquals("/upload", request.path);
+        assertEquals(4, request.contentLength);
+        assertTrue(request.hasBody);
+        // nothing of the body is consumed
+        assertEquals(0, buf.remaining());
+        assertEquals(bytes.length - 4, buf.position());
+    }
+
+    @Test
+    void leavesPipelinedRequestsInTheBuffer() {
+        ByteBuffer buf = buffer("\r\nGET /a HTTP/1.1\r\nHost: a\r\n\r\nGET /b HTTP/1.1\r\nHost: a\r\n\r\n");
+        Http1RequestParser parser = new Http1RequestParser();
+        assertEquals("/a", parser.parse(buf).path);
+        assertEquals("/b", parser.parse(buf).path);
+        assertFalse(buf.hasRemaining());
+    }
+
+    @Test
+    void readsConnectionTokens() {
+        assertFalse(parse("GET / HTTP/1.0\r\n\r\n").keepAlive);
+        assertTrue(parse("GET / HTTP/1.0\r\nConnection: Keep-Alive\r\n\r\n").keepAlive);
+        assertFalse(parse("GET / HTTP/1.1\r\nHost: a\r\nConnection: keep-alive, close\r\n\r\n").keepAlive);
+        assertTrue(parse("GET / HTTP/1.1\r\nHost: a\r\nConnection: xclose\r\n\r\n").keepAlive);
+    }
+
+    @Test
+    void acceptsLoneChunkedCoding() {
+        HttpRequest request = parse("POST / HTTP/1.1\r\nHost: a\r\nTransfer-Encoding: Chunked\r\n\r\n");
+        assertTrue(request.chunked);
+        assertTrue(request.hasBody);
+        assertEquals(-1, request.contentLength);
+    }
+
+    @Test
+    void rejectsOtherTransferCodings() {
+        assertEquals(HttpStatus.NOT_IMPLEMENTED, failure("POST / HTTP/1.1\r\nHost: a\r\nTransfer-Encoding: xchunked\r\n\r\n"));
+        assertEquals(HttpStatus.NOT_IMPLEMENTED, failure("POST / HTTP/1.1\r\nHost: a\r\nTransfer-Encoding: gzip, chunked\r\n\r\n"));
+        assertEquals(HttpStatus.NOT_IMPLEMENTED,
+                failure("POST / HTTP/1.1\r\nHost: a\r\nTransfer-Encoding: chunked\r\nTransfer-Encoding: chunked\r\n\r\n"));
+    }
+
+    @Test
+    void rejectsAmbiguousFraming() {
+        assertEquals(HttpStatus.BAD_REQUEST,
+                failure("POST / HTTP/1.1\r\nHost: a\r\nContent-Length: 3\r\nTransfer-Encoding: chunked\r\n\r\n"));
+        assertEquals(HttpStatus.BAD_REQUEST,
+                failure("POST / HTTP/1.1\r\nHost: a\r\nContent-Length: 3\r\nContent-Length: 4\r\n\r\n"));
+        assertEquals(3, parse("POST / HTTP/1.1\r\nHost: a\r\nContent-Length: 3\r\nContent-Length: 3\r\n\r\n").contentLength);
+    }
+
+    @Test
+    void rejectsMalformedRequests() {
+        assertEquals(HttpStatus.BAD_REQUEST, failure("GET / HTTP/1.1\r\n\r\n"));
+        assertEquals(HttpStatus.BAD_REQUEST, failure("POST / HTTP/1.1\r\nHost: a\r\nContent-Length: 1x\r\n\r\n"));
+        assertEquals(HttpStatus.BAD_REQUEST, failure("GET / HTTP/2.0\r\nHost: a\r\n\r\n"));
+    }
+
+    @Test
+    void limitsTheHeaderBlock() {
+        Http1RequestParser parser = new Http1RequestParser(64);
+        ByteBuffer buf = buffer("GET / HTTP/1.1\r\nHost: a\r\nX-Long: " + "x".repeat(100));
+        HttpParseException e = assertThrows(HttpParseException.class, () -> parser.parse(buf));
+        assertEquals(HttpStatus.REQUEST_HEADER_FIELDS_TOO_LARGE, e.getStatus());
+
+        // complete, in one read
+        ByteBuffer whole = buffer("GET / HTTP/1.1\r\nHost: a\r\nX-Long: " + "x".repeat(100) + "\r\n\r\n");
+        e = assertThrows(HttpParseException.class, () -> new Http1RequestParser(64).parse(whole));
+        assertEquals(HttpStatus.REQUEST_HEADER_FIELDS_TOO_LARGE, e.getStatus());
+
+        // exactly at the limit is fine
+        String fits = "GET / HTTP/1.1\r\nHost: a\r\n\r\n";
+        assertEquals("/", new Http1RequestParser(fits.length()).parse(buffer(fits)).path);
+    }
+
+    @Test
+    void waitsForTheEndOfTheHeaders() {
+        Http1RequestParser parser = new Http1RequestParser();
+        ByteBuffer buf = buffer("GET / HTTP/1.1\r\nHost: a\r\n");
+        assertNull(parser.parse(buf));
+        assertEquals(0, buf.position());
+    }
+}
@@ -0,0 +1,86 @@
+package org.example.security;
+
+import org.example.HttpStatus;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdmissionControllerTest {
+
+    @Test
+    void shedsPastTheLimitWith503() {
+        AdmissionController admission = new AdmissionController(new GradientLimit(2, 1, 10), 0);
+        AdmissionController.Permit a = admission.tryAcquire("10.0.0.1");
+        AdmissionController.Permit b = admission.tryAcquire("10.0.0.2");
+        assertTrue(a.isAdmitted());
+        assertNull(a.getRejection());
+        assertTrue(b.isAdmitted());
+
+        AdmissionController.Permit c = admission.tryAcquire("10.0.0.3");
+        assertFalse(c.isAdmitted());
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, c.getRejection());
+
+        admission.release(a, false);
+        assertTrue(admission.tryAcquire("10.0.0.3").isAdmitted());
+        assertEquals(1L, stat(admission, "shedByLimit"));
+        assertEquals(3L, stat(admission, "admitted"));
+    }
+
+    @Test
+    void capsRequestsPerIpWith429() {
+        AdmissionController admission = new AdmissionController(new GradientLimit(100, 1, 100), 2);
+        AdmissionController.Permit a = admission.tryAcquire("10.0.0.1");
+        admission.tryAcquire("10.0.0.1");
+        AdmissionController.Permit over = admission.tryAcquire("10.0.0.1");
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, over.getRejection());
+        assertTrue(admission.tryAcquire("10.0.0.2").isAdmitted());
+        // a null address skips the cap
+        assertTrue(admission.tryAcquire(null).isAdmitted());
+        assertTrue(admission.tryAcquire(null).isAdmitted());
+        assertTrue(admission.tryAcquire(null).isAdmitted());
+
+        admission.release(a, false);
+        assertTrue(admission.tryAcquire("10.0.0.1").isAdmitted());
+        assertEquals(1L, stat(admission, "shedByIp"));
+        // the rejected one gave its global slot back
+        assertEquals(6L, stat(admission, "inFlight"));
+    }
+
+    @Test
+    void releasesEachPermitOnce() {
+        AdmissionController admission = new AdmissionController(new GradientLimit(1, 1, 10), 1);
+        AdmissionController.Permit a = admission.tryAcquire("10.0.0.1");
+        admission.release(a, false);
+        admission.release(a, false);
+        assertEquals(0L, stat(admission, "inFlight"));
+
+        AdmissionController.Permit b = admission.tryAcquire("10.0.0.1");
+        assertTrue(b.isAdmitted());
+        AdmissionController.Permit shed = admission.tryAcquire("10.0.0.2");
+        assertFalse(shed.isAdmitted());
+        // releasing a rejection must not free b's slot
+        admission.release(shed, true);
+        assertEquals(1L, stat(admission, "inFlight"));
+        assertFalse(admission.tryAcquire("10.0.0.2").isAdmitted());
+    }
+
+    @Test
+    void feedsLatencyOfSampledRequestsOnly() throws InterruptedException {
+        GradientLimit limit = new GradientLimit(10, 1, 10);
+        AdmissionController admission = new AdmissionController(limit, 0);
+        admission.release(admission.tryAcquire("10.0.0.1"), false);
+        assertEquals(0L, limit.getLongRttNanos());
+
+        AdmissionController.Permit sampled = admission.tryAcquire("10.0.0.1");
+        Thread.sleep(2);
+        admission.release(sampled, true);
+        assertTrue(limit.getLongRttNanos() >= 2_000_000, "rtt " + limit.getLongRttNanos());
+    }
+
+    private static long stat(AdmissionController admission, String name) {
+        return admission.stats().get(name);
+    }
+}
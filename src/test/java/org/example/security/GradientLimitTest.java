@@ -0,0 +1,65 @@
+package org.example.security;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GradientLimitTest {
+    private static final long MS = 1_000_000;
+
+    @Test
+    void growsWhileLatencyIsSteady() {
+        GradientLimit limit = new GradientLimit(10, 5, 20);
+        for (int i = 0; i < 20; i++) {
+            limit.onSample(MS, limit.getLimit());
+        }
+        assertTrue(limit.getLimit() > 10, "limit " + limit.getLimit());
+        for (int i = 0; i < 500; i++) {
+            limit.onSample(MS, limit.getLimit());
+        }
+        assertEquals(20, limit.getLimit());
+    }
+
+    @Test
+    void backsOffWhenLatencyRises() {
+        GradientLimit limit = new GradientLimit(20, 5, 40);
+        for (int i = 0; i < 100; i++) {
+            limit.onSample(MS, limit.getLimit());
+        }
+        int before = limit.getLimit();
+        for (int i = 0; i < 30; i++) {
+            limit.onSample(20 * MS, limit.getLimit());
+        }
+        assertTrue(limit.getLimit() < before, "limit " + limit.getLimit() + " was " + before);
+        assertTrue(limit.getShortRttNanos() > limit.getLongRttNanos());
+    }
+
+    @Test
+    void neverDropsBelowTheMinimum() {
+        GradientLimit limit = new GradientLimit(20, 5, 40);
+        limit.onSample(MS, 20);
+        for (int i = 0; i < 200; i++) {
+            limit.onSample((i + 2) * 10 * MS, 40);
+        }
+        assertEquals(5, limit.getLimit());
+    }
+
+    @Test
+    void learnsNothingWhileAppLimited() {
+        GradientLimit limit = new GradientLimit(10, 5, 20);
+        for (int i = 0; i < 100; i++) {
+            limit.onSample(i % 2 == 0 ? MS : 50 * MS, 1);
+        }
+        assertEquals(10, limit.getLimit());
+    }
+
+    @Test
+    void ignoresEmptySamples() {
+        GradientLimit limit = new GradientLimit(10, 5, 20);
+        limit.onSample(0, 10);
+        limit.onSample(-1, 10);
+        assertEquals(0L, limit.getLongRttNanos());
+        assertEquals(10, limit.getLimit());
+    }
+}
@@ -0,0 +1,86 @@
+package org.example.timer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HashedTimingWheelTest {
+    // 8 ticks of 5ms: one round of the wheel is 40ms
+    private HashedTimingWheel wheel;
+
+    @BeforeEach
+    void start() {
+        wheel = new HashedTimingWheel("test-wheel", 5, 8);
+        wheel.start();
+    }
+
+    @AfterEach
+    void stop() {
+        wheel.stop();
+    }
+
+    @Test
+    void firesAfterSeveralRounds() throws InterruptedException {
+        CountDownLatch fired = new CountDownLatch(1);
+        HashedTimingWheel.Deadline deadline = wheel.newDeadline(fired::countDown);
+        long start = System.nanoTime();
+        deadline.arm(150);
+        assertTrue(deadline.isArmed());
+        assertTrue(fired.await(2, TimeUnit.SECONDS));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(elapsed >= 145, "fired after " + elapsed + "ms");
+        assertFalse(deadline.isArmed());
+    }
+
+    @Test
+    void reArmPushesTheDeadlineBack() throws InterruptedException {
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch fired = new CountDownLatch(1);
+        HashedTimingWheel.Deadline deadline = wheel.newDeadline(() -> {
+            runs.incrementAndGet();
+            fired.countDown();
+        });
+        long start = System.nanoTime();
+        deadline.arm(60);
+        Thread.sleep(30);
+        deadline.arm(120);
+        assertTrue(fired.await(2, TimeUnit.SECONDS));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(elapsed >= 140, "fired after " + elapsed + "ms");
+        Thread.sleep(100);
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    void reArmEarlierFiresSooner() throws InterruptedException {
+        CountDownLatch fired = new CountDownLatch(1);
+        HashedTimingWheel.Deadline deadline = wheel.newDeadline(fired::countDown);
+        deadline.arm(60_000);
+        Thread.sleep(20);
+        deadline.arm(20);
+        assertTrue(fired.await(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void disarmedDeadlineDoesNotFire() throws InterruptedException {
+        AtomicInteger runs = new AtomicInteger();
+        HashedTimingWheel.Deadline deadline = wheel.newDeadline(runs::incrementAndGet);
+        deadline.arm(20);
+        deadline.disarm();
+        Thread.sleep(100);
+        assertEquals(0, runs.get());
+
+        // the same deadline can be armed again
+        deadline.arm(20);
+        Thread.sleep(200);
+        assertEquals(1, runs.get());
+    }
+}